@@ -0,0 +1,98 @@
+package com.lindronics.flirapp.classification;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares batched inference with single frame inference on the CPU, on the bundled model.
+ * The time per frame of both paths is logged under the "BatchInference" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchInferenceTest {
+
+    private static final String TAG = "BatchInference";
+
+    private static final int FRAMES = 32;
+    private static final int BATCH_SIZE = 8;
+    private static final int THREADS = 4;
+
+    @Test
+    public void batchedInference_matchesSingleFrames() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AffineMatrix alignment = AffineMatrix.read(new InputStreamReader(context.getAssets().open("transformation.txt")));
+        ModelHandler modelHandler = new ModelHandler(context, ModelHandler.Device.CPU, THREADS, false, alignment);
+        List<FrameDataHolder> frames = createFrames();
+        try {
+            modelHandler.recognizeImage(frames.get(0));
+            List<List<ModelHandler.Recognition>> single = new ArrayList<>();
+            long start = System.nanoTime();
+            for (FrameDataHolder frame : frames) {
+                List<ModelHandler.Recognition> results = new ArrayList<>();
+                ModelHandler.copyResults(modelHandler.recognizeImage(frame), results);
+                single.add(results);
+            }
+            long singleNanos = System.nanoTime() - start;
+
+            assertTrue(modelHandler.setMaxBatchSize(BATCH_SIZE));
+            modelHandler.recognizeImages(frames.subList(0, BATCH_SIZE));
+            start = System.nanoTime();
+            List<List<ModelHandler.Recognition>> batched = modelHandler.recognizeImages(frames);
+            long batchedNanos = System.nanoTime() - start;
+
+            Log.i(TAG, String.format(Locale.UK, "CPU, %d threads: %.2f ms per frame single, %.2f ms per frame in batches of %d",
+                    THREADS, singleNanos / 1e6 / FRAMES, batchedNanos / 1e6 / FRAMES, BATCH_SIZE));
+
+            assertEquals(FRAMES, batched.size());
+            for (int i = 0; i < FRAMES; i++) {
+                assertEquals(single.get(i).get(0).getTitle(), batched.get(i).get(0).getTitle());
+                assertEquals(single.get(i).get(0).getConfidence(), batched.get(i).get(0).getConfidence(), 1e-4f);
+            }
+        } finally {
+            modelHandler.close();
+            for (FrameDataHolder frame : frames) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Frames of random noise, at camera resolution
+     */
+    private static List<FrameDataHolder> createFrames() {
+        Random random = new Random(42);
+        int width = 480;
+        int height = 640;
+        int[] pixels = new int[width * height];
+        List<FrameDataHolder> frames = new ArrayList<>();
+        for (int i = 0; i < FRAMES; i++) {
+            Bitmap rgb = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            Bitmap fir = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            for (int p = 0; p < pixels.length; p++) {
+                pixels[p] = 0xFF000000 | random.nextInt(0x1000000);
+            }
+            rgb.setPixels(pixels, 0, width, 0, 0, width, height);
+            fir.setPixels(pixels, 0, width, 0, 0, width, height);
+            frames.add(new FrameDataHolder(rgb, fir));
+        }
+        return frames;
+    }
+}
@@ -1,12 +1,14 @@
 package com.lindronics.flirapp.activities;
 
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.Switch;
+import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 
@@ -19,28 +21,104 @@ import com.lindronics.flirapp.R;
 import com.lindronics.flirapp.camera.AffineTransformer;
 import com.lindronics.flirapp.camera.CameraHandler;
 import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.camera.FrameExchange;
+import com.lindronics.flirapp.camera.FrameSource;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+import com.lindronics.flirapp.pipeline.DropPolicy;
+import com.lindronics.flirapp.pipeline.PipelineBatchStage;
+import com.lindronics.flirapp.pipeline.PipelineLane;
+import com.lindronics.flirapp.pipeline.PipelineScheduler;
+import com.lindronics.flirapp.pipeline.PipelineStage;
+import com.lindronics.flirapp.replay.ReplayFrameSource;
+import com.lindronics.flirapp.replay.ReplayMode;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 abstract class AbstractCameraActivity extends AppCompatActivity implements CameraHandler.StreamDataListener {
 
     private static final String TAG = "AbstractCameraActivity";
 
-    private Handler handler;
-    private HandlerThread handlerThread;
+    /**
+     * Expected size of the camera frames, used to prepare the transformation up front.
+     */
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    /**
+     * How often the metrics overlay is refreshed while it is shown
+     */
+    private static final long METRICS_REFRESH_MILLIS = 500;
+
+    /**
+     * Intent extras replaying a recorded session instead of connecting to a camera:
+     * session path, absolute or relative to the app's files folder, {@link ReplayMode} name,
+     * rate for fixed rate replay and number of loops
+     */
+    static final String EXTRA_REPLAY_SESSION = "replaySession";
+    static final String EXTRA_REPLAY_MODE = "replayMode";
+    static final String EXTRA_REPLAY_RATE = "replayRate";
+    static final String EXTRA_REPLAY_LOOPS = "replayLoops";
+
+    /**
+     * Runs the background stages registered by subclasses
+     */
+    private final PipelineScheduler scheduler = new PipelineScheduler();
+
+    /**
+     * Writes metrics reports off the UI thread
+     */
+    private final ExecutorService metricsWriter = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "metrics-writer"));
 
     private CameraHandler cameraHandler;
 
+    /**
+     * Source of the frames, the camera or a replayed session
+     */
+    private FrameSource frameSource;
+
     private ImageView rgbImage;
     private ImageView firImage;
 
-    private LinkedBlockingQueue<FrameDataHolder> framesBuffer = new LinkedBlockingQueue<>(21);
+    /**
+     * Newest frame waiting to be displayed
+     */
+    private final FrameExchange displayExchange = new FrameExchange();
+
+    /**
+     * Whether a display update is already posted to the UI thread
+     */
+    private final AtomicBoolean displayPending = new AtomicBoolean(false);
+
+    /**
+     * Frame currently shown in the image views, released once it is replaced
+     */
+    private FrameDataHolder displayedFrame = null;
     private boolean applyTransformation;
+
+    /**
+     * Whether consumers read the temperatures instead of the rendered FIR image,
+     * which then only needs to be rendered while it is shown
+     */
+    private boolean thermalInput = false;
     private AffineTransformer transformer;
 
+    private TextView metricsOverlay;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private boolean showMetrics = false;
+
     /**
      * Executed when activity is created.
      * Get camera identity from intent and connect to camera.
@@ -54,6 +132,14 @@ abstract class AbstractCameraActivity extends AppCompatActivity implements Camer
 
         rgbImage = findViewById(R.id.rgb_view);
         firImage = findViewById(R.id.fir_view);
+        metricsOverlay = findViewById(R.id.metrics_overlay);
+
+        try {
+            transformer = new AffineTransformer(this, FRAME_WIDTH, FRAME_HEIGHT);
+        } catch (IOException e) {
+            finish();
+            return;
+        }
 
         Bundle extras = getIntent().getExtras();
         Gson gson = new Gson();
@@ -63,38 +149,65 @@ abstract class AbstractCameraActivity extends AppCompatActivity implements Camer
             return;
         }
 
+        String replaySession = extras.getString(EXTRA_REPLAY_SESSION);
+        if (replaySession != null) {
+            try {
+                frameSource = createReplaySource(extras, replaySession);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Could not open replay session " + replaySession, e);
+                finish();
+                return;
+            }
+
+            // Start once the subclass has set up and the activity has resumed, like a connected camera
+            uiHandler.post(() -> frameSource.start(this));
+            return;
+        }
+
+        frameSource = cameraHandler;
         String identityString = extras.getString("cameraIdentity");
         Identity cameraIdentity = gson.fromJson(identityString, Identity.class);
         cameraHandler.connect(cameraIdentity, connectionStatusListener);
-
-        try {
-            transformer = new AffineTransformer(this);
-        } catch (IOException e) {
-            finish();
-        }
     }
 
     @Override
     public synchronized void onResume() {
         super.onResume();
-        handlerThread = new HandlerThread("inference");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+
+        // Every resume starts a new metrics session
+        PipelineMetrics.getInstance().reset();
+        scheduler.start();
+        if (showMetrics) {
+            uiHandler.post(refreshMetrics);
+        }
     }
 
     @Override
     public synchronized void onPause() {
-        handlerThread.quitSafely();
-        try {
-            handlerThread.join();
-            handlerThread = null;
-            handler = null;
-        } catch (final InterruptedException e) {
-            e.printStackTrace();
-        }
+        scheduler.stop();
+        uiHandler.removeCallbacks(refreshMetrics);
+        exportMetrics();
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (frameSource != null) {
+            frameSource.stop();
+        }
+        if (transformer != null) {
+            transformer.close();
+        }
+        displayExchange.clear();
+        if (displayedFrame != null) {
+            displayedFrame.release();
+            displayedFrame = null;
+        }
+        // Lets a pending report finish
+        metricsWriter.shutdown();
+        super.onDestroy();
+    }
+
     /**
      * Receive receiveImages from camera handler
      * @param images RGB and FIR receiveImages
@@ -102,36 +215,186 @@ abstract class AbstractCameraActivity extends AppCompatActivity implements Camer
     @Override
     public void receiveImages(FrameDataHolder images) {
 
-        try {
-            framesBuffer.put(images);
-        } catch (InterruptedException e) {
-            // If interrupted while waiting for adding a new item in the queue
-            Log.e(TAG, "receiveImages(), unable to add incoming receiveImages to frames buffer, exception:" + e);
-        }
-
-        runOnUiThread(() -> {
-            Log.d(TAG, "framebuffer size:" + framesBuffer.size());
-            FrameDataHolder poll = framesBuffer.poll();
-            if (poll != null) {
-                if (applyTransformation) {
-                    poll.rgbBitmap = transformer.transform(poll.rgbBitmap);
-                }
-                firImage.setImageBitmap(poll.firBitmap);
-                rgbImage.setImageBitmap(poll.rgbBitmap);
+        // Align once, off the UI thread, so display and inference can share the result
+        if (applyTransformation) {
+            images.derived.getAlignedRgbBitmap(transformer);
+        }
+
+        // Never block the camera thread, a newer frame replaces one not displayed yet
+        displayExchange.publish(images);
+        if (displayPending.compareAndSet(false, true)) {
+            runOnUiThread(this::displayLatestFrame);
+        }
+    }
+
+    /**
+     * Shows the newest frame and releases the one shown before
+     */
+    private void displayLatestFrame() {
+        displayPending.set(false);
+        FrameDataHolder frame = displayExchange.take();
+        if (frame == null) {
+            return;
+        }
+
+        Bitmap alignedRgbBitmap = frame.derived.peekAlignedRgbBitmap();
+        firImage.setImageBitmap(frame.firBitmap);
+        rgbImage.setImageBitmap(alignedRgbBitmap != null ? alignedRgbBitmap : frame.rgbBitmap);
+
+        // Previous frame is no longer shown and can be reused
+        if (displayedFrame != null) {
+            displayedFrame.release();
+        }
+        displayedFrame = frame;
+
+        Log.d(TAG, "Frames displayed: " + displayExchange.getTaken()
+                + ", overwritten: " + displayExchange.getOverwritten());
+    }
+
+    /**
+     * Captures the temperatures of every frame for consumers reading them instead of the
+     * rendered FIR image, which is then only rendered while its view is shown.
+     */
+    void setThermalInput(boolean enabled) {
+        thermalInput = enabled;
+        cameraHandler.setRawCaptureEnabled(enabled);
+        updateFirRendering();
+    }
+
+    /**
+     * Shows or hides the FIR preview. While it is hidden and consumers read the temperatures,
+     * the FIR image is not rendered.
+     */
+    void setFirPreviewShown(boolean shown) {
+        firImage.setVisibility(shown ? View.VISIBLE : View.GONE);
+        Switch toggle = findViewById(R.id.fir_preview_switch);
+        if (toggle != null) {
+            toggle.setChecked(shown);
+        }
+        updateFirRendering();
+    }
+
+    /**
+     * Renders the FIR image only if something needs it
+     */
+    private void updateFirRendering() {
+        cameraHandler.setFirRenderingEnabled(!thermalInput || firImage.getVisibility() == View.VISIBLE);
+    }
+
+    /**
+     * Creates a source replaying a recorded session, as described by the intent extras
+     */
+    private FrameSource createReplaySource(Bundle extras, String path) throws IOException {
+        File session = new File(path);
+        if (!session.isAbsolute()) {
+            session = new File(getExternalFilesDir(null), path);
+        }
+        String mode = extras.getString(EXTRA_REPLAY_MODE);
+        return new ReplayFrameSource(session,
+                mode != null ? ReplayMode.valueOf(mode) : ReplayMode.ORIGINAL,
+                extras.getFloat(EXTRA_REPLAY_RATE, 10f),
+                extras.getInt(EXTRA_REPLAY_LOOPS, 1));
+    }
+
+    /**
+     * Redraws the metrics overlay and schedules the next refresh while it is shown
+     */
+    private final Runnable refreshMetrics = new Runnable() {
+        @Override
+        public void run() {
+            if (!showMetrics) {
+                return;
             }
-        });
+            metricsOverlay.setText(PipelineMetrics.getInstance().formatOverlay()
+                    + frameSource.getBitmapPool());
+            uiHandler.postDelayed(this, METRICS_REFRESH_MILLIS);
+        }
+    };
+
+    /**
+     * Writes the span statistics of this session as JSON and CSV to the app's metrics folder.
+     * The statistics are rendered here and written on a background thread, sessions without
+     * frames are skipped.
+     */
+    private void exportMetrics() {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        if (metrics.get(PipelineMetrics.Span.CAMERA_CALLBACK).getCount() == 0) {
+            return;
+        }
+        String name = "metrics_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.UK).format(new Date());
+        StringWriter json = new StringWriter();
+        StringWriter csv = new StringWriter();
+        try {
+            metrics.writeJson(json);
+            metrics.writeCsv(csv);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        metricsWriter.execute(() -> writeMetrics(name, json.toString(), csv.toString()));
     }
 
     /**
-     * Run procedure in background
-     * @param r Runnable to run
+     * Writes a rendered metrics report, on the metrics writer thread
      */
-    synchronized void runInBackground(final Runnable r) {
-        if (handler != null) {
-            handler.post(r);
+    private void writeMetrics(String name, String json, String csv) {
+        File directory = getExternalFilesDir("metrics");
+        if (directory == null || (!directory.exists() && !directory.mkdirs())) {
+            Log.w(TAG, "No storage for metrics report");
+            return;
+        }
+        try (Writer jsonFile = new FileWriter(new File(directory, name + ".json"));
+             Writer csvFile = new FileWriter(new File(directory, name + ".csv"))) {
+            jsonFile.write(json);
+            csvFile.write(csv);
+            Log.i(TAG, "Metrics report written to " + directory + "/" + name);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write metrics report", e);
         }
     }
 
+    /**
+     * @return Handler of the connected camera
+     */
+    CameraHandler getCameraHandler() {
+        return cameraHandler;
+    }
+
+    /**
+     * @return Transformer shared by all consumers of this activity's frames
+     */
+    AffineTransformer getTransformer() {
+        return transformer;
+    }
+
+    /**
+     * Registers a background stage on its own lane
+     *
+     * @param name     Name of the stage
+     * @param capacity Maximum number of frames waiting for the stage
+     * @param policy   What to do with frames when the stage falls behind
+     * @param stage    Work to do on each frame
+     * @return The lane to submit frames to
+     */
+    PipelineLane registerStage(String name, int capacity, DropPolicy policy, PipelineStage stage) {
+        return scheduler.registerStage(name, capacity, policy, stage);
+    }
+
+    /**
+     * Registers a background stage processing several frames at once on its own lane
+     *
+     * @param name          Name of the stage
+     * @param capacity      Maximum number of frames waiting for the stage, at least the batch size
+     * @param policy        What to do with frames when the stage falls behind
+     * @param maxBatchSize  Maximum number of frames per batch
+     * @param maxWaitMillis Maximum time a frame waits for the batch to fill up
+     * @param stage         Work to do on each batch
+     * @return The lane to submit frames to
+     */
+    PipelineLane registerBatchStage(String name, int capacity, DropPolicy policy, int maxBatchSize,
+                                    long maxWaitMillis, PipelineBatchStage stage) {
+        return scheduler.registerBatchStage(name, capacity, policy, maxBatchSize, maxWaitMillis, stage);
+    }
+
 
     /**
      * Defines behaviour for changes of the connection status
@@ -148,7 +411,7 @@ abstract class AbstractCameraActivity extends AppCompatActivity implements Camer
                     case DISCONNECTING:
                         break;
                     case CONNECTED: {
-                        cameraHandler.startStream(AbstractCameraActivity.this);
+                        cameraHandler.start(AbstractCameraActivity.this);
                     }
                     break;
                     case DISCONNECTED: {
@@ -169,5 +432,26 @@ abstract class AbstractCameraActivity extends AppCompatActivity implements Camer
         applyTransformation = toggle.isChecked();
     }
 
+    /**
+     * Event listener for showing or hiding the FIR preview
+     */
+    public void toggleFirPreview(View view) {
+        Switch toggle = (Switch) view;
+        setFirPreviewShown(toggle.isChecked());
+    }
+
+    /**
+     * Event listener for showing or hiding the per-stage metrics overlay
+     */
+    public void toggleMetrics(View view) {
+        Switch toggle = (Switch) view;
+        showMetrics = toggle.isChecked();
+        metricsOverlay.setVisibility(showMetrics ? View.VISIBLE : View.GONE);
+        uiHandler.removeCallbacks(refreshMetrics);
+        if (showMetrics) {
+            uiHandler.post(refreshMetrics);
+        }
+    }
+
     abstract void onDisconnected();
 }
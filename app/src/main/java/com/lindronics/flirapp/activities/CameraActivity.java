@@ -1,19 +1,64 @@
 package com.lindronics.flirapp.activities;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.View;
+import android.widget.Switch;
+import android.widget.TextView;
+import android.widget.Toast;
 import android.widget.ToggleButton;
 import com.lindronics.flirapp.R;
 import com.lindronics.flirapp.camera.FrameDataHolder;
 import com.lindronics.flirapp.camera.ImageWriter;
+import com.lindronics.flirapp.recording.FrameRecorder;
+import com.lindronics.flirapp.recording.RawFrameSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 public class CameraActivity extends AbstractCameraActivity {
 
     private static final String TAG = "CameraActivity";
 
+    /**
+     * Maximum number of frames between capture and storage before frames are dropped
+     */
+    private static final int RECORDING_CAPACITY = 16;
+
+    /**
+     * Number of threads encoding PNGs in parallel
+     */
+    private static final int ENCODER_THREADS = 2;
+
+    /**
+     * How often the recording status is refreshed
+     */
+    private static final long STATUS_REFRESH_MILLIS = 500;
+
+    /**
+     * Maximum number of raw frames between capture and storage. Raw frames keep their
+     * bitmaps until they are written, so this also bounds the extra bitmaps in use.
+     */
+    private static final int RAW_CAPACITY = 8;
+
     private ToggleButton cameraButton;
+    private Switch rawSwitch;
+    private TextView recordingStatus;
+
+    /**
+     * Recorder of the current capture, or null if not capturing
+     */
+    private volatile FrameRecorder<?> recorder = null;
 
-    private ImageWriter imageWriter = null;
+    private final Handler statusHandler = new Handler(Looper.getMainLooper());
+    private long lastCommitted = 0;
+    private long lastStatusTime = 0;
 
 
     /**
@@ -26,6 +71,14 @@ public class CameraActivity extends AbstractCameraActivity {
         super.onCreate(savedInstanceState);
 
         cameraButton = findViewById(R.id.camera_button);
+        rawSwitch = findViewById(R.id.raw_switch);
+        recordingStatus = findViewById(R.id.recording_status);
+    }
+
+    @Override
+    protected void onDestroy() {
+        endCapture();
+        super.onDestroy();
     }
 
     @Override
@@ -33,11 +86,11 @@ public class CameraActivity extends AbstractCameraActivity {
 
         super.receiveImages(images);
 
-        runInBackground(() -> {
-            if (imageWriter != null) {
-                imageWriter.saveImages(images);
-            }
-        });
+        // Never waits, frames are dropped and counted if storage falls behind
+        FrameRecorder<?> current = recorder;
+        if (current != null) {
+            current.submit(images);
+        }
     }
 
     /**
@@ -58,18 +111,85 @@ public class CameraActivity extends AbstractCameraActivity {
      * Start capturing/recording data
      */
     private void startCapture() {
+        if (rawSwitch.isChecked()) {
+            try {
+                recorder = createRawRecorder();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not start raw session", e);
+                Toast.makeText(this, R.string.raw_session_failed, Toast.LENGTH_SHORT).show();
+                cameraButton.setChecked(false);
+                return;
+            }
+            getCameraHandler().setRawCaptureEnabled(true);
+        } else {
+            recorder = new FrameRecorder<>(new ImageWriter(this), RECORDING_CAPACITY, ENCODER_THREADS);
+        }
         cameraButton.setBackground(getDrawable(R.drawable.ic_camera_capture_recording));
-        imageWriter = new ImageWriter(this);
+        rawSwitch.setEnabled(false);
+
+        lastCommitted = 0;
+        lastStatusTime = SystemClock.elapsedRealtime();
+        recordingStatus.setVisibility(View.VISIBLE);
+        statusHandler.post(refreshStatus);
     }
 
     /**
-     * Finish capturing/recording data
+     * Finish capturing/recording data.
+     * Frames already captured are still written in the background.
      */
     private void endCapture() {
         cameraButton.setBackground(getDrawable(R.drawable.ic_camera_capture_ready));
-        imageWriter = null;
+        rawSwitch.setEnabled(true);
+        getCameraHandler().setRawCaptureEnabled(false);
+        FrameRecorder<?> current = recorder;
+        recorder = null;
+        if (current != null) {
+            current.finish();
+            Log.i(TAG, current.toString());
+        }
+
+        statusHandler.removeCallbacks(refreshStatus);
+        recordingStatus.setVisibility(View.GONE);
     }
 
+    /**
+     * Creates a recorder appending radiometric temperatures and visual frames to a new
+     * raw session in the app's "sessions" folder
+     */
+    private FrameRecorder<?> createRawRecorder() throws IOException {
+        File directory = getExternalFilesDir("sessions");
+        if (directory == null || (!directory.exists() && !directory.mkdirs())) {
+            throw new IOException("No storage for raw sessions");
+        }
+        String name = "session_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.UK).format(new Date());
+        Log.i(TAG, "Recording raw session " + directory + "/" + name);
+
+        // Frames are only copied at commit, a single thread hands them over in order
+        return new FrameRecorder<>(new RawFrameSink(directory, name), RAW_CAPACITY, 1);
+    }
+
+    /**
+     * Shows backlog, achieved frame rate and dropped frames while recording
+     */
+    private final Runnable refreshStatus = new Runnable() {
+        @Override
+        public void run() {
+            FrameRecorder<?> current = recorder;
+            if (current == null) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            long committed = current.getCommitted();
+            double fps = now > lastStatusTime ? (committed - lastCommitted) * 1000.0 / (now - lastStatusTime) : 0;
+            lastCommitted = committed;
+            lastStatusTime = now;
+
+            recordingStatus.setText(getString(R.string.recording_status,
+                    current.getBacklog(), current.getCapacity(), fps, current.getDropped()));
+            statusHandler.postDelayed(this, STATUS_REFRESH_MILLIS);
+        }
+    };
+
     /**
      * End capture when disconnected
      */
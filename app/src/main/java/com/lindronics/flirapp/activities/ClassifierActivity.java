@@ -9,17 +9,161 @@ import androidx.annotation.UiThread;
 
 import com.lindronics.flirapp.R;
 import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.classification.InterpreterPool;
 import com.lindronics.flirapp.classification.ModelHandler;
+import com.lindronics.flirapp.classification.ModelManager;
+import com.lindronics.flirapp.classification.RegionClassifier;
+import com.lindronics.flirapp.classification.TemporalClassifier;
+import com.lindronics.flirapp.classification.TemporalFilter;
+import com.lindronics.flirapp.classification.ThermalRange;
+import com.lindronics.flirapp.classification.WarmRegionFinder;
+import com.lindronics.flirapp.metrics.LatencyRecorder;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+import com.lindronics.flirapp.pipeline.AdmissionController;
+import com.lindronics.flirapp.pipeline.DropPolicy;
+import com.lindronics.flirapp.pipeline.PipelineLane;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 public class ClassifierActivity extends AbstractCameraActivity {
 
     private static final String TAG = "ClassifierActivity";
 
-    private ModelHandler modelHandler;
+    /**
+     * Maximum number of frames classified in one inference, 1 (default) classifies every frame on its own
+     */
+    static final String EXTRA_BATCH_SIZE = "batchSize";
+
+    /**
+     * Maximum time a frame waits for a batch to fill up, in milliseconds
+     */
+    static final String EXTRA_BATCH_WAIT = "batchWaitMillis";
+
+    private static final long DEFAULT_BATCH_WAIT_MILLIS = 100;
+
+    /**
+     * Number of interpreters classifying frames concurrently on the CPU, 1 (default) uses a single interpreter
+     */
+    static final String EXTRA_INTERPRETERS = "interpreters";
+
+    /**
+     * Number of threads of every pooled interpreter
+     */
+    static final String EXTRA_INTERPRETER_THREADS = "interpreterThreads";
+
+    private static final int DEFAULT_INTERPRETER_THREADS = 1;
+
+    /**
+     * Mean change of the thermal image, as a fraction of its range, below which a frame is not
+     * classified. 0 classifies every frame.
+     */
+    static final String EXTRA_CHANGE_THRESHOLD = "changeThreshold";
+
+    /**
+     * Weight of the newest probabilities in the smoothed result, 1 turns smoothing off
+     */
+    static final String EXTRA_SMOOTHING = "smoothing";
+
+    /**
+     * Number of frames of a static scene after which it is classified again
+     */
+    static final String EXTRA_MAX_SKIPPED_FRAMES = "maxSkippedFrames";
+
+    private static final float DEFAULT_CHANGE_THRESHOLD = 0.01f;
+    private static final float DEFAULT_SMOOTHING = 0.5f;
+    private static final int DEFAULT_MAX_SKIPPED_FRAMES = 30;
+
+    /**
+     * Size of the grid the thermal image is averaged over to detect changes
+     */
+    private static final int CHANGE_GRID_SIZE = 8;
+
+    /**
+     * Number of warm regions classified per frame instead of the whole frame, 0 (default) turns this off
+     */
+    static final String EXTRA_REGIONS = "regions";
+
+    /**
+     * Heat above the frame mean, as a fraction of the thermal range, for a part of the frame to be warm
+     */
+    static final String EXTRA_REGION_THRESHOLD = "regionThreshold";
+
+    private static final float DEFAULT_REGION_THRESHOLD = 0.1f;
+
+    /**
+     * Grid the thermal image is averaged over to find warm regions, and the smallest region in cells
+     */
+    private static final int REGION_GRID_WIDTH = 32;
+    private static final int REGION_GRID_HEIGHT = 24;
+    private static final int REGION_MIN_CELLS = 2;
+
+    /**
+     * Temperatures in Kelvin mapped to the bottom and top of the thermal channel. If both are set,
+     * the raw temperatures are fed into the model instead of the rendered FIR image.
+     */
+    static final String EXTRA_THERMAL_MIN_KELVIN = "thermalMinKelvin";
+    static final String EXTRA_THERMAL_MAX_KELVIN = "thermalMaxKelvin";
+
+    /**
+     * Whether the FIR image is shown at start, default true. It can also be hidden with its switch.
+     * Hiding it skips rendering it when the model reads the raw temperatures.
+     */
+    static final String EXTRA_THERMAL_PREVIEW = "thermalPreview";
+
+    /**
+     * Range of the temperatures fed into the model, null to use the rendered FIR image.
+     */
+    private ThermalRange thermalRange = null;
+
+    /**
+     * Handler acquired from the {@link ModelManager}, null until it is loaded.
+     */
+    private volatile ModelHandler modelHandler;
+
+    /**
+     * Skips static frames and smooths the results of the model handler, when classifying
+     * single frames.
+     */
+    private volatile TemporalClassifier temporalClassifier;
+
+    /**
+     * Classifies warm regions instead of whole frames, if set up.
+     */
+    private volatile RegionClassifier regionClassifier;
+
+    /**
+     * Number of warm regions per frame, see {@link #EXTRA_REGIONS}.
+     */
+    private int regions = 0;
+
+    /**
+     * Interpreters classifying frames concurrently, used instead of the model handler if set up.
+     */
+    private volatile InterpreterPool interpreterPool;
+
+    /**
+     * Results shown next, copied from the inference threads so the handlers can reuse theirs.
+     * Guarded by itself.
+     */
+    private final List<ModelHandler.Recognition> shownResults = new ArrayList<>();
+
+    /**
+     * When the shown results were last published, for the UI publish span
+     */
+    private volatile long publishedAt;
+
+    /**
+     * Shows the newest published results, posted to the UI thread
+     */
+    private final Runnable showPublishedResults = () -> {
+        synchronized (shownResults) {
+            showResults(shownResults);
+        }
+        PipelineMetrics.getInstance().record(PipelineMetrics.Span.UI_PUBLISH, System.nanoTime() - publishedAt);
+    };
 
     private TextView firstPredictionBox;
     private TextView secondPredictionBox;
@@ -28,18 +172,62 @@ public class ClassifierActivity extends AbstractCameraActivity {
     private ProgressBar secondPredictionPb;
     private ProgressBar thirdPredictionPb;
     private TextView elapsedIndicator;
+    private TextView skipIndicator;
+
+    /**
+     * Latencies of all classifications in this session
+     */
+    private final LatencyRecorder executionTimes = new LatencyRecorder();
+
+    /**
+     * Lane running the classification
+     */
+    private PipelineLane inferenceLane;
+
+    /**
+     * Age of the shown classification result above which the skip indicator warns, in milliseconds.
+     */
+    private static final long targetStalenessMillis = 500;
+
+    /**
+     * Decides which frames are classified, so that classification keeps up with the camera.
+     */
+    private final AdmissionController admissionController = new AdmissionController(targetStalenessMillis);
+
+    /**
+     * Skip rate currently shown in the UI.
+     */
+    private int shownSkipRate = 0;
+
+    /**
+     * Whether the UI currently shows that results are older than the target.
+     */
+    private boolean shownStale = false;
+
+    /**
+     * Threads used for packing the model input, see {@link #EXTRA_PACKING_THREADS}.
+     */
+    private int packingThreads = 1;
+
+    /**
+     * Maximum number of frames per inference, see {@link #EXTRA_BATCH_SIZE}.
+     */
+    private int maxBatchSize = 1;
 
-    private List<Integer> executionTimes;
+    /**
+     * Number of threads packing the model input in row stripes, 1 (default) packs on the inference thread
+     */
+    static final String EXTRA_PACKING_THREADS = "packingThreads";
 
     /**
-     * Used so that classification is not run on every frame.
+     * Size of the interpreter pool, see {@link #EXTRA_INTERPRETERS}.
      */
-    private int frameCounter;
+    private int interpreters = 1;
 
     /**
-     * Frames to skip before classifying.
+     * Whether a model handler has been requested from the {@link ModelManager}.
      */
-    private static final int skipFrames = 1;
+    private boolean modelRequested = false;
 
 
     /**
@@ -51,7 +239,11 @@ public class ClassifierActivity extends AbstractCameraActivity {
         setContentView(R.layout.activity_classifier);
         super.onCreate(savedInstanceState);
 
-        recreateModelHandler();
+        maxBatchSize = Math.max(1, getIntent().getIntExtra(EXTRA_BATCH_SIZE, 1));
+        interpreters = Math.max(1, getIntent().getIntExtra(EXTRA_INTERPRETERS, 1));
+        packingThreads = Math.max(1, getIntent().getIntExtra(EXTRA_PACKING_THREADS, 1));
+        regions = Math.max(0, getIntent().getIntExtra(EXTRA_REGIONS, 0));
+        thermalRange = readThermalRange();
 
         firstPredictionBox = findViewById(R.id.first_prediction_box);
         secondPredictionBox = findViewById(R.id.second_prediction_box);
@@ -60,59 +252,211 @@ public class ClassifierActivity extends AbstractCameraActivity {
         secondPredictionPb = findViewById(R.id.second_prediction_bar);
         thirdPredictionPb = findViewById(R.id.third_prediction_bar);
         elapsedIndicator = findViewById(R.id.elapsed_indicator);
+        skipIndicator = findViewById(R.id.skip_indicator);
+
+        if (!getIntent().getBooleanExtra(EXTRA_THERMAL_PREVIEW, true)) {
+            setFirPreviewShown(false);
+        }
+
+        setUpModel();
 
-        frameCounter = 0;
-        executionTimes = new ArrayList<>();
+        if (maxBatchSize > 1) {
+            // Classify the newest frames together, within a short window
+            inferenceLane = registerBatchStage("inference", maxBatchSize, DropPolicy.DROP_OLDEST, maxBatchSize,
+                    getIntent().getLongExtra(EXTRA_BATCH_WAIT, DEFAULT_BATCH_WAIT_MILLIS), this::classifyBatch);
+        } else {
+            // Only the newest frame is worth classifying
+            inferenceLane = registerStage("inference", 1, DropPolicy.DROP_OLDEST, this::classify);
+        }
     }
 
     @Override
     public synchronized void onResume() {
+        // Frames admitted before the last pause may have been dropped by the stopped lane
+        admissionController.reset();
         super.onResume();
-        recreateModelHandler();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Pooled interpreters have their own threads
+        if (interpreterPool != null) {
+            interpreterPool.close();
+            interpreterPool = null;
+        }
+
+        // The manager keeps the handler warm for the next activity
+        if (modelHandler != null) {
+            if (temporalClassifier != null) {
+                Log.i(TAG, "Temporal filter: " + temporalClassifier);
+                temporalClassifier = null;
+            }
+            if (regionClassifier != null) {
+                Log.i(TAG, "Warm regions: " + regionClassifier);
+                regionClassifier = null;
+            }
+            ModelManager.getInstance(this).release(modelHandler);
+            modelHandler = null;
+        }
     }
 
     @Override
     public void receiveImages(FrameDataHolder images) {
         super.receiveImages(images);
 
+        // The pool drops the oldest queued frame if all interpreters are busy
+        InterpreterPool pool = interpreterPool;
+        if (pool != null) {
+            pool.submit(images);
+            return;
+        }
+
+        // Batches are bounded by the lane, which drops the oldest frames if inference falls behind
+        if (maxBatchSize > 1) {
+            inferenceLane.submit(images);
+            return;
+        }
+
         // Skip frames
-        frameCounter = (frameCounter + 1) % skipFrames;
-        if (frameCounter != 0) {
+        if (!admissionController.admit(System.nanoTime())) {
             return;
         }
 
         // Run classification
-        runInBackground(() -> {
-            long t1 = System.currentTimeMillis();
-            if (modelHandler != null) {
-                final List<ModelHandler.Recognition> results =
-                        modelHandler.recognizeImage(images);
-                Log.i("UPDATE", "Confidence: " + results.get(0).getConfidence());
-
-                runOnUiThread(() -> showResults(results));
-            }
-            long t2 = System.currentTimeMillis();
-            Log.i("ELAPSED", (t2 - t1) + " ms");
-            executionTimes.add((int) (t2 - t1));
-
-            // Update displayed execution time every 10 predictions
-            final int elapsedUpdate = 20;
-            if (executionTimes.size() % elapsedUpdate == 0) {
-                int sum = 0;
-                for (int i : executionTimes) {
-                    sum += i;
-                }
-                double mean = (double) sum / executionTimes.size();
-                double std = 0;
-                for (int i : executionTimes) {
-                    std += Math.pow(i - mean, 2);
-                }
-                std = Math.sqrt(std / executionTimes.size());
-                double finalStd = std;
-                runOnUiThread(() -> elapsedIndicator.setText(String.format("Mean time: %.2f ms, std: %.2f ms, n: %d", mean, finalStd, executionTimes.size()))
-                );
+        if (!inferenceLane.submit(images)) {
+            admissionController.cancel();
+        }
+    }
+
+    /**
+     * Classifies a frame, on the inference lane
+     *
+     * @param images Frame to classify
+     */
+    private void classify(FrameDataHolder images) {
+        TemporalClassifier classifier = temporalClassifier;
+        RegionClassifier regionClassifier = this.regionClassifier;
+        if (classifier == null && regionClassifier == null) {
+            // Model not loaded yet
+            admissionController.cancel();
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<ModelHandler.Recognition> results;
+        try {
+            results = regionClassifier != null
+                    ? regionClassifier.recognizeImage(images)
+                    : classifier.recognizeImage(images);
+        } catch (RuntimeException e) {
+            admissionController.cancel();
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Static scene, keep showing the last result. Only inference times count towards the
+        // latency, or the admission controller would skip too few frames.
+        if (results == null) {
+            admissionController.cancel();
+            return;
+        }
+        admissionController.complete(elapsed);
+        Log.i("UPDATE", "Confidence: " + results.get(0).getConfidence());
+        publishResults(results);
+
+        updateSkipIndicator();
+        Log.i("ELAPSED", (elapsed / 1_000_000) + " ms");
+        executionTimes.recordNanos(elapsed);
+
+        // Update displayed execution time every 20 predictions
+        final int elapsedUpdate = 20;
+        if (executionTimes.getCount() % elapsedUpdate == 0) {
+            LatencyRecorder.Snapshot times = executionTimes.snapshot();
+            runOnUiThread(() -> elapsedIndicator.setText(String.format(Locale.UK,
+                    "Mean time: %.2f ms, std: %.2f ms, p90: %.2f ms, p99: %.2f ms, n: %d",
+                    times.meanMillis, times.stdMillis, times.p90Millis, times.p99Millis, times.count))
+            );
+        }
+    }
+
+    /**
+     * Classifies a batch of frames in one inference and shows the result of the newest one,
+     * on the inference lane
+     *
+     * @param frames Frames to classify, oldest first
+     */
+    private void classifyBatch(List<FrameDataHolder> frames) {
+        if (modelHandler == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        final List<List<ModelHandler.Recognition>> results = modelHandler.recognizeImages(frames);
+        long elapsed = System.nanoTime() - start;
+
+        publishResults(results.get(results.size() - 1));
+
+        // Record the time per frame, comparable to single frame classification
+        Log.i("ELAPSED", (elapsed / 1_000_000) + " ms for " + frames.size() + " frames");
+        for (int i = 0; i < frames.size(); i++) {
+            executionTimes.recordNanos(elapsed / frames.size());
+        }
+        runOnUiThread(() -> elapsedIndicator.setText(String.format(Locale.UK,
+                "Batch of %d: %.2f ms per frame, mean %.2f ms, n: %d", frames.size(),
+                elapsed / 1e6 / frames.size(), executionTimes.snapshot().meanMillis, executionTimes.getCount())));
+    }
+
+    /**
+     * Shows the results of the pooled interpreters, called in frame order
+     *
+     * @param sequence     Sequence number of the frame
+     * @param results      Classification results
+     * @param latencyNanos Time from submission to result
+     */
+    private void onPoolResult(long sequence, List<ModelHandler.Recognition> results, long latencyNanos) {
+        publishResults(results);
+
+        executionTimes.recordNanos(latencyNanos);
+        if (executionTimes.getCount() % 20 == 0) {
+            LatencyRecorder.Snapshot times = executionTimes.snapshot();
+            runOnUiThread(() -> elapsedIndicator.setText(String.format(Locale.UK,
+                    "%d interpreters: mean latency %.2f ms, p90: %.2f ms, n: %d",
+                    interpreters, times.meanMillis, times.p90Millis, times.count)));
+        }
+    }
+
+    /**
+     * Copies results for display and shows them on the UI thread. Results published before
+     * the UI thread gets to them are replaced, only the newest are shown.
+     *
+     * @param results Results owned by a model handler, only read during this call
+     */
+    private void publishResults(List<ModelHandler.Recognition> results) {
+        synchronized (shownResults) {
+            ModelHandler.copyResults(results, shownResults);
+        }
+        publishedAt = System.nanoTime();
+        runOnUiThread(showPublishedResults);
+    }
+
+    /**
+     * Shows the current skip rate if it changed, and warns if results are older than the target
+     */
+    private void updateSkipIndicator() {
+        int skipRate = admissionController.getSkipRate();
+        boolean stale = !admissionController.isWithinTarget();
+        if (skipRate != shownSkipRate || stale != shownStale) {
+            shownSkipRate = skipRate;
+            shownStale = stale;
+            String text = String.format(Locale.UK, "Classifying 1/%d frames", skipRate);
+            if (stale) {
+                text += String.format(Locale.UK, ", results up to %d ms old",
+                        admissionController.getStalenessMillis());
             }
-        });
+            String shown = text;
+            runOnUiThread(() -> skipIndicator.setText(shown));
+        }
     }
 
     /**
@@ -144,24 +488,94 @@ public class ClassifierActivity extends AbstractCameraActivity {
     }
 
     /**
-     * Reload model handler.
+     * Sets up the interpreter pool, or requests a warm model handler from the {@link ModelManager}.
      * Finish activity if unsuccessful.
      */
-    private void recreateModelHandler() {
-        if (modelHandler != null) {
-            modelHandler.close();
-            modelHandler = null;
+    private void setUpModel() {
+        // Activity is finishing because it could not be set up
+        if (getTransformer() == null || modelRequested) {
+            return;
         }
+        modelRequested = true;
 
-        try {
-            modelHandler = new ModelHandler(this, ModelHandler.Device.GPU, 2, false);
-        } catch (IOException e) {
-            e.printStackTrace();
-            finish();
+        ModelManager manager = ModelManager.getInstance(this);
+        if (interpreters > 1) {
+            try {
+                interpreterPool = new InterpreterPool(manager.getModel(), manager.getLabels(), interpreters,
+                        getIntent().getIntExtra(EXTRA_INTERPRETER_THREADS, DEFAULT_INTERPRETER_THREADS), false, getTransformer().getMatrix(), this::onPoolResult);
+            } catch (IOException e) {
+                e.printStackTrace();
+                finish();
+            }
+            return;
+        }
+
+        // Single frames use the fastest configuration for this model and phone. Batches stay on the CPU,
+        // as the GPU delegate cannot run resized inputs.
+        // Several regions of a frame are classified in one batch.
+        ModelManager.Spec spec;
+        if (regions > 1) {
+            spec = new ModelManager.Spec(ModelHandler.Device.CPU, 2, packingThreads, regions, false);
+        } else if (maxBatchSize > 1) {
+            spec = new ModelManager.Spec(ModelHandler.Device.CPU, 2, packingThreads, maxBatchSize, false);
+        } else {
+            spec = new ModelManager.Spec(null, 0, packingThreads, 1, false);
         }
-        frameCounter = 0;
+        if (!manager.isReady(spec)) {
+            elapsedIndicator.setText(R.string.model_loading);
+        }
+        manager.acquire(spec, new ModelManager.Callback() {
+            @Override
+            public void onModelReady(ModelHandler handler) {
+                if (isDestroyed()) {
+                    manager.release(handler);
+                    return;
+                }
+                if (regions > 0) {
+                    regionClassifier = new RegionClassifier(handler, new WarmRegionFinder(
+                            REGION_GRID_WIDTH, REGION_GRID_HEIGHT,
+                            getIntent().getFloatExtra(EXTRA_REGION_THRESHOLD, DEFAULT_REGION_THRESHOLD),
+                            REGION_MIN_CELLS, regions));
+                } else if (maxBatchSize == 1) {
+                    temporalClassifier = new TemporalClassifier(handler, new TemporalFilter(
+                            CHANGE_GRID_SIZE, CHANGE_GRID_SIZE,
+                            getIntent().getFloatExtra(EXTRA_CHANGE_THRESHOLD, DEFAULT_CHANGE_THRESHOLD),
+                            getIntent().getFloatExtra(EXTRA_SMOOTHING, DEFAULT_SMOOTHING),
+                            getIntent().getIntExtra(EXTRA_MAX_SKIPPED_FRAMES, DEFAULT_MAX_SKIPPED_FRAMES)));
+                }
+                // Also clears a range left on a cached handler by an earlier activity
+                handler.setThermalRange(thermalRange);
+                if (thermalRange != null) {
+                    setThermalInput(true);
+                }
+                modelHandler = handler;
+                elapsedIndicator.setText("");
+            }
+
+            @Override
+            public void onModelFailed(IOException e) {
+                e.printStackTrace();
+                finish();
+            }
+        });
     }
 
+    /**
+     * @return Temperature range from the intent, or null if it is not set or invalid
+     */
+    private ThermalRange readThermalRange() {
+        float minKelvin = getIntent().getFloatExtra(EXTRA_THERMAL_MIN_KELVIN, Float.NaN);
+        float maxKelvin = getIntent().getFloatExtra(EXTRA_THERMAL_MAX_KELVIN, Float.NaN);
+        if (Float.isNaN(minKelvin) || Float.isNaN(maxKelvin)) {
+            return null;
+        }
+        try {
+            return new ThermalRange(minKelvin, maxKelvin);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring thermal range", e);
+            return null;
+        }
+    }
 
     /**
      * Behaviour already covered by superclass
@@ -1,5 +1,6 @@
 package com.lindronics.flirapp.activities;
 
+import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.ListView;
@@ -52,6 +53,24 @@ public class MainActivity extends AppCompatActivity {
         cameraListView.setAdapter(cameraArrayAdapter);
 
         startDiscovery();
+
+        if (getIntent().hasExtra(AbstractCameraActivity.EXTRA_REPLAY_SESSION)) {
+            startReplay();
+        }
+    }
+
+    /**
+     * Forwards a replay request to the camera or classifier activity, so sessions can be replayed
+     * with {@code adb shell am start} on this exported activity.
+     * The "replayTarget" extra selects the activity, "camera" or "classifier" (default).
+     */
+    private void startReplay() {
+        Class<?> target = "camera".equals(getIntent().getStringExtra("replayTarget"))
+                ? CameraActivity.class
+                : ClassifierActivity.class;
+        Intent intent = new Intent(this, target);
+        intent.putExtras(getIntent());
+        startActivity(intent);
     }
 
     /**
@@ -10,57 +10,171 @@ import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.imgproc.Imgproc;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Aligns RGB images to FIR images using the matrix from transformation.txt.
+ * <p>
+ * The inverse mapping is precomputed once per (source size, destination size) pair as
+ * fixed point maps for {@link Imgproc#remap}, together with preallocated working Mats,
+ * so transforming a frame is a single lookup pass without allocation.
+ */
 public class AffineTransformer {
 
-    private Mat transformationMatrix;
-    private int width;
-    private int height;
+    private static final String TAG = "AffineTransformer";
+
+    private static boolean openCVLoaded = false;
+
+    private final AffineMatrix matrix;
+
+    /**
+     * Cached maps and working Mats, one entry per size pair.
+     */
+    private final List<WarpMaps> cache = new ArrayList<>();
+
+    /**
+     * Most recently used entry, checked before searching the cache.
+     */
+    private WarpMaps lastMaps = null;
 
     public AffineTransformer(Context context) throws IOException {
 
-        // Initialize OpenCV
-        if (!OpenCVLoader.initDebug()) {
-            Log.e("ModelHandler", "OpenCV not initialized!");
-        }
+        initOpenCV();
 
-        // Reader for config file
-        BufferedReader reader = new BufferedReader(
+        // Read config file
+        matrix = AffineMatrix.read(
                 new InputStreamReader(
                         context.getAssets().open("transformation.txt")));
+    }
 
-        transformationMatrix = new Mat(2, 3, CvType.CV_32F);
+    /**
+     * Loads OpenCV once per process, later activities reuse it
+     */
+    private static synchronized void initOpenCV() {
+        if (openCVLoaded) {
+            return;
+        }
+        openCVLoaded = OpenCVLoader.initDebug();
+        if (!openCVLoaded) {
+            Log.e(TAG, "OpenCV not initialized!");
+        }
+    }
 
-        // Image dimensions assumed by transformation
-        String row = reader.readLine();
-        String[] dimensions = row.split(",");
-        width = Integer.valueOf(dimensions[0]);
-        height = Integer.valueOf(dimensions[1]);
+    /**
+     * Creates a transformer and eagerly builds the maps for frames of the given size,
+     * so the first frame is not slow.
+     *
+     * @param width  Expected frame width
+     * @param height Expected frame height
+     */
+    public AffineTransformer(Context context, int width, int height) throws IOException {
+        this(context);
+        prepare(width, height, width, height);
+    }
 
-        // Read matrix values
-        int i = 0;
-        while ((row = reader.readLine()) != null) {
-            String[] data = row.split(",");
-            for (int j = 0; j < 3; j++) {
-                transformationMatrix.put(i, j, Float.valueOf(data[j]));
-            }
-            i++;
-        }
+    /**
+     * @return The transformation as a plain matrix
+     */
+    public AffineMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Builds the maps for a size pair if they are not cached yet.
+     */
+    public synchronized void prepare(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        getMaps(sourceWidth, sourceHeight, targetWidth, targetHeight);
     }
 
     /**
-     * Performs affine transformation on an image
+     * Performs affine transformation on an image, in place
      * @param image The image to be transformed
      * @return The transformed image
      */
     public Bitmap transform(Bitmap image) {
-        Mat rgbMat = new Mat(width, height, CvType.CV_32F);
-        Utils.bitmapToMat(image, rgbMat);
-        Imgproc.warpAffine(rgbMat, rgbMat, transformationMatrix, rgbMat.size());
-        Utils.matToBitmap(rgbMat, image);
-        return image;
+        return transform(image, image);
+    }
+
+    /**
+     * Performs affine transformation on an image, rescaling it to the target size
+     * @param source The image to be transformed
+     * @param target Bitmap to write the transformed image to, may be the source
+     * @return The target bitmap
+     */
+    public synchronized Bitmap transform(Bitmap source, Bitmap target) {
+        WarpMaps maps = getMaps(source.getWidth(), source.getHeight(), target.getWidth(), target.getHeight());
+        Utils.bitmapToMat(source, maps.source);
+        Imgproc.remap(maps.source, maps.target, maps.map1, maps.map2, Imgproc.INTER_LINEAR);
+        Utils.matToBitmap(maps.target, target);
+        return target;
+    }
+
+    private WarpMaps getMaps(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        if (lastMaps != null && lastMaps.matches(sourceWidth, sourceHeight, targetWidth, targetHeight)) {
+            return lastMaps;
+        }
+        for (WarpMaps maps : cache) {
+            if (maps.matches(sourceWidth, sourceHeight, targetWidth, targetHeight)) {
+                lastMaps = maps;
+                return maps;
+            }
+        }
+        Log.d(TAG, "Building warp maps for " + sourceWidth + "x" + sourceHeight
+                + " -> " + targetWidth + "x" + targetHeight);
+        lastMaps = new WarpMaps(sourceWidth, sourceHeight, targetWidth, targetHeight);
+        cache.add(lastMaps);
+        return lastMaps;
+    }
+
+    /**
+     * Releases all cached maps and Mats.
+     */
+    public synchronized void close() {
+        for (WarpMaps maps : cache) {
+            maps.release();
+        }
+        cache.clear();
+        lastMaps = null;
+    }
+
+    /**
+     * Fixed point remap tables and working Mats for one size pair.
+     */
+    private class WarpMaps {
+        private final WarpMap map;
+
+        private final Mat map1 = new Mat();
+        private final Mat map2 = new Mat();
+        private final Mat source;
+        private final Mat target;
+
+        WarpMaps(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+            map = new WarpMap(matrix, sourceWidth, sourceHeight, targetWidth, targetHeight);
+
+            source = new Mat(sourceHeight, sourceWidth, CvType.CV_8UC4);
+            target = new Mat(targetHeight, targetWidth, CvType.CV_8UC4);
+
+            Mat floatMapX = new Mat(targetHeight, targetWidth, CvType.CV_32FC1);
+            Mat floatMapY = new Mat(targetHeight, targetWidth, CvType.CV_32FC1);
+            floatMapX.put(0, 0, map.getMapX());
+            floatMapY.put(0, 0, map.getMapY());
+            Imgproc.convertMaps(floatMapX, floatMapY, map1, map2, CvType.CV_16SC2);
+            floatMapX.release();
+            floatMapY.release();
+        }
+
+        boolean matches(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+            return map.matches(sourceWidth, sourceHeight, targetWidth, targetHeight);
+        }
+
+        void release() {
+            map1.release();
+            map2.release();
+            source.release();
+            target.release();
+        }
     }
 }
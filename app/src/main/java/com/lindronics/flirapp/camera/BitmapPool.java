@@ -0,0 +1,156 @@
+package com.lindronics.flirapp.camera;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Bounded pool of ARGB_8888 bitmaps, so camera frames can be copied into
+ * existing bitmaps instead of allocating new ones for every frame.
+ * It also keeps the arrays of the frames' radiometric temperatures.
+ */
+public class BitmapPool {
+
+    /**
+     * Maximum number of idle bitmaps kept for reuse.
+     */
+    private final int capacity;
+
+    private final ArrayDeque<Bitmap> idle;
+
+    /**
+     * Idle arrays for {@link ThermalData}, up to the same capacity
+     */
+    private final ArrayDeque<short[]> idleThermal;
+
+    private long hits = 0;
+    private long misses = 0;
+    private int checkedOut = 0;
+
+    public BitmapPool(int capacity) {
+        this.capacity = capacity;
+        this.idle = new ArrayDeque<>(capacity);
+        this.idleThermal = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Preallocates bitmaps of a given size.
+     *
+     * @param count Number of bitmaps, limited by the capacity
+     */
+    public synchronized void prefill(int width, int height, int count) {
+        while (idle.size() < Math.min(count, capacity)) {
+            idle.add(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    /**
+     * Takes a bitmap of the given size from the pool, or creates one if none is idle.
+     * Its contents are undefined.
+     */
+    public synchronized Bitmap acquire(int width, int height) {
+        checkedOut++;
+        Iterator<Bitmap> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                iterator.remove();
+                hits++;
+                return bitmap;
+            }
+        }
+        misses++;
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Accounts for a bitmap that was created outside the pool but should be returned to it.
+     *
+     * @return The same bitmap
+     */
+    public synchronized Bitmap adopt(Bitmap bitmap) {
+        checkedOut++;
+        misses++;
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap to the pool. It must not be used by the caller afterwards.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        checkedOut--;
+        if (bitmap.isRecycled()
+                || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        if (idle.size() >= capacity) {
+            // Drop the oldest idle bitmap, in case the frame size changed
+            idle.poll().recycle();
+        }
+        idle.add(bitmap);
+    }
+
+    /**
+     * Takes an array for the temperatures of a frame from the pool, or creates one if none is idle.
+     * Its contents are undefined.
+     */
+    public synchronized short[] acquireThermal(int length) {
+        Iterator<short[]> iterator = idleThermal.iterator();
+        while (iterator.hasNext()) {
+            short[] values = iterator.next();
+            if (values.length == length) {
+                iterator.remove();
+                return values;
+            }
+        }
+        return new short[length];
+    }
+
+    /**
+     * Returns the temperature array of a frame to the pool. It must not be used by the caller afterwards.
+     */
+    public synchronized void releaseThermal(ThermalData thermal) {
+        if (thermal == null) {
+            return;
+        }
+        if (idleThermal.size() >= capacity) {
+            // Drop the oldest idle array, in case the sensor size changed
+            idleThermal.poll();
+        }
+        idleThermal.add(thermal.getValues());
+    }
+
+    /**
+     * @return Fraction of requests served from the pool
+     */
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * @return Number of bitmaps currently handed out and not yet returned
+     */
+    public synchronized int getCheckedOut() {
+        return checkedOut;
+    }
+
+    public synchronized int getIdle() {
+        return idle.size();
+    }
+
+    @Override
+    @NonNull
+    public synchronized String toString() {
+        return String.format(Locale.UK, "hit rate: %.1f%%, checked out: %d, idle: %d",
+                getHitRate() * 100, checkedOut, idle.size());
+    }
+}
@@ -4,6 +4,9 @@ import android.graphics.Bitmap;
 import android.util.Log;
 
 import com.flir.thermalsdk.androidsdk.image.BitmapAndroid;
+import com.flir.thermalsdk.image.JavaImageBuffer;
+import com.flir.thermalsdk.image.Rectangle;
+import com.flir.thermalsdk.image.TemperatureUnit;
 import com.flir.thermalsdk.image.ThermalImage;
 import com.flir.thermalsdk.image.fusion.FusionMode;
 import com.flir.thermalsdk.live.Camera;
@@ -13,10 +16,12 @@ import com.flir.thermalsdk.live.connectivity.ConnectionStatusListener;
 import com.flir.thermalsdk.live.discovery.DiscoveryEventListener;
 import com.flir.thermalsdk.live.discovery.DiscoveryFactory;
 import com.flir.thermalsdk.live.streaming.ThermalImageStreamListener;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
-public class CameraHandler {
+public class CameraHandler implements FrameSource {
 
     private static final String TAG = "Camera handler";
 
@@ -29,6 +34,26 @@ public class CameraHandler {
 
     private StreamDataListener streamDataListener;
 
+    /**
+     * Bitmaps that incoming frames are copied into
+     */
+    private final BitmapPool bitmapPool = new BitmapPool(16);
+
+    /**
+     * Number of frames received, used for logging pool metrics
+     */
+    private long frameCount = 0;
+
+    /**
+     * Whether frames carry the radiometric temperatures
+     */
+    private volatile boolean rawCaptureEnabled = false;
+
+    /**
+     * Whether frames carry the rendered FIR image
+     */
+    private volatile boolean firRenderingEnabled = true;
+
     /**
      * Possible discovery statuses
      */
@@ -101,6 +126,28 @@ public class CameraHandler {
         }
     };
 
+    @Override
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Enables or disables reading the radiometric temperatures of every frame,
+     * which costs an extra pass over the thermal image
+     */
+    public void setRawCaptureEnabled(boolean enabled) {
+        rawCaptureEnabled = enabled;
+    }
+
+    /**
+     * Enables or disables rendering the colourised FIR image of every frame.
+     * Only takes effect while raw capture is enabled, so every frame carries either the
+     * rendered image or the temperatures.
+     */
+    public void setFirRenderingEnabled(boolean enabled) {
+        firRenderingEnabled = enabled;
+    }
+
     /**
      * Subscribes to camera stream
      */
@@ -109,6 +156,21 @@ public class CameraHandler {
         camera.subscribeStream(thermalImageStreamListener);
     }
 
+    @Override
+    public void start(StreamDataListener listener) {
+        startStream(listener);
+    }
+
+    /**
+     * Unsubscribes from the camera stream, the camera stays connected
+     */
+    @Override
+    public void stop() {
+        if (camera != null && camera.isGrabbing()) {
+            camera.unsubscribeAllStreams();
+        }
+    }
+
     /**
      * For processing receiveImages and updating UI
      */
@@ -116,16 +178,71 @@ public class CameraHandler {
 
         @Override
         public void accept(ThermalImage thermalImage) {
+            PipelineMetrics metrics = PipelineMetrics.getInstance();
+            long callbackStart = metrics.begin(PipelineMetrics.Span.CAMERA_CALLBACK);
+            try {
+                boolean rawCapture = rawCaptureEnabled;
+                Bitmap firBitmap = null;
+                Bitmap rgbBitmap;
+                long extractionStart = metrics.begin(PipelineMetrics.Span.BITMAP_EXTRACTION);
+                try {
+                    // Get a bitmap with only IR data, unless the temperatures are used instead
+                    if (firRenderingEnabled || !rawCapture) {
+                        Objects.requireNonNull(thermalImage.getFusion()).setFusionMode(FusionMode.THERMAL_ONLY);
+                        firBitmap = toPooledBitmap(thermalImage.getImage());
+                    }
+
+                    // Get a bitmap with the visual image
+                    rgbBitmap = toPooledBitmap(Objects.requireNonNull(Objects.requireNonNull(thermalImage.getFusion()).getPhoto()));
+                } finally {
+                    metrics.end(PipelineMetrics.Span.BITMAP_EXTRACTION, extractionStart);
+                }
+
+                // Hand the frame to the listener, which retains it for as long as it needs it
+                FrameDataHolder frame = new FrameDataHolder(rgbBitmap, firBitmap, bitmapPool);
+                try {
+                    if (rawCapture) {
+                        frame.thermal = readTemperatures(thermalImage);
+                    }
+                    streamDataListener.receiveImages(frame);
+                } finally {
+                    frame.release();
+                }
+            } finally {
+                metrics.end(PipelineMetrics.Span.CAMERA_CALLBACK, callbackStart);
+            }
+
+            if (++frameCount % 100 == 0) {
+                Log.d(TAG, "Bitmap pool " + bitmapPool);
+            }
+        }
+    };
 
-            // Get a bitmap with only IR data
-            Objects.requireNonNull(thermalImage.getFusion()).setFusionMode(FusionMode.THERMAL_ONLY);
-            Bitmap firBitmap = BitmapAndroid.createBitmap(thermalImage.getImage()).getBitMap();
-
-            // Get a bitmap with the visual image
-            Bitmap rgbBitmap = BitmapAndroid.createBitmap(Objects.requireNonNull(thermalImage.getFusion().getPhoto())).getBitMap();
+    /**
+     * Reads the temperatures of the whole thermal image, at sensor resolution,
+     * into an array from the pool
+     */
+    private ThermalData readTemperatures(ThermalImage thermalImage) {
+        int width = thermalImage.getWidth();
+        int height = thermalImage.getHeight();
+        thermalImage.setTemperatureUnit(TemperatureUnit.KELVIN);
+        return ThermalData.fromKelvin(width, height, thermalImage.getValues(new Rectangle(0, 0, width, height)),
+                bitmapPool.acquireThermal(width * height));
+    }
 
-            // Add receiveImages to cache
-            streamDataListener.receiveImages(new FrameDataHolder(rgbBitmap, firBitmap));
+    /**
+     * Copies an SDK image buffer into a bitmap from the pool
+     *
+     * @param buffer RGBA image buffer
+     * @return Bitmap holding the image
+     */
+    private Bitmap toPooledBitmap(JavaImageBuffer buffer) {
+        if (buffer.pixelBuffer.length != buffer.width * buffer.height * 4) {
+            // Unexpected layout, let the SDK convert it
+            return bitmapPool.adopt(BitmapAndroid.createBitmap(buffer).getBitMap());
         }
-    };
+        Bitmap bitmap = bitmapPool.acquire(buffer.width, buffer.height);
+        bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(buffer.pixelBuffer));
+        return bitmap;
+    }
 }
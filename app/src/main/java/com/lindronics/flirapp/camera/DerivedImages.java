@@ -0,0 +1,63 @@
+package com.lindronics.flirapp.camera;
+
+import android.graphics.Bitmap;
+
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+
+/**
+ * Images derived from a single frame.
+ * Each one is computed at most once, on first use, and shared by all consumers of the frame.
+ */
+public class DerivedImages {
+
+    private final FrameDataHolder frame;
+
+    /**
+     * RGB image aligned to the FIR image.
+     */
+    private Bitmap alignedRgbBitmap = null;
+
+    DerivedImages(FrameDataHolder frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Returns the RGB image aligned to the FIR image, computing it if necessary.
+     * The original RGB image is left untouched.
+     *
+     * @param transformer Transformer to use if the image does not exist yet
+     * @return The aligned RGB image
+     */
+    public synchronized Bitmap getAlignedRgbBitmap(AffineTransformer transformer) {
+        if (alignedRgbBitmap == null) {
+            PipelineMetrics metrics = PipelineMetrics.getInstance();
+            long start = metrics.begin(PipelineMetrics.Span.WARP);
+            try {
+                Bitmap rgbBitmap = frame.rgbBitmap;
+                BitmapPool pool = frame.getPool();
+                alignedRgbBitmap = pool != null
+                        ? pool.acquire(rgbBitmap.getWidth(), rgbBitmap.getHeight())
+                        : Bitmap.createBitmap(rgbBitmap.getWidth(), rgbBitmap.getHeight(), Bitmap.Config.ARGB_8888);
+                transformer.transform(rgbBitmap, alignedRgbBitmap);
+            } finally {
+                metrics.end(PipelineMetrics.Span.WARP, start);
+            }
+        }
+        return alignedRgbBitmap;
+    }
+
+    /**
+     * @return The aligned RGB image if it has already been computed, otherwise null
+     */
+    public synchronized Bitmap peekAlignedRgbBitmap() {
+        return alignedRgbBitmap;
+    }
+
+    /**
+     * Returns all derived images to the pool, once the frame has been released.
+     */
+    synchronized void release(BitmapPool pool) {
+        pool.release(alignedRgbBitmap);
+        alignedRgbBitmap = null;
+    }
+}
@@ -2,13 +2,89 @@ package com.lindronics.flirapp.camera;
 
 import android.graphics.Bitmap;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RGB and FIR images of one camera frame.
+ * <p>
+ * Frames are reference counted. The producer holds the first reference, every consumer
+ * that keeps the frame beyond the callback calls {@link #retain()} and later {@link #release()}.
+ * Once the last reference is released, the bitmaps and temperatures go back to the pool.
+ */
 public class FrameDataHolder {
 
     public Bitmap rgbBitmap;
+
+    /**
+     * Rendered FIR image, null if only the temperatures were captured,
+     * see {@link CameraHandler#setFirRenderingEnabled(boolean)}
+     */
     public Bitmap firBitmap;
 
+    /**
+     * Radiometric temperatures, only captured while raw capture is enabled.
+     * Their array is returned to the pool with the bitmaps.
+     */
+    public ThermalData thermal;
+
+    /**
+     * Images derived from this frame, shared by display, inference and recording
+     */
+    public final DerivedImages derived = new DerivedImages(this);
+
+    /**
+     * Pool the bitmaps are returned to, or null if they are not pooled
+     */
+    private final BitmapPool pool;
+
+    /**
+     * Number of consumers still using this frame
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
     public FrameDataHolder(Bitmap rgbBitmap, Bitmap firBitmap){
+        this(rgbBitmap, firBitmap, null);
+    }
+
+    public FrameDataHolder(Bitmap rgbBitmap, Bitmap firBitmap, BitmapPool pool){
         this.rgbBitmap = rgbBitmap;
         this.firBitmap = firBitmap;
+        this.pool = pool;
+    }
+
+    BitmapPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Adds a reference to this frame, which must be matched by a call to {@link #release()}.
+     *
+     * @return This frame
+     */
+    public FrameDataHolder retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame has already been released");
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Drops a reference to this frame. The last release returns the bitmaps and temperatures to the pool.
+     */
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count < 0) {
+            throw new IllegalStateException("Frame released more often than retained");
+        }
+        if (count == 0 && pool != null) {
+            pool.release(rgbBitmap);
+            pool.release(firBitmap);
+            pool.releaseThermal(thermal);
+            derived.release(pool);
+        }
     }
 }
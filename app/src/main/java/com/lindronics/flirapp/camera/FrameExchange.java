@@ -0,0 +1,85 @@
+package com.lindronics.flirapp.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free single slot handing the newest frame from the camera thread to a consumer.
+ * <p>
+ * The producer never blocks. A frame that has not been taken before the next one arrives
+ * is overwritten and released, so the consumer always gets the freshest frame.
+ */
+public class FrameExchange {
+
+    private final AtomicReference<FrameDataHolder> slot = new AtomicReference<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong overwritten = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Places a frame in the slot, replacing any frame not taken yet.
+     * The exchange retains the frame until it is taken.
+     *
+     * @param frame Newest frame
+     * @return Whether an older frame was overwritten
+     */
+    public boolean publish(FrameDataHolder frame) {
+        published.incrementAndGet();
+        FrameDataHolder previous = slot.getAndSet(frame.retain());
+        if (previous != null) {
+            overwritten.incrementAndGet();
+            previous.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes the newest frame out of the slot.
+     * The caller owns the reference and has to release the frame.
+     *
+     * @return The newest frame, or null if there is none
+     */
+    public FrameDataHolder take() {
+        FrameDataHolder frame = slot.getAndSet(null);
+        if (frame != null) {
+            taken.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Releases a frame still waiting in the slot, counting it as dropped.
+     */
+    public void clear() {
+        FrameDataHolder frame = slot.getAndSet(null);
+        if (frame != null) {
+            dropped.incrementAndGet();
+            frame.release();
+        }
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getTaken() {
+        return taken.get();
+    }
+
+    /**
+     * @return Frames replaced by a newer frame before they were taken
+     */
+    public long getOverwritten() {
+        return overwritten.get();
+    }
+
+    /**
+     * @return Frames discarded without being taken when the exchange was cleared
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
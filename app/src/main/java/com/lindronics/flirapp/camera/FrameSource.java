@@ -0,0 +1,25 @@
+package com.lindronics.flirapp.camera;
+
+/**
+ * Producer of camera frames, such as a connected camera or a replayed session.
+ * <p>
+ * Frames are delivered on the source's own thread, with the same reference counting
+ * protocol as {@link CameraHandler}: listeners retain frames they keep beyond the callback.
+ */
+public interface FrameSource {
+
+    /**
+     * Starts delivering frames to a listener
+     */
+    void start(CameraHandler.StreamDataListener listener);
+
+    /**
+     * Stops delivering frames
+     */
+    void stop();
+
+    /**
+     * @return Pool of the frame bitmaps, for metrics
+     */
+    BitmapPool getBitmapPool();
+}
@@ -10,97 +10,150 @@ import android.os.Build;
 import android.os.Environment;
 import android.provider.MediaStore;
 
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+import com.lindronics.flirapp.recording.FrameSink;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Objects;
 
 /**
- * Handles writing receiveImages to the file system
+ * Handles writing receiveImages to the file system.
+ * <p>
+ * Frames are encoded to PNG in memory first, so encoding can run on several threads,
+ * and then written to storage in order.
  */
-public class ImageWriter {
+public class ImageWriter implements FrameSink<ImageWriter.EncodedFrame> {
+
+    private static final String IMAGES_FOLDER_NAME = "FLIR_App";
 
     private final Context context;
 
+    /**
+     * Reusable encoding buffer of each encoder thread
+     */
+    private final ThreadLocal<ByteArrayOutputStream> buffers =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(1 << 20));
+
     public ImageWriter(Context context) {
         this.context = context;
     }
 
     /**
-     * Writes an image to file system.
-     *
-     * @param image Bitmap to write
-     * @param name  File name of the image
-     * @param time  Current timestamp
+     * FIR and RGB image of one frame, encoded as PNG
      */
-    private void writeImage(Bitmap image, String name, String time) {
-        String IMAGES_FOLDER_NAME = "FLIR_App";
-        OutputStream out = null;
+    public static class EncodedFrame {
+        private final long timestamp;
+        private final byte[] fir;
+        private final byte[] rgb;
+
+        EncodedFrame(long timestamp, byte[] fir, byte[] rgb) {
+            this.timestamp = timestamp;
+            this.fir = fir;
+            this.rgb = rgb;
+        }
+    }
 
+    /**
+     * Encodes FIR and RGB image of a frame
+     *
+     * @param images    the receiveImages to encode
+     * @param timestamp capture time
+     */
+    @Override
+    public EncodedFrame encode(FrameDataHolder images, long timestamp) {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        long start = metrics.begin(PipelineMetrics.Span.ENCODE);
         try {
+            return new EncodedFrame(timestamp, encodeImage(images.firBitmap), encodeImage(images.rgbBitmap));
+        } finally {
+            metrics.end(PipelineMetrics.Span.ENCODE, start);
+        }
+    }
 
-            // If Android Q or later, use MediaStore
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                ContentResolver resolver = context.getContentResolver();
-
-                ContentValues contentValues = new ContentValues();
-                contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
-                contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "image/png");
-                contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, "DCIM/" + IMAGES_FOLDER_NAME);
-                contentValues.put(MediaStore.MediaColumns.DATE_TAKEN, time);
-                contentValues.put(MediaStore.MediaColumns.DATE_ADDED, time);
-
-                Uri imageUri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
-                try {
-                    out = resolver.openOutputStream(Objects.requireNonNull(imageUri));
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                }
-
-                // *** UNTESTED ***
-                // If before android Q, use legacy file storage
-            } else {
-                String imagesDir = Environment.getExternalStoragePublicDirectory(
-                        Environment.DIRECTORY_DCIM).toString() + File.separator + IMAGES_FOLDER_NAME;
-
-                File file = new File(imagesDir);
-
-                if (!file.exists()) {
-                    //noinspection ResultOfMethodCallIgnored
-                    file.mkdir();
-                }
+    private byte[] encodeImage(Bitmap image) {
+        ByteArrayOutputStream buffer = buffers.get();
+        buffer.reset();
+        image.compress(Bitmap.CompressFormat.PNG, 100, buffer);
+        return buffer.toByteArray();
+    }
 
-                File imageFile = new File(imagesDir, name + ".png");
-                out = new FileOutputStream(imageFile);
+    /**
+     * Saves FIR and RGB image to file system
+     *
+     * @param frame the encoded receiveImages to save
+     */
+    @Override
+    public void commit(EncodedFrame frame) throws IOException {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        long start = metrics.begin(PipelineMetrics.Span.COMMIT);
+        try {
+            @SuppressLint("SimpleDateFormat")
+            String timeStamp = new SimpleDateFormat("yyy_MM_dd_HH_mm_ss_SSS").format(new Date(frame.timestamp));
 
-            }
-            if (out != null) {
-                image.compress(Bitmap.CompressFormat.PNG, 100, out);
-                out.flush();
-                out.close();
-            }
-        } catch (IOException | NullPointerException e) {
-            e.printStackTrace();
+            writeImage(frame.fir, "fir_" + timeStamp + ".png", Long.toString(frame.timestamp));
+            writeImage(frame.rgb, "rgb_" + timeStamp + ".png", Long.toString(frame.timestamp));
+        } finally {
+            metrics.end(PipelineMetrics.Span.COMMIT, start);
         }
     }
 
     /**
-     * Saves FIR and RGB image to file system
+     * Writes an encoded image to file system.
      *
-     * @param images the receiveImages to save
+     * @param image PNG data to write
+     * @param name  File name of the image
+     * @param time  Capture timestamp
      */
-    public void saveImages(FrameDataHolder images) {
-        Date now = new Date();
+    private void writeImage(byte[] image, String name, String time) throws IOException {
+        OutputStream out;
+
+        // If Android Q or later, use MediaStore
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ContentResolver resolver = context.getContentResolver();
+
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+            contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "image/png");
+            contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, "DCIM/" + IMAGES_FOLDER_NAME);
+            contentValues.put(MediaStore.MediaColumns.DATE_TAKEN, time);
+            contentValues.put(MediaStore.MediaColumns.DATE_ADDED, time);
+
+            Uri imageUri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
+            if (imageUri == null) {
+                throw new IOException("Could not create media entry for " + name);
+            }
+            out = resolver.openOutputStream(imageUri);
+            if (out == null) {
+                throw new IOException("Could not open " + imageUri);
+            }
 
-        @SuppressLint("SimpleDateFormat")
-        String timeStamp = new SimpleDateFormat("yyy_MM_dd_HH_mm_ss_SSS").format(now);
+            // *** UNTESTED ***
+            // If before android Q, use legacy file storage
+        } else {
+            String imagesDir = Environment.getExternalStoragePublicDirectory(
+                    Environment.DIRECTORY_DCIM).toString() + File.separator + IMAGES_FOLDER_NAME;
 
-        writeImage(images.firBitmap, "fir_" + timeStamp + ".png", Long.toString(now.getTime()));
-        writeImage(images.rgbBitmap, "rgb_" + timeStamp + ".png", Long.toString(now.getTime()));
-    }
+            File file = new File(imagesDir);
 
+            if (!file.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                file.mkdir();
+            }
+
+            File imageFile = new File(imagesDir, name);
+            out = new FileOutputStream(imageFile);
+        }
+
+        try {
+            out.write(image);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
 }
@@ -0,0 +1,208 @@
+package com.lindronics.flirapp.classification;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+import android.util.Log;
+
+import com.lindronics.flirapp.R;
+import com.lindronics.flirapp.camera.AffineMatrix;
+import com.lindronics.flirapp.recording.FramePairScanner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Classifies a directory of recorded rgb_/fir_ PNG pairs without camera or UI,
+ * writing one CSV row per frame.
+ * <p>
+ * Started with {@code adb shell am start-foreground-service}, see the readme.
+ * Jobs run one after another on a background thread. Decoding and packing use one worker
+ * per core left over by the interpreter threads.
+ */
+public class BatchClassificationService extends Service {
+
+    private static final String TAG = "BatchClassification";
+
+    /**
+     * Directory of PNG pairs, absolute or relative to the app's external files directory,
+     * which it has to be inside of
+     */
+    public static final String EXTRA_INPUT = "input";
+
+    /**
+     * CSV file to write, absolute or relative to the app's external files directory,
+     * which it has to be inside of.
+     * Defaults to classification/<input directory name>.csv
+     */
+    public static final String EXTRA_OUTPUT = "output";
+
+    /**
+     * Number of frames per interpreter run
+     */
+    public static final String EXTRA_BATCH_SIZE = "batchSize";
+
+    /**
+     * Number of interpreter threads, the remaining cores decode and pack frames
+     */
+    public static final String EXTRA_THREADS = "threads";
+
+    public static final String EXTRA_BINARY = "binary";
+
+    private static final int DEFAULT_BATCH_SIZE = 8;
+
+    private static final String CHANNEL_ID = "batch_classification";
+    private static final int NOTIFICATION_ID = 1;
+
+    private final ExecutorService jobs = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "batch-classification"));
+
+    private NotificationManager notificationManager;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        notificationManager = getSystemService(NotificationManager.class);
+        notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                getString(R.string.batch_classification), NotificationManager.IMPORTANCE_LOW));
+        startForeground(NOTIFICATION_ID, buildNotification(getString(R.string.batch_classification_starting)));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null || intent.getStringExtra(EXTRA_INPUT) == null) {
+            Log.e(TAG, "No input directory given");
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+
+        File input;
+        File output;
+        try {
+            input = resolve(intent.getStringExtra(EXTRA_INPUT));
+            String outputPath = intent.getStringExtra(EXTRA_OUTPUT);
+            output = outputPath != null
+                    ? resolve(outputPath)
+                    : new File(getExternalFilesDir("classification"), input.getName() + ".csv");
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Invalid input or output", e);
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        int batchSize = Math.max(1, intent.getIntExtra(EXTRA_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+
+        // Split the cores between the interpreter and the loaders
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(1, intent.getIntExtra(EXTRA_THREADS, Math.max(1, cores / 2)));
+        int loaderThreads = Math.max(1, cores - threads);
+        boolean isBinaryClassifier = intent.getBooleanExtra(EXTRA_BINARY, false);
+
+        jobs.execute(() -> {
+            try {
+                classify(input, output, batchSize, threads, loaderThreads, isBinaryClassifier);
+            } catch (IOException e) {
+                Log.e(TAG, "Classifying " + input + " failed", e);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Classifying " + input + " interrupted");
+            } finally {
+                stopSelf(startId);
+            }
+        });
+        return START_NOT_STICKY;
+    }
+
+    private void classify(File input, File output, int batchSize, int threads, int loaderThreads,
+                          boolean isBinaryClassifier) throws IOException, InterruptedException {
+        List<FramePairScanner.FramePair> pairs = FramePairScanner.scan(input);
+        if (pairs.isEmpty()) {
+            throw new IOException("No rgb_/fir_ image pairs in " + input);
+        }
+        File parent = output.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        MappedByteBuffer model = ModelHandler.loadModel(this);
+        List<String> labels = ModelHandler.loadLabels(this);
+        AffineMatrix alignment = AffineMatrix.read(new InputStreamReader(getAssets().open("transformation.txt")));
+
+        try (TfliteBatchModel batchModel = new TfliteBatchModel(model, batchSize, threads);
+             ClassificationCsvWriter writer = new ClassificationCsvWriter(new BufferedWriter(new OutputStreamWriter(
+                     new FileOutputStream(output), StandardCharsets.UTF_8)), labels, isBinaryClassifier);
+             BatchClassifier classifier = new BatchClassifier(batchModel, new PngPairLoader(
+                     batchModel.getImageWidth(), batchModel.getImageHeight(), alignment), loaderThreads)) {
+
+            Log.i(TAG, String.format(Locale.UK, "Classifying %d frames from %s, batch %d, %d interpreter threads, %d loader threads",
+                    pairs.size(), input, batchModel.getBatchSize(), threads, loaderThreads));
+
+            BatchClassifier.Summary summary = classifier.run(pairs, writer, new BatchClassifier.Listener() {
+                @Override
+                public void onBatch(int processed, int total, double imagesPerSecond) {
+                    String progress = getString(R.string.batch_classification_progress, processed, total, imagesPerSecond);
+                    Log.d(TAG, progress);
+                    notificationManager.notify(NOTIFICATION_ID, buildNotification(progress));
+                }
+
+                @Override
+                public void onFailure(FramePairScanner.FramePair pair, IOException e) {
+                    Log.w(TAG, "Skipped " + pair.name + ": " + e.getMessage());
+                }
+            });
+            Log.i(TAG, "Wrote " + output + ": " + summary);
+        }
+    }
+
+    /**
+     * Resolves a path relative to the app's external files directory, so callers cannot make
+     * the service read or write the app's private files
+     *
+     * @throws IllegalArgumentException If the path leads outside the external files directory
+     */
+    private File resolve(String path) throws IOException {
+        File root = getExternalFilesDir(null);
+        if (root == null) {
+            throw new IOException("No external storage");
+        }
+        File file = new File(path);
+        file = (file.isAbsolute() ? file : new File(root, path)).getCanonicalFile();
+        String rootPath = root.getCanonicalPath() + File.separator;
+        if (!file.getPath().startsWith(rootPath)) {
+            throw new IllegalArgumentException(path + " is outside " + rootPath);
+        }
+        return file;
+    }
+
+    private Notification buildNotification(String text) {
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.batch_classification))
+                .setContentText(text)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        jobs.shutdownNow();
+        stopForeground(true);
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -0,0 +1,200 @@
+package com.lindronics.flirapp.classification;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.tensorflow.lite.gpu.CompatibilityList;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the fastest device and thread count for the model on this phone.
+ * <p>
+ * The first time a model runs on a device, every available configuration is timed on
+ * synthetic input: the CPU with 1 to N threads, XNNPACK, NNAPI and the GPU where they exist.
+ * Configurations whose outputs differ from the single threaded CPU are not used.
+ * The winner is stored per model hash and device build, so later launches skip the benchmark.
+ */
+public class DelegateAutotuner {
+
+    private static final String TAG = "DelegateAutotuner";
+
+    private static final String PREFERENCES = "autotune";
+
+    /**
+     * Maximum absolute difference of any output to the CPU reference
+     */
+    private static final float TOLERANCE = 0.02f;
+
+    private static final int WARM_UP_RUNS = 2;
+    private static final int TIMED_RUNS = 5;
+
+    /**
+     * More threads than this rarely help on phone CPUs
+     */
+    private static final int MAX_THREADS = 8;
+
+    /**
+     * Device and number of threads to run a model with
+     */
+    public static class Configuration {
+        public final ModelHandler.Device device;
+        public final int numThreads;
+
+        public Configuration(ModelHandler.Device device, int numThreads) {
+            this.device = device;
+            this.numThreads = numThreads;
+        }
+
+        /**
+         * @return The configuration written by {@link #toString()}, or null if it cannot be read
+         */
+        static Configuration parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split("/");
+            try {
+                return new Configuration(ModelHandler.Device.valueOf(parts[0]), Integer.parseInt(parts[1]));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return device + "/" + numThreads;
+        }
+    }
+
+    private final Context context;
+    private final MappedByteBuffer model;
+    private final List<String> labels;
+    private final boolean isBinaryClassifier;
+    private final String key;
+
+    /**
+     * @param model  Memory-mapped TF Lite model
+     * @param labels Labels corresponding to the output of the model
+     */
+    public DelegateAutotuner(Context context, MappedByteBuffer model, List<String> labels, boolean isBinaryClassifier) {
+        this.context = context.getApplicationContext();
+        this.model = model;
+        this.labels = labels;
+        this.isBinaryClassifier = isBinaryClassifier;
+        this.key = hash(model) + "|" + Build.FINGERPRINT;
+    }
+
+    /**
+     * @return The configuration found by an earlier benchmark of this model on this device,
+     * or null if there was none
+     */
+    public Configuration getCached() {
+        return Configuration.parse(getPreferences().getString(key, null));
+    }
+
+    /**
+     * Times all available configurations and stores the fastest stable one.
+     * Takes a few seconds, do not call on the UI thread.
+     *
+     * @return The fastest stable configuration, the single threaded CPU if nothing else works
+     */
+    public Configuration tune() {
+        AutotuneTrials<Configuration> trials = new AutotuneTrials<>(TOLERANCE);
+
+        // Reference first, then all candidates
+        int maxThreads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            measure(trials, new Configuration(ModelHandler.Device.CPU, threads));
+        }
+        measure(trials, new Configuration(ModelHandler.Device.XNNPACK, maxThreads));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            measure(trials, new Configuration(ModelHandler.Device.NNAPI, 1));
+        }
+        if (isGpuSupported()) {
+            measure(trials, new Configuration(ModelHandler.Device.GPU, 1));
+        }
+
+        Configuration best = trials.getBest();
+        if (best == null) {
+            best = new Configuration(ModelHandler.Device.CPU, 1);
+        }
+        Log.i(TAG, "Trials: " + trials + ", using " + best);
+        getPreferences().edit().putString(key, best.toString()).apply();
+        return best;
+    }
+
+    /**
+     * Times one configuration, leaving it out if it cannot be created or run
+     */
+    private void measure(AutotuneTrials<Configuration> trials, Configuration configuration) {
+        ModelHandler handler = null;
+        try {
+            handler = new ModelHandler(model, labels, configuration.device, configuration.numThreads,
+                    isBinaryClassifier, null);
+            handler.fillSyntheticInput(42);
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                handler.runInput();
+            }
+            long[] times = new long[TIMED_RUNS];
+            float[] output = null;
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                long start = System.nanoTime();
+                output = handler.runInput();
+                times[i] = System.nanoTime() - start;
+            }
+            trials.add(configuration, AutotuneTrials.median(times), output);
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            Log.w(TAG, configuration + " not available: " + e.getMessage());
+        } finally {
+            if (handler != null) {
+                handler.close();
+            }
+        }
+    }
+
+    private static boolean isGpuSupported() {
+        try {
+            CompatibilityList compatibilityList = new CompatibilityList();
+            boolean supported = compatibilityList.isDelegateSupportedOnThisDevice();
+            compatibilityList.close();
+            return supported;
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return Hex SHA-256 of the model
+     */
+    private static String hash(MappedByteBuffer model) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer view = model.duplicate();
+            view.rewind();
+            digest.update(view);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Fall back to the size, which still separates most models
+            return "size" + model.capacity();
+        }
+    }
+}
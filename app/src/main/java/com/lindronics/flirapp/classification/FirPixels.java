@@ -0,0 +1,68 @@
+package com.lindronics.flirapp.classification;
+
+import android.graphics.Bitmap;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.camera.ThermalData;
+
+/**
+ * Reusable unpadded FIR pixels of a frame, for the filters deciding what to classify.
+ * <p>
+ * If a thermal range is given and the frame carries temperatures, the pixels are thermal
+ * levels, see {@link ThermalRange}, so the rendered FIR image is not needed.
+ * Otherwise they are the ARGB pixels of the rendered image.
+ */
+class FirPixels {
+
+    /**
+     * Pixels of the last frame read, only reallocated if the frame size changes.
+     */
+    int[] pixels = new int[0];
+    int width;
+    int height;
+
+    /**
+     * Whether the last frame was read as thermal levels
+     */
+    boolean thermalLevels;
+
+    /**
+     * @param range Range of the thermal levels, or null to read the rendered image
+     */
+    void read(FrameDataHolder images, ThermalRange range) {
+        ThermalData thermal = images.thermal;
+        thermalLevels = range != null && thermal != null;
+        if (thermalLevels) {
+            pixels = range.toLevels(thermal, pixels);
+            width = thermal.getWidth();
+            height = thermal.getHeight();
+            return;
+        }
+
+        Bitmap fir = requireFirBitmap(images, range);
+        width = fir.getWidth();
+        height = fir.getHeight();
+        if (pixels.length != width * height) {
+            pixels = new int[width * height];
+        }
+        fir.getPixels(pixels, 0, width, 0, 0, width, height);
+    }
+
+    /**
+     * Frames only lack the rendered FIR image if the camera was told to skip it because the
+     * temperatures are used, see {@link com.lindronics.flirapp.camera.CameraHandler#setFirRenderingEnabled}.
+     *
+     * @param range Range the temperatures would be read with, null if there is none
+     * @return The rendered FIR image of a frame that is not read as thermal levels
+     * @throws IllegalStateException If the frame has no rendered FIR image
+     */
+    static Bitmap requireFirBitmap(FrameDataHolder images, ThermalRange range) {
+        if (images.firBitmap != null) {
+            return images.firBitmap;
+        }
+        if (range == null) {
+            throw new IllegalStateException("Frame has no rendered FIR image and no thermal range is set to read its temperatures");
+        }
+        throw new IllegalStateException("Frame has neither a rendered FIR image nor temperatures");
+    }
+}
@@ -0,0 +1,239 @@
+package com.lindronics.flirapp.classification;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.pipeline.ReorderBuffer;
+
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Classifies frames concurrently on several interpreters sharing one memory-mapped model.
+ * <p>
+ * Every interpreter has its own thread, input and output buffers. Frames are queued and
+ * taken by whichever interpreter is free; if all are busy and the queue is full, the oldest
+ * queued frame is dropped. Results are delivered in the order the frames were submitted,
+ * so a slow interpreter delays the results of faster ones.
+ */
+public class InterpreterPool {
+
+    private static final String TAG = "InterpreterPool";
+
+    /**
+     * Receives the results, in submission order, on one of the interpreter threads.
+     * The results are reused for later frames once the call returns, copy them to keep them.
+     */
+    public interface ResultListener {
+        /**
+         * @param sequence     Sequence number of the frame, counting submitted frames
+         * @param results      Classification results
+         * @param latencyNanos Time from submission to the result
+         */
+        void onResult(long sequence, List<ModelHandler.Recognition> results, long latencyNanos);
+    }
+
+    /**
+     * Frame waiting for an interpreter
+     */
+    private static class Job {
+        final long sequence;
+        final FrameDataHolder frame;
+        final long submittedAt;
+
+        Job(long sequence, FrameDataHolder frame, long submittedAt) {
+            this.sequence = sequence;
+            this.frame = frame;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    /**
+     * Result travelling through the reorder buffer, reused for every frame of its slot
+     */
+    private static class Result {
+        final List<ModelHandler.Recognition> recognitions = new ArrayList<>();
+        long latencyNanos;
+    }
+
+    private final ModelHandler[] handlers;
+    private final Thread[] threads;
+    private final BlockingQueue<Job> queue;
+    private final ReorderBuffer<Result> reorderBuffer;
+
+    /**
+     * Results indexed by sequence number modulo the window. At most a window of frames is
+     * undelivered at a time, so a slot is delivered before it is reused.
+     */
+    private final Result[] results;
+
+    /**
+     * Sequence numbers of frames dropped by {@link #submit}, skipped in the reorder buffer by the
+     * interpreter threads, so results waiting behind them are not delivered on the submitting thread
+     */
+    private final ConcurrentLinkedQueue<Long> droppedSequences = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Maximum number of frames between the oldest undelivered result and the newest frame
+     */
+    private final int window;
+
+    private long nextSequence = 0;
+    private long dropped = 0;
+    private volatile boolean running = true;
+
+    /**
+     * @param model                 Memory-mapped TF Lite model, shared by all interpreters
+     * @param labels                Labels corresponding to the output of the model
+     * @param poolSize              Number of interpreters
+     * @param threadsPerInterpreter Number of threads of each interpreter
+     * @param alignment             Matrix aligning the RGB image to the FIR image
+     * @param listener              Receives the results in order
+     */
+    public InterpreterPool(MappedByteBuffer model, List<String> labels, int poolSize, int threadsPerInterpreter,
+                           boolean isBinaryClassifier, AffineMatrix alignment, ResultListener listener) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Need at least one interpreter, got " + poolSize);
+        }
+        handlers = new ModelHandler[poolSize];
+        threads = new Thread[poolSize];
+
+        // One frame waiting per interpreter keeps every interpreter busy without adding latency
+        queue = new ArrayBlockingQueue<>(poolSize);
+        window = 4 * poolSize;
+        results = new Result[window];
+        for (int i = 0; i < window; i++) {
+            results[i] = new Result();
+        }
+        reorderBuffer = new ReorderBuffer<>(window,
+                (sequence, result) -> listener.onResult(sequence, result.recognitions, result.latencyNanos));
+
+        for (int i = 0; i < poolSize; i++) {
+            handlers[i] = new ModelHandler(model, labels, ModelHandler.Device.CPU, threadsPerInterpreter,
+                    isBinaryClassifier, alignment);
+            ModelHandler handler = handlers[i];
+            threads[i] = new Thread(() -> work(handler), "inference-" + i);
+            threads[i].start();
+        }
+    }
+
+    public int getPoolSize() {
+        return handlers.length;
+    }
+
+    /**
+     * Queues a frame for the next free interpreter, dropping the oldest queued frame if necessary.
+     *
+     * @param frame Frame to classify, retained until it is classified or dropped
+     * @return Whether the frame was queued
+     */
+    public synchronized boolean submit(FrameDataHolder frame) {
+        if (!running) {
+            return false;
+        }
+
+        // A stalled interpreter holds back all later results, stop accepting frames until it is done
+        if (nextSequence - reorderBuffer.getNext() >= window) {
+            dropped++;
+            return false;
+        }
+        Job job = new Job(nextSequence++, frame.retain(), System.nanoTime());
+        while (!queue.offer(job)) {
+            Job oldest = queue.poll();
+            if (oldest != null) {
+                // The interpreter taking the new job skips it
+                oldest.frame.release();
+                droppedSequences.add(oldest.sequence);
+                dropped++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips the frames dropped from the queue, delivering any results that were waiting for them
+     */
+    private void skipDropped() {
+        Long sequence;
+        while ((sequence = droppedSequences.poll()) != null) {
+            reorderBuffer.skip(sequence);
+        }
+    }
+
+    private void work(ModelHandler handler) {
+        while (running) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            skipDropped();
+            Result result = results[(int) (job.sequence % window)];
+            boolean classified = false;
+            try {
+                // The handler reuses its results, copy them into the slot of this frame
+                ModelHandler.copyResults(handler.recognizeImage(job.frame), result.recognitions);
+                result.latencyNanos = System.nanoTime() - job.submittedAt;
+                classified = true;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Classification failed", e);
+            } finally {
+                job.frame.release();
+            }
+            // Outside the try, so a failing listener is not mistaken for a failed classification
+            if (classified) {
+                reorderBuffer.complete(job.sequence, result);
+            } else {
+                reorderBuffer.skip(job.sequence);
+            }
+            skipDropped();
+        }
+    }
+
+    /**
+     * Stops all interpreters after their current frame, drops the queued frames and
+     * closes the interpreters. No results are delivered after this returns.
+     */
+    public void close() {
+        synchronized (this) {
+            running = false;
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Job job;
+        while ((job = queue.poll()) != null) {
+            job.frame.release();
+            synchronized (this) {
+                dropped++;
+            }
+        }
+        for (ModelHandler handler : handlers) {
+            handler.close();
+        }
+        Log.i(TAG, toString());
+    }
+
+    @Override
+    @NonNull
+    public synchronized String toString() {
+        return String.format(Locale.UK, "%d interpreters, submitted %d, dropped %d, waiting for reorder %d",
+                handlers.length, nextSequence, dropped, reorderBuffer.getWaiting());
+    }
+}
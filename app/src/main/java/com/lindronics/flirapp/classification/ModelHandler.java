@@ -1,34 +1,41 @@
 package com.lindronics.flirapp.classification;
 
-import android.app.Activity;
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Color;
 import android.os.Trace;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.lindronics.flirapp.camera.AffineTransformer;
+import com.lindronics.flirapp.camera.AffineMatrix;
 import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.camera.ThermalData;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
 
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.nnapi.NnApiDelegate;
 import org.tensorflow.lite.support.common.FileUtil;
-import org.tensorflow.lite.support.label.TensorLabel;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Random;
 
 public class ModelHandler {
 
+    private static final String TAG = "ModelHandler";
+
     /**
      * Interpreter for inference
      */
@@ -60,42 +67,176 @@ public class ModelHandler {
     private NnApiDelegate nnApiDelegate = null;
 
     /**
-     * Output probability TensorBuffer.
+     * Reusable direct output buffer, sized from the output tensor.
      */
-    private TensorBuffer outputProbabilityBuffer;
+    private ByteBuffer outputBuffer;
 
     /**
-     * Image size along the x axis.
+     * Outputs of the last inference, one frame after the other. Float models fill the
+     * probabilities, quantized models the raw values.
      */
-    private int imageHeight;
+    private float[] outputProbabilities;
+    private byte[] outputRaw;
+
+    /**
+     * Quantization of the input and output tensors, null for float tensors.
+     */
+    private Quantization inputQuantization;
+    private Quantization outputQuantization;
 
     /**
      * Image size along the y axis.
      */
+    private int imageHeight;
+
+    /**
+     * Image size along the x axis.
+     */
     private int imageWidth;
 
+    /**
+     * Reusable direct input buffer, sized from the input tensor.
+     */
+    private ByteBuffer inputImageBuffer;
+
+    /**
+     * Float view onto the input buffer, null for quantized inputs.
+     */
+    private FloatBuffer inputFloatBuffer;
+
+    /**
+     * Reusable padded pixel arrays for the full size RGB and FIR images.
+     * Only reallocated if the camera frame size changes.
+     */
+    private int[] rgbPixels = new int[0];
+    private int[] firPixels = new int[0];
+
+    /**
+     * Dimensions of the images last read into the pixel arrays.
+     */
+    private int rgbWidth;
+    private int rgbHeight;
+    private int firWidth;
+    private int firHeight;
+
+    /**
+     * Whether the FIR pixel array holds thermal levels instead of rendered pixels.
+     */
+    private boolean firLevels = false;
+
+    /**
+     * Temperature range for feeding raw temperatures into the thermal channel, null to use the rendered FIR image.
+     */
+    private volatile ThermalRange thermalRange = null;
+
+    /**
+     * Fused rescale, alignment and channel merge.
+     */
+    private FusedPreprocessor preprocessor;
+
+    /**
+     * Fused rescale and channel merge, for frames whose aligned RGB image already exists.
+     */
+    private FusedPreprocessor alignedPreprocessor;
+
+    /**
+     * Same kernels for crops of the frame, so the full frame tables are not rebuilt.
+     */
+    private FusedPreprocessor regionPreprocessor;
+    private FusedPreprocessor alignedRegionPreprocessor;
+
+    /**
+     * Optional worker pool for packing the input in row stripes.
+     */
+    private StripedPackingPool packingPool = null;
+
+    /**
+     * Maximum number of frames per batched inference, 1 if batching is off.
+     */
+    private int maxBatchSize = 1;
+
+    /**
+     * Batch size the input tensor is currently resized to.
+     */
+    private int tensorBatchSize = 1;
+
+    /**
+     * Input tensor shape for a batch of one.
+     */
+    private int[] imageShape;
+
+    /**
+     * Number of outputs per frame.
+     */
+    private int outputSize;
+
+    /**
+     * Direct input and output buffers for batched inference, and views of them for every
+     * batch size, as the interpreter needs buffers of exactly the tensor size.
+     */
+    private ByteBuffer[] batchInputs;
+    private ByteBuffer[] batchOutputs;
+    private ByteBuffer[] batchSlots;
+    private FloatBuffer[] batchFloatSlots;
+    private final Object[] runInputs = new Object[1];
+    private final Map<Integer, Object> runOutputs = new HashMap<>();
+
     /**
      * Number of results to show in the UI.
      */
     private static final int MAX_RESULTS = 3;
 
-    private AffineTransformer transformer;
+    /**
+     * Best results of the last postprocessed frame.
+     */
+    private final TopKSelector topK = new TopKSelector(MAX_RESULTS);
+
+    /**
+     * Reusable results, one slot per frame or crop of a call, so postprocessing does not allocate.
+     * Overwritten by the next call, see {@link #copyResults}.
+     */
+    private final ArrayList<ResultSlot> resultSlots = new ArrayList<>();
+    private final ArrayList<List<Recognition>> batchResults = new ArrayList<>();
+
+    /**
+     * Model and labels in the app's assets.
+     */
+    public static final String MODEL_FILE = "model.tflite";
+    public static final String LABELS_FILE = "labels.txt";
+
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
 
     /**
      * Possible devices to run the model on
      */
     public enum Device {
         CPU,
+        XNNPACK,
         NNAPI,
         GPU
     }
 
-    public ModelHandler(Activity activity, Device device, int numThreads, Boolean isBinaryClassifier) throws IOException {
+    /**
+     * Loads the model and labels from the app's assets.
+     *
+     * @param alignment Matrix aligning the RGB image to the FIR image, shared with the preview
+     */
+    public ModelHandler(Context context, Device device, int numThreads, Boolean isBinaryClassifier,
+                        AffineMatrix alignment) throws IOException {
+        this(loadModel(context), loadLabels(context), device, numThreads, isBinaryClassifier, alignment);
+    }
+
+    /**
+     * @param model     Memory-mapped TF Lite model
+     * @param labels    Labels corresponding to the output of the model
+     * @param alignment Matrix aligning the RGB image to the FIR image, shared with the preview
+     */
+    public ModelHandler(MappedByteBuffer model, List<String> labels, Device device, int numThreads,
+                        Boolean isBinaryClassifier, AffineMatrix alignment) {
 
         this.isBinaryClassifier = isBinaryClassifier;
-
-        // Load model
-        tfliteModel = FileUtil.loadMappedFile(activity, "model.tflite");
+        this.labels = labels;
+        tfliteModel = model;
 
         // Select device
         Interpreter.Options tfliteOptions = new Interpreter.Options();
@@ -108,126 +249,646 @@ public class ModelHandler {
                 gpuDelegate = new GpuDelegate();
                 tfliteOptions.addDelegate(gpuDelegate);
                 break;
+            case XNNPACK:
+                tfliteOptions.setUseXNNPACK(true);
+                break;
             case CPU:
                 break;
         }
         tfliteOptions.setNumThreads(numThreads);
         tflite = new Interpreter(tfliteModel, tfliteOptions);
 
-        // Load labels out from the label file.
-        labels = FileUtil.loadLabels(activity, "labels.txt");
-
         // Read type and shape of input and output tensors, respectively.
         int imageTensorIndex = 0;
-        int[] imageShape = tflite.getInputTensor(imageTensorIndex).shape();
+        Tensor imageTensor = tflite.getInputTensor(imageTensorIndex);
+        imageShape = imageTensor.shape();
         imageHeight = imageShape[1];
         imageWidth = imageShape[2];
 
         int probabilityTensorIndex = 0;
-        int[] probabilityShape =
-                tflite.getOutputTensor(probabilityTensorIndex).shape();
-        DataType probabilityDataType = tflite.getOutputTensor(probabilityTensorIndex).dataType();
+        Tensor probabilityTensor = tflite.getOutputTensor(probabilityTensorIndex);
+        try {
+            inputQuantization = readQuantization(imageTensor);
+            outputQuantization = readQuantization(probabilityTensor);
+        } catch (IllegalArgumentException e) {
+            close();
+            throw e;
+        }
+
+        // Allocate all per-frame buffers once
+        inputImageBuffer = ByteBuffer.allocateDirect(imageTensor.numBytes());
+        inputImageBuffer.order(ByteOrder.nativeOrder());
+        inputFloatBuffer = inputQuantization == null ? inputImageBuffer.asFloatBuffer() : null;
+
+        outputSize = probabilityTensor.numElements();
+        outputBuffer = ByteBuffer.allocateDirect(probabilityTensor.numBytes()).order(ByteOrder.nativeOrder());
+        allocateOutputs(1);
+
+        preprocessor = new FusedPreprocessor(imageWidth, imageHeight, alignment);
+        alignedPreprocessor = new FusedPreprocessor(imageWidth, imageHeight, null);
+        regionPreprocessor = new FusedPreprocessor(imageWidth, imageHeight, alignment);
+        alignedRegionPreprocessor = new FusedPreprocessor(imageWidth, imageHeight, null);
+    }
+
 
-        // Create the output tensor and its processor.
-        outputProbabilityBuffer = TensorBuffer.createFixedSize(probabilityShape, probabilityDataType);
+    /**
+     * @return Quantization of an 8 bit tensor, or null for a float tensor
+     * @throws IllegalArgumentException If the tensor has another type
+     */
+    private static Quantization readQuantization(Tensor tensor) {
+        DataType type = tensor.dataType();
+        if (type == DataType.FLOAT32) {
+            return null;
+        }
+        if (type != DataType.UINT8 && type != DataType.INT8) {
+            throw new IllegalArgumentException("Unsupported tensor type " + type);
+        }
+        Tensor.QuantizationParams params = tensor.quantizationParams();
+        return new Quantization(params.getScale(), params.getZeroPoint(), type == DataType.INT8);
+    }
+
+    /**
+     * Feeds the radiometric temperatures of frames into the thermal channel instead of the
+     * rendered FIR image, clamped to a temperature range. Frames without temperatures,
+     * see {@link FrameDataHolder#thermal}, still use the rendered image.
+     *
+     * @param thermalRange Range scaled to the thermal channel, null to always use the rendered image
+     */
+    public void setThermalRange(ThermalRange thermalRange) {
+        this.thermalRange = thermalRange;
+    }
 
-        transformer = new AffineTransformer(activity);
+    /**
+     * @return Range of the temperatures fed into the thermal channel, or null if the rendered image is used
+     */
+    public ThermalRange getThermalRange() {
+        return thermalRange;
     }
 
+    /**
+     * @return Whether the model takes 8 bit inputs
+     */
+    public boolean isQuantized() {
+        return inputQuantization != null;
+    }
+
+    /**
+     * Memory-maps the model from the app's assets
+     */
+    public static MappedByteBuffer loadModel(Context context) throws IOException {
+        return FileUtil.loadMappedFile(context, MODEL_FILE);
+    }
+
+    /**
+     * Loads the labels from the app's assets, one per line
+     */
+    public static List<String> loadLabels(Context context) throws IOException {
+        return FileUtil.loadLabels(context, LABELS_FILE);
+    }
 
     /**
      * Runs inference and returns the classification results.
+     * The results are reused by the next call, see {@link #copyResults}.
      */
     public List<Recognition> recognizeImage(final FrameDataHolder images) {
+        return recognizeImage(images, 0);
+    }
+
+    /**
+     * @param slot Result slot to fill
+     */
+    private List<Recognition> recognizeImage(final FrameDataHolder images, int slot) {
         Trace.beginSection("recognizeImage");
+        try {
+            resizeBatch(1);
+
+            // Load receiveImages
+            loadImage(images, inputImageBuffer, inputFloatBuffer);
+
+            // Runs the inference call.
+            long start = metrics.begin(PipelineMetrics.Span.INVOKE);
+            try {
+                tflite.run(inputImageBuffer.rewind(), outputBuffer.rewind());
+            } finally {
+                metrics.end(PipelineMetrics.Span.INVOKE, start);
+            }
 
-        // Load receiveImages
-        Trace.beginSection("loadImage");
-        float[][][][] inputImageBuffer = loadImage(images);
-        Trace.endSection();
+            start = metrics.begin(PipelineMetrics.Span.POSTPROCESS);
+            try {
+                readOutputs(outputBuffer, 1);
+                return postprocess(0, slot);
+            } finally {
+                metrics.end(PipelineMetrics.Span.POSTPROCESS, start);
+            }
+        } finally {
+            Trace.endSection();
+        }
+    }
 
-        // Runs the inference call.
-        Trace.beginSection("runInference");
-        tflite.run(inputImageBuffer, outputProbabilityBuffer.getBuffer().rewind());
-        Trace.endSection();
+    /**
+     * Runs inference and copies all probabilities of the frame, dequantized if necessary.
+     *
+     * @param probabilities Array of at least {@link #getOutputSize()} probabilities
+     */
+    public void recognizeProbabilities(final FrameDataHolder images, float[] probabilities) {
+        Trace.beginSection("recognizeProbabilities");
+        try {
+            resizeBatch(1);
+            loadImage(images, inputImageBuffer, inputFloatBuffer);
+
+            long start = metrics.begin(PipelineMetrics.Span.INVOKE);
+            try {
+                tflite.run(inputImageBuffer.rewind(), outputBuffer.rewind());
+            } finally {
+                metrics.end(PipelineMetrics.Span.INVOKE, start);
+            }
 
-        if (isBinaryClassifier) {
-            float[] probability = outputProbabilityBuffer.getFloatArray();
+            readOutputs(outputBuffer, 1);
+            if (outputQuantization == null) {
+                System.arraycopy(outputProbabilities, 0, probabilities, 0, outputSize);
+            } else {
+                for (int i = 0; i < outputSize; i++) {
+                    probabilities[i] = outputQuantization.dequantize(outputRaw[i]);
+                }
+            }
+        } finally {
             Trace.endSection();
+        }
+    }
 
-            // In binary classification, return positive and negative class
-            ArrayList<Recognition> predictions = new ArrayList<>();
-            predictions.add(new Recognition("0", labels.get(0), 1 - probability[0]));
-            predictions.add(new Recognition("1", labels.get(1), probability[0]));
-            return predictions;
+    /**
+     * @return Number of outputs per frame
+     */
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * Fills the input with reproducible pseudo-random values in [0, 1), for benchmarking.
+     */
+    void fillSyntheticInput(long seed) {
+        Random random = new Random(seed);
+        if (inputQuantization != null) {
+            for (int i = 0; i < inputImageBuffer.capacity(); i++) {
+                inputImageBuffer.put(i, inputQuantization.quantize(random.nextFloat()));
+            }
+            return;
+        }
+        for (int i = 0; i < inputFloatBuffer.capacity(); i++) {
+            inputFloatBuffer.put(i, random.nextFloat());
+        }
+    }
+
+    /**
+     * Runs inference on the current input, without pre- or postprocessing, for benchmarking.
+     *
+     * @return The raw model outputs
+     */
+    float[] runInput() {
+        resizeBatch(1);
+        tflite.run(inputImageBuffer.rewind(), outputBuffer.rewind());
+        readOutputs(outputBuffer, 1);
+        if (outputQuantization == null) {
+            return Arrays.copyOf(outputProbabilities, outputSize);
+        }
+        float[] output = new float[outputSize];
+        for (int i = 0; i < outputSize; i++) {
+            output[i] = outputQuantization.dequantize(outputRaw[i]);
+        }
+        return output;
+    }
+
+    /**
+     * Enables batched inference through {@link #recognizeImages(List)}, by resizing the
+     * batch dimension of the input tensor. Not every model and delegate supports this.
+     *
+     * @param batchSize Maximum number of frames per inference, 1 to disable batching
+     * @return Whether batches of this size can be run
+     */
+    public boolean setMaxBatchSize(int batchSize) {
+        maxBatchSize = 1;
+        batchInputs = null;
+        batchOutputs = null;
+        batchSlots = null;
+        batchFloatSlots = null;
+        allocateOutputs(1);
+        if (batchSize <= 1) {
+            return true;
+        }
+        try {
+            resizeBatch(batchSize);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.w(TAG, "Model cannot run batches of " + batchSize, e);
+            // The input may have been resized before allocation failed
+            tensorBatchSize = batchSize;
+            resizeBatch(1);
+            return false;
+        }
+
+        int frameBytes = inputImageBuffer.capacity();
+        int outputBytes = outputBuffer.capacity();
+        ByteBuffer input = ByteBuffer.allocateDirect(batchSize * frameBytes).order(ByteOrder.nativeOrder());
+        ByteBuffer output = ByteBuffer.allocateDirect(batchSize * outputBytes).order(ByteOrder.nativeOrder());
+        batchInputs = new ByteBuffer[batchSize + 1];
+        batchOutputs = new ByteBuffer[batchSize + 1];
+        batchSlots = new ByteBuffer[batchSize];
+        batchFloatSlots = new FloatBuffer[batchSize];
+        for (int n = 1; n <= batchSize; n++) {
+            batchInputs[n] = slice(input, 0, n * frameBytes);
+            batchOutputs[n] = slice(output, 0, n * outputBytes);
+            batchSlots[n - 1] = slice(input, (n - 1) * frameBytes, frameBytes);
+            batchFloatSlots[n - 1] = inputQuantization == null ? batchSlots[n - 1].asFloatBuffer() : null;
+        }
+        allocateOutputs(batchSize);
+        maxBatchSize = batchSize;
+        return true;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Runs inference on several frames at once, in batches of up to the maximum batch size,
+     * and returns the classification results of every frame in order.
+     * The results are reused by the next call, see {@link #copyResults}.
+     */
+    public List<List<Recognition>> recognizeImages(final List<FrameDataHolder> frames) {
+        List<List<Recognition>> results = batchResults;
+        results.clear();
+        if (maxBatchSize == 1) {
+            for (int i = 0; i < frames.size(); i++) {
+                results.add(recognizeImage(frames.get(i), i));
+            }
+            return results;
+        }
+
+        Trace.beginSection("recognizeImages");
+        try {
+            for (int first = 0; first < frames.size(); first += maxBatchSize) {
+                int count = Math.min(maxBatchSize, frames.size() - first);
+                for (int i = 0; i < count; i++) {
+                    loadImage(frames.get(first + i), batchSlots[i], batchFloatSlots[i]);
+                }
+                runBatch(count, results);
+            }
+        } finally {
+            Trace.endSection();
+        }
+        return results;
+    }
+
+    /**
+     * Classifies crops of one frame at the full input resolution, in batches of up to the
+     * maximum batch size, and returns the results of every crop in order.
+     * The results are reused by the next call, see {@link #copyResults}.
+     *
+     * @param regions Crops of the aligned frame, see {@link WarmRegionFinder}
+     */
+    public List<List<Recognition>> recognizeRegions(final FrameDataHolder images,
+                                                    final List<WarmRegionFinder.Region> regions) {
+        List<List<Recognition>> results = batchResults;
+        results.clear();
+        Trace.beginSection("recognizeRegions");
+        try {
+            // The pixels are read once for all crops
+            FusedPreprocessor activePreprocessor = readPixels(images)
+                    ? alignedRegionPreprocessor
+                    : regionPreprocessor;
+            for (int first = 0; first < regions.size(); first += maxBatchSize) {
+                int count = Math.min(maxBatchSize, regions.size() - first);
+                for (int i = 0; i < count; i++) {
+                    WarmRegionFinder.Region region = regions.get(first + i);
+                    activePreprocessor.setCrop(region.left, region.top, region.right, region.bottom);
+                    if (maxBatchSize == 1) {
+                        pack(activePreprocessor, inputImageBuffer, inputFloatBuffer);
+                    } else {
+                        pack(activePreprocessor, batchSlots[i], batchFloatSlots[i]);
+                    }
+                }
+                runBatch(count, results);
+            }
+        } finally {
+            Trace.endSection();
+        }
+        return results;
+    }
+
+    /**
+     * Runs inference on the packed inputs of several frames and adds their results.
+     * Without batching, the single frame input is used.
+     */
+    private void runBatch(int count, List<List<Recognition>> results) {
+        ByteBuffer output;
+        long start = metrics.begin(PipelineMetrics.Span.INVOKE);
+        try {
+            if (maxBatchSize == 1) {
+                resizeBatch(1);
+                tflite.run(inputImageBuffer.rewind(), outputBuffer.rewind());
+                output = outputBuffer;
+            } else {
+                resizeBatch(count);
+                runInputs[0] = batchInputs[count].rewind();
+                runOutputs.put(0, batchOutputs[count].rewind());
+                tflite.runForMultipleInputsOutputs(runInputs, runOutputs);
+                output = batchOutputs[count];
+            }
+        } finally {
+            metrics.end(PipelineMetrics.Span.INVOKE, start);
+        }
+
+        start = metrics.begin(PipelineMetrics.Span.POSTPROCESS);
+        try {
+            readOutputs(output, count);
+            for (int i = 0; i < count; i++) {
+                results.add(postprocess(i * outputSize, results.size()));
+            }
+        } finally {
+            metrics.end(PipelineMetrics.Span.POSTPROCESS, start);
+        }
+    }
+
+    /**
+     * Resizes the batch dimension of the input tensor, if it differs
+     */
+    private void resizeBatch(int batchSize) {
+        if (tensorBatchSize == batchSize) {
+            return;
+        }
+        int[] shape = imageShape.clone();
+        shape[0] = batchSize;
+        tflite.resizeInput(0, shape);
+        tflite.allocateTensors();
+        tensorBatchSize = batchSize;
+    }
+
+    /**
+     * @return Direct native order view of part of a buffer
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Allocates the arrays holding the outputs of up to the given number of frames
+     */
+    private void allocateOutputs(int frames) {
+        if (outputQuantization == null) {
+            outputProbabilities = new float[frames * outputSize];
+        } else {
+            outputRaw = new byte[frames * outputSize];
+        }
+    }
+
+    /**
+     * Copies the outputs of an inference out of the output buffer, still quantized if the model is
+     */
+    private void readOutputs(ByteBuffer output, int frames) {
+        output.rewind();
+        if (outputQuantization == null) {
+            output.asFloatBuffer().get(outputProbabilities, 0, frames * outputSize);
         } else {
-            // Gets the map of label and probability.
-            Map<String, Float> labeledProbability =
-                    new TensorLabel(labels, outputProbabilityBuffer)
-                            .getMapWithFloatValue();
+            output.get(outputRaw, 0, frames * outputSize);
+        }
+    }
 
+    /**
+     * Turns the outputs of one frame of the last inference into a list of results.
+     *
+     * @param offset Index of the first output of the frame
+     * @param slot   Result slot to fill
+     */
+    private List<Recognition> postprocess(int offset, int slot) {
+        if (outputQuantization == null) {
+            return toRecognitions(outputProbabilities, offset, slot);
+        }
+        if (isBinaryClassifier) {
+            return binaryRecognitions(outputQuantization.dequantize(outputRaw[offset]), slot);
+        } else {
             //Gets top-k results.
-            return getTopKProbability(labeledProbability);
+            return getTopKProbability(offset, slot);
         }
     }
 
     /**
-     * Loads input image, and applies pre-processing.
+     * Turns probabilities, e.g. smoothed over several frames, into a list of results.
+     * The results are reused by the next call, see {@link #copyResults}.
+     *
+     * @param probabilities Probabilities of one frame, see {@link #getOutputSize()}
+     * @param offset        Index of the first probability
      */
-    private float[][][][] loadImage(final FrameDataHolder images) {
+    public List<Recognition> toRecognitions(float[] probabilities, int offset) {
+        return toRecognitions(probabilities, offset, 0);
+    }
 
-        // Rescale to expected dimensions
-        Bitmap rgbRescaled = Bitmap.createScaledBitmap(images.rgbBitmap, imageWidth, imageHeight, true);
-        Bitmap firRescaled = Bitmap.createScaledBitmap(images.firBitmap, imageWidth, imageHeight, true);
+    private List<Recognition> toRecognitions(float[] probabilities, int offset, int slot) {
+        if (isBinaryClassifier) {
+            return binaryRecognitions(probabilities[offset], slot);
+        }
+        ResultSlot results = resultSlot(slot);
+        int count = topK.select(probabilities, offset, labels.size());
+        for (int rank = 0; rank < count; rank++) {
+            String label = labels.get(topK.getIndex(rank));
+            results.add(label, label, topK.getScore(rank));
+        }
+        return results.list;
+    }
 
-        rgbRescaled = transformer.transform(rgbRescaled);
+    /**
+     * In binary classification, return positive and negative class
+     */
+    private List<Recognition> binaryRecognitions(float positive, int slot) {
+        ResultSlot results = resultSlot(slot);
+        results.add("0", labels.get(0), 1 - positive);
+        results.add("1", labels.get(1), positive);
+        return results.list;
+    }
 
-        int[] rgbArray = new int[imageWidth * imageHeight];
-        rgbRescaled.getPixels(rgbArray, 0, imageWidth, 0, 0, imageWidth, imageHeight);
+    /**
+     * @return Cleared result slot, allocated on first use
+     */
+    private ResultSlot resultSlot(int slot) {
+        while (resultSlots.size() <= slot) {
+            resultSlots.add(new ResultSlot());
+        }
+        ResultSlot results = resultSlots.get(slot);
+        results.list.clear();
+        return results;
+    }
 
-        int[] firArray = new int[imageWidth * imageHeight];
-        firRescaled.getPixels(firArray, 0, imageWidth, 0, 0, imageWidth, imageHeight);
+    /**
+     * Preallocated results of one frame
+     */
+    private static class ResultSlot {
+        final Recognition[] recognitions = new Recognition[MAX_RESULTS];
+        final ArrayList<Recognition> list = new ArrayList<>(MAX_RESULTS);
 
-        // Batch size * height * width * 4 channels
-        float[][][][] mergedArray = new float[1][imageHeight][imageWidth][4];
+        ResultSlot() {
+            for (int i = 0; i < MAX_RESULTS; i++) {
+                recognitions[i] = new Recognition(null, null, 0);
+            }
+        }
 
-        // Extract RGB and thermal channels and combine into new array
-        for (int i = 0; i < imageWidth; i++) {
-            for (int j = 0; j < imageHeight; j++) {
-                Color rgbColor = Color.valueOf(rgbArray[imageHeight * i + j]);
-                Color firColor = Color.valueOf(firArray[imageHeight * i + j]);
+        void add(String id, String title, float confidence) {
+            list.add(recognitions[list.size()].set(id, title, confidence));
+        }
+    }
 
-                mergedArray[0][j][i][0] = rgbColor.red();
-                mergedArray[0][j][i][1] = rgbColor.green();
-                mergedArray[0][j][i][2] = rgbColor.blue();
-                mergedArray[0][j][i][3] = (firColor.red() + firColor.green() + firColor.blue()) / 3;
+    /**
+     * Copies results into a list owned by the caller, e.g. to keep them beyond the next call
+     * of the handler. Recognitions already in the target list are reused.
+     *
+     * @param from Results returned by a handler
+     * @param to   List to overwrite
+     */
+    public static void copyResults(List<Recognition> from, List<Recognition> to) {
+        while (to.size() > from.size()) {
+            to.remove(to.size() - 1);
+        }
+        for (int i = 0; i < from.size(); i++) {
+            Recognition source = from.get(i);
+            if (i < to.size()) {
+                to.get(i).set(source.id, source.title, source.confidence);
+            } else {
+                to.add(new Recognition(source.id, source.title, source.confidence));
             }
         }
-        return mergedArray;
     }
 
     /**
-     * Gets the top-k results.
+     * Loads input image, and applies pre-processing.
+     * Rescaling, alignment and channel merging happen in a single pass
+     * straight into the reusable input buffer. If the frame has already been
+     * aligned for display, the aligned image is reused instead.
+     * Quantized inputs are packed as 8 bit values without going through floats.
+     *
+     * @param input      Input of one frame
+     * @param floatInput Float view of the input, null for quantized inputs
      */
-    private static List<Recognition> getTopKProbability(Map<String, Float> labelProb) {
-        // Find the best classifications.
-        PriorityQueue<Recognition> pq = new PriorityQueue<>(
-                MAX_RESULTS,
-                (lhs, rhs) -> {
-                    // Intentionally reversed to put high confidence at the head of the queue.
-                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                });
+    private void loadImage(final FrameDataHolder images, ByteBuffer input, FloatBuffer floatInput) {
+        pack(readPixels(images) ? alignedPreprocessor : preprocessor, input, floatInput);
+    }
+
+    /**
+     * Reads the pixels of a frame into the padded pixel arrays, preferring the aligned RGB
+     * image if it has already been made for display, and the temperatures if a thermal range is set.
+     *
+     * @return Whether the RGB pixels are already aligned
+     */
+    private boolean readPixels(final FrameDataHolder images) {
+        Bitmap rgb = images.derived.peekAlignedRgbBitmap();
+        boolean aligned = rgb != null;
+        if (!aligned) {
+            rgb = images.rgbBitmap;
+        }
+        ThermalRange range = thermalRange;
+        ThermalData thermal = images.thermal;
+
+        long start = metrics.begin(PipelineMetrics.Span.PIXEL_READ);
+        try {
+            rgbPixels = readPadded(rgb, rgbPixels);
+            rgbWidth = rgb.getWidth();
+            rgbHeight = rgb.getHeight();
+            firLevels = range != null && thermal != null;
+            if (firLevels) {
+                firPixels = range.toPaddedLevels(thermal, firPixels);
+                firWidth = thermal.getWidth();
+                firHeight = thermal.getHeight();
+            } else {
+                Bitmap fir = FirPixels.requireFirBitmap(images, range);
+                firPixels = readPadded(fir, firPixels);
+                firWidth = fir.getWidth();
+                firHeight = fir.getHeight();
+            }
+        } finally {
+            metrics.end(PipelineMetrics.Span.PIXEL_READ, start);
+        }
+        return aligned;
+    }
 
-        for (Map.Entry<String, Float> entry : labelProb.entrySet()) {
-            pq.add(new Recognition("" + entry.getKey(), entry.getKey(), entry.getValue()));
+    /**
+     * Packs the pixels read last into the input of one frame.
+     *
+     * @param input      Input of one frame
+     * @param floatInput Float view of the input, null for quantized inputs
+     */
+    private void pack(FusedPreprocessor activePreprocessor, ByteBuffer input, FloatBuffer floatInput) {
+        long start = metrics.begin(PipelineMetrics.Span.TENSOR_PACK);
+        try {
+            activePreprocessor.configure(rgbWidth, rgbHeight, firWidth, firHeight);
+            activePreprocessor.setThermalLevels(firLevels);
+            if (inputQuantization != null) {
+                if (packingPool != null) {
+                    packingPool.process(activePreprocessor, rgbPixels, firPixels, input, inputQuantization);
+                } else {
+                    activePreprocessor.process(rgbPixels, firPixels, input, inputQuantization);
+                }
+            } else if (packingPool != null) {
+                packingPool.process(activePreprocessor, rgbPixels, firPixels, floatInput);
+            } else {
+                activePreprocessor.process(rgbPixels, firPixels, floatInput);
+            }
+        } finally {
+            metrics.end(PipelineMetrics.Span.TENSOR_PACK, start);
         }
+    }
 
-        final ArrayList<Recognition> recognitions = new ArrayList<>();
-        int recognitionsSize = Math.min(pq.size(), MAX_RESULTS);
-        for (int i = 0; i < recognitionsSize; ++i) {
-            recognitions.add(pq.poll());
+    /**
+     * Splits input packing into row stripes processed on a small worker pool.
+     *
+     * @param numThreads Number of packing threads including the inference thread, 1 to disable
+     */
+    public void setPackingThreads(int numThreads) {
+        if (packingPool != null) {
+            packingPool.close();
+            packingPool = null;
+        }
+        if (numThreads > 1) {
+            packingPool = new StripedPackingPool(numThreads);
         }
-        return recognitions;
+    }
+
+    /**
+     * Reads the pixels of a bitmap into a padded array, leaving a zero border.
+     *
+     * @param image  Bitmap to read
+     * @param pixels Array to reuse if it has the right size
+     * @return The array holding the pixels
+     */
+    static int[] readPadded(Bitmap image, int[] pixels) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (pixels.length != FusedPreprocessor.paddedLength(width, height)) {
+            pixels = new int[FusedPreprocessor.paddedLength(width, height)];
+        }
+        image.getPixels(pixels, FusedPreprocessor.paddedOffset(width), FusedPreprocessor.paddedStride(width),
+                0, 0, width, height);
+        return pixels;
+    }
+
+    /**
+     * Gets the top-k results of a quantized output. Only the selected classes are turned
+     * into recognitions, and only their outputs are dequantized.
+     */
+    private List<Recognition> getTopKProbability(int offset, int slot) {
+        ResultSlot results = resultSlot(slot);
+        int count = topK.select(outputRaw, offset, labels.size(), outputQuantization.isSigned());
+        for (int rank = 0; rank < count; rank++) {
+            String label = labels.get(topK.getIndex(rank));
+            results.add(label, label, outputQuantization.dequantize((int) topK.getScore(rank)));
+        }
+        return results.list;
     }
 
     /**
@@ -246,6 +907,10 @@ public class ModelHandler {
             nnApiDelegate.close();
             nnApiDelegate = null;
         }
+        if (packingPool != null) {
+            packingPool.close();
+            packingPool = null;
+        }
         tfliteModel = null;
     }
 
@@ -258,24 +923,32 @@ public class ModelHandler {
          * A unique identifier for what has been recognized. Specific to the class, not the instance of
          * the object.
          */
-        private final String id;
+        private String id;
 
         /**
          * Display name for the recognition.
          */
-        private final String title;
+        private String title;
 
         /**
          * A sortable score for how good the recognition is relative to others. Higher should be better.
          */
-        private final Float confidence;
+        private float confidence;
 
 
         Recognition(
-                final String id, final String title, final Float confidence) {
+                final String id, final String title, final float confidence) {
+            set(id, title, confidence);
+        }
+
+        /**
+         * Overwrites this recognition, so result objects can be reused
+         */
+        Recognition set(final String id, final String title, final float confidence) {
             this.id = id;
             this.title = title;
             this.confidence = confidence;
+            return this;
         }
 
         public String getId() {
@@ -286,7 +959,7 @@ public class ModelHandler {
             return title;
         }
 
-        public Float getConfidence() {
+        public float getConfidence() {
             return confidence;
         }
 
@@ -299,9 +972,7 @@ public class ModelHandler {
                 resultString += title + " ";
             }
 
-            if (confidence != null) {
-                resultString += String.format(Locale.UK, "(%.1f%%) ", confidence * 100.0f);
-            }
+            resultString += String.format(Locale.UK, "(%.1f%%) ", confidence * 100.0f);
 
             return resultString.trim();
         }
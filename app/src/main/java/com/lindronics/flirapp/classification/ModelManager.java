@@ -0,0 +1,280 @@
+package com.lindronics.flirapp.classification;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the model loaded for the lifetime of the process.
+ * <p>
+ * The model, labels and alignment are read once. A model handler is created and warmed up
+ * in the background, and handed to every later activity asking for the same settings,
+ * so creating or resuming an activity does not reload the model. The idle handler is closed
+ * when the system asks the app to trim memory in the background.
+ */
+public class ModelManager implements ComponentCallbacks2 {
+
+    private static final String TAG = "ModelManager";
+
+    private static final int WARM_UP_RUNS = 2;
+
+    private static ModelManager instance = null;
+
+    /**
+     * Called on the main thread once a handler is ready
+     */
+    public interface Callback {
+        void onModelReady(ModelHandler handler);
+
+        void onModelFailed(IOException e);
+    }
+
+    /**
+     * Settings of a model handler
+     */
+    public static class Spec {
+        /**
+         * Device to run on, or null to use the autotuned configuration
+         */
+        final ModelHandler.Device device;
+        final int numThreads;
+        final int packingThreads;
+        final int maxBatchSize;
+        final boolean isBinaryClassifier;
+
+        /**
+         * @param device     Device to run on, or null to use the autotuned device and thread count
+         * @param numThreads Interpreter threads, ignored if autotuned
+         */
+        public Spec(ModelHandler.Device device, int numThreads, int packingThreads, int maxBatchSize,
+                    boolean isBinaryClassifier) {
+            this.device = device;
+            this.numThreads = numThreads;
+            this.packingThreads = packingThreads;
+            this.maxBatchSize = maxBatchSize;
+            this.isBinaryClassifier = isBinaryClassifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Spec)) {
+                return false;
+            }
+            Spec spec = (Spec) o;
+            return device == spec.device && numThreads == spec.numThreads && packingThreads == spec.packingThreads
+                    && maxBatchSize == spec.maxBatchSize && isBinaryClassifier == spec.isBinaryClassifier;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(device, numThreads, packingThreads, maxBatchSize, isBinaryClassifier);
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return (device == null ? "autotuned" : device + "/" + numThreads)
+                    + ", packing " + packingThreads + ", batch " + maxBatchSize;
+        }
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "model-loader"));
+
+    // Guarded by this
+    private MappedByteBuffer model = null;
+    private List<String> labels = null;
+    private AffineMatrix alignment = null;
+    private ModelHandler cached = null;
+    private Spec cachedSpec = null;
+    private boolean cachedInUse = false;
+
+    private ModelManager(Context context) {
+        this.context = context;
+    }
+
+    public static synchronized ModelManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new ModelManager(context.getApplicationContext());
+            instance.context.registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * @return The memory-mapped model, loaded on first use
+     */
+    public synchronized MappedByteBuffer getModel() throws IOException {
+        if (model == null) {
+            model = ModelHandler.loadModel(context);
+        }
+        return model;
+    }
+
+    /**
+     * @return The labels of the model, loaded on first use
+     */
+    public synchronized List<String> getLabels() throws IOException {
+        if (labels == null) {
+            labels = ModelHandler.loadLabels(context);
+        }
+        return labels;
+    }
+
+    /**
+     * @return Matrix aligning the RGB image to the FIR image, read on first use
+     */
+    public synchronized AffineMatrix getAlignment() throws IOException {
+        if (alignment == null) {
+            alignment = AffineMatrix.read(new InputStreamReader(context.getAssets().open("transformation.txt")));
+        }
+        return alignment;
+    }
+
+    /**
+     * @return Whether a handler with these settings is loaded and free, so
+     * {@link #acquire(Spec, Callback)} will not have to load the model
+     */
+    public synchronized boolean isReady(Spec spec) {
+        return cached != null && !cachedInUse && spec.equals(cachedSpec);
+    }
+
+    /**
+     * Hands out a warm model handler with the given settings, for exclusive use until it is
+     * given back with {@link #release(ModelHandler)}. A new handler is loaded and warmed up
+     * in the background if necessary.
+     *
+     * @param callback Called on the main thread with the handler
+     */
+    public synchronized void acquire(Spec spec, Callback callback) {
+        if (isReady(spec)) {
+            cachedInUse = true;
+            ModelHandler handler = cached;
+            mainHandler.post(() -> callback.onModelReady(handler));
+            return;
+        }
+
+        // A free handler with other settings is not needed any more
+        if (cached != null && !cachedInUse) {
+            cached.close();
+            cached = null;
+            cachedSpec = null;
+        }
+
+        loader.execute(() -> {
+            ModelHandler handler;
+            try {
+                handler = create(spec);
+            } catch (IOException e) {
+                mainHandler.post(() -> callback.onModelFailed(e));
+                return;
+            }
+            synchronized (this) {
+                // Keep the handler for later activities, unless another one is already kept
+                if (cached == null) {
+                    cached = handler;
+                    cachedSpec = spec;
+                    cachedInUse = true;
+                }
+            }
+            mainHandler.post(() -> callback.onModelReady(handler));
+        });
+    }
+
+    /**
+     * Gives back a handler from {@link #acquire(Spec, Callback)}. The kept handler stays loaded,
+     * any other one is closed.
+     */
+    public synchronized void release(ModelHandler handler) {
+        if (handler == cached) {
+            cachedInUse = false;
+        } else {
+            handler.close();
+        }
+    }
+
+    /**
+     * Creates and warms up a handler, on the loader thread
+     */
+    private ModelHandler create(Spec spec) throws IOException {
+        long start = System.nanoTime();
+        MappedByteBuffer model = getModel();
+        List<String> labels = getLabels();
+
+        ModelHandler.Device device = spec.device;
+        int numThreads = spec.numThreads;
+        if (device == null) {
+            DelegateAutotuner tuner = new DelegateAutotuner(context, model, labels, spec.isBinaryClassifier);
+            DelegateAutotuner.Configuration configuration = tuner.getCached();
+            if (configuration == null) {
+                configuration = tuner.tune();
+            }
+            device = configuration.device;
+            numThreads = configuration.numThreads;
+        }
+
+        ModelHandler handler = new ModelHandler(model, labels, device, numThreads, spec.isBinaryClassifier,
+                getAlignment());
+        handler.setPackingThreads(spec.packingThreads);
+        if (!handler.setMaxBatchSize(spec.maxBatchSize)) {
+            Log.w(TAG, "Batching not supported, classifying frames one by one");
+        }
+
+        // The first inferences are slow while the interpreter and delegates allocate
+        handler.fillSyntheticInput(0);
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            handler.runInput();
+        }
+        Log.i(TAG, String.format("Loaded %s/%d (%s) in %d ms", device, numThreads, spec,
+                (System.nanoTime() - start) / 1_000_000));
+        return handler;
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            trim();
+        }
+    }
+
+    @Override
+    public synchronized void onLowMemory() {
+        trim();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    /**
+     * Closes the kept handler if no activity is using it
+     */
+    private void trim() {
+        if (cached != null && !cachedInUse) {
+            Log.i(TAG, "Closing idle model handler");
+            cached.close();
+            cached = null;
+            cachedSpec = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.lindronics.flirapp.classification;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+import com.lindronics.flirapp.recording.FramePairScanner.FramePair;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * Decodes recorded RGB and FIR PNG pairs straight into the model input.
+ * <p>
+ * Every worker thread keeps its own preprocessing kernel, pixel arrays and bitmaps,
+ * which are reused as long as the image sizes do not change.
+ */
+public class PngPairLoader implements BatchClassifier.Loader {
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final AffineMatrix alignment;
+
+    private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    /**
+     * @param alignment Matrix aligning the recorded RGB images to the FIR images
+     */
+    public PngPairLoader(int imageWidth, int imageHeight, AffineMatrix alignment) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.alignment = alignment;
+    }
+
+    @Override
+    public void load(FramePair pair, FloatBuffer slot) throws IOException {
+        workers.get().load(pair, slot);
+    }
+
+    /**
+     * State of one worker thread
+     */
+    private class Worker {
+        private final FusedPreprocessor preprocessor = new FusedPreprocessor(imageWidth, imageHeight, alignment);
+        private final BitmapFactory.Options options = new BitmapFactory.Options();
+        private Bitmap rgbBitmap = null;
+        private Bitmap firBitmap = null;
+        private int[] rgbPixels = new int[0];
+        private int[] firPixels = new int[0];
+
+        Worker() {
+            options.inMutable = true;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
+
+        void load(FramePair pair, FloatBuffer slot) throws IOException {
+            rgbBitmap = decode(pair.rgb, rgbBitmap);
+            firBitmap = decode(pair.fir, firBitmap);
+            rgbPixels = ModelHandler.readPadded(rgbBitmap, rgbPixels);
+            firPixels = ModelHandler.readPadded(firBitmap, firPixels);
+
+            preprocessor.configure(rgbBitmap.getWidth(), rgbBitmap.getHeight(),
+                    firBitmap.getWidth(), firBitmap.getHeight());
+            preprocessor.process(rgbPixels, firPixels, slot);
+        }
+
+        /**
+         * Decodes an image, into the previous bitmap if it fits
+         */
+        private Bitmap decode(File file, Bitmap previous) throws IOException {
+            options.inBitmap = previous;
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            } catch (IllegalArgumentException e) {
+                // Different size or config than the previous image
+                options.inBitmap = null;
+                bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            } finally {
+                options.inBitmap = null;
+            }
+            if (bitmap == null) {
+                throw new IOException("Could not decode " + file);
+            }
+            return bitmap;
+        }
+    }
+}
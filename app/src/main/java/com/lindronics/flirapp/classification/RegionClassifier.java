@@ -0,0 +1,96 @@
+package com.lindronics.flirapp.classification;
+
+import androidx.annotation.NonNull;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Classifies the warmest regions of a frame instead of the whole frame, so small animals
+ * fill more of the model input, see {@link WarmRegionFinder}.
+ * <p>
+ * Not thread safe, use it from one inference thread.
+ */
+public class RegionClassifier {
+
+    private final ModelHandler modelHandler;
+    private final WarmRegionFinder finder;
+    private final List<WarmRegionFinder.Region> regions = new ArrayList<>();
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+
+    /**
+     * Reusable FIR pixels of the current frame.
+     */
+    private final FirPixels fir = new FirPixels();
+
+    private long frames = 0;
+    private long classifiedRegions = 0;
+
+    /**
+     * @param modelHandler Handler running the inferences, owned by the caller.
+     *                     Regions are classified in one batch if its maximum batch size allows.
+     * @param finder       Finds the regions to classify
+     */
+    public RegionClassifier(ModelHandler modelHandler, WarmRegionFinder finder) {
+        this.modelHandler = modelHandler;
+        this.finder = finder;
+    }
+
+    /**
+     * Classifies the warmest regions of a frame, or the whole frame if nothing stands out.
+     *
+     * @return Results of the region with the most confident top result
+     */
+    public List<ModelHandler.Recognition> recognizeImage(FrameDataHolder images) {
+        int count;
+        long start = metrics.begin(PipelineMetrics.Span.PIXEL_READ);
+        try {
+            fir.read(images, modelHandler.getThermalRange());
+            finder.setThermalLevels(fir.thermalLevels);
+            count = finder.find(fir.pixels, fir.width, fir.height,
+                    (float) modelHandler.getImageWidth() / modelHandler.getImageHeight());
+        } finally {
+            metrics.end(PipelineMetrics.Span.PIXEL_READ, start);
+        }
+
+        frames++;
+        if (count == 0) {
+            return modelHandler.recognizeImage(images);
+        }
+        regions.clear();
+        for (int i = 0; i < count; i++) {
+            regions.add(finder.getRegion(i));
+        }
+        classifiedRegions += count;
+
+        List<ModelHandler.Recognition> best = null;
+        for (List<ModelHandler.Recognition> results : modelHandler.recognizeRegions(images, regions)) {
+            if (best == null || topConfidence(results) > topConfidence(best)) {
+                best = results;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return Highest confidence of any class, also for binary results listing the negative class first
+     */
+    private static float topConfidence(List<ModelHandler.Recognition> results) {
+        float top = 0;
+        for (ModelHandler.Recognition recognition : results) {
+            top = Math.max(top, recognition.getConfidence());
+        }
+        return top;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return String.format(Locale.UK, "%d frames, %.2f regions per frame",
+                frames, frames == 0 ? 0 : (double) classifiedRegions / frames);
+    }
+}
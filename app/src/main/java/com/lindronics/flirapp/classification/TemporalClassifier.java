@@ -0,0 +1,75 @@
+package com.lindronics.flirapp.classification;
+
+import androidx.annotation.NonNull;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+
+import java.util.List;
+
+/**
+ * Classifies a stream of frames, skipping frames of a static scene and smoothing the
+ * probabilities over time, see {@link TemporalFilter}.
+ * <p>
+ * Not thread safe, use it from one inference thread.
+ */
+public class TemporalClassifier {
+
+    private final ModelHandler modelHandler;
+    private final TemporalFilter filter;
+    private final float[] probabilities;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+
+    /**
+     * Reusable FIR pixels of the current frame.
+     */
+    private final FirPixels fir = new FirPixels();
+
+    /**
+     * @param modelHandler Handler running the inferences, owned by the caller
+     * @param filter       Decides which frames to classify
+     */
+    public TemporalClassifier(ModelHandler modelHandler, TemporalFilter filter) {
+        this.modelHandler = modelHandler;
+        this.filter = filter;
+        this.probabilities = new float[modelHandler.getOutputSize()];
+    }
+
+    public ModelHandler getModelHandler() {
+        return modelHandler;
+    }
+
+    /**
+     * Classifies a frame if the scene changed since the last classified frame.
+     *
+     * @return Results from the smoothed probabilities, or null if the frame was skipped
+     */
+    public List<ModelHandler.Recognition> recognizeImage(FrameDataHolder images) {
+        boolean changed;
+        long start = metrics.begin(PipelineMetrics.Span.PIXEL_READ);
+        try {
+            boolean wasThermal = fir.thermalLevels;
+            fir.read(images, modelHandler.getThermalRange());
+            if (fir.thermalLevels != wasThermal) {
+                // Grey sums and thermal levels are not comparable
+                filter.reset();
+            }
+            filter.setThermalLevels(fir.thermalLevels);
+            changed = filter.needsInference(fir.pixels, fir.width, fir.height);
+        } finally {
+            metrics.end(PipelineMetrics.Span.PIXEL_READ, start);
+        }
+        if (!changed) {
+            return null;
+        }
+
+        modelHandler.recognizeProbabilities(images, probabilities);
+        return modelHandler.toRecognitions(filter.update(probabilities), 0);
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return filter.toString();
+    }
+}
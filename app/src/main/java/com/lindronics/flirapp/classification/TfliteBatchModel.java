@@ -0,0 +1,110 @@
+package com.lindronics.flirapp.classification;
+
+import android.util.Log;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Runs a float TF Lite model on batches of frames, on the CPU.
+ * <p>
+ * The input tensor is resized along its batch dimension. Models whose batch size is fixed
+ * fall back to a batch of one.
+ */
+public class TfliteBatchModel implements BatchClassifier.Model, Closeable {
+
+    private static final String TAG = "TfliteBatchModel";
+
+    private Interpreter tflite;
+    private final int batchSize;
+    private final int imageHeight;
+    private final int imageWidth;
+    private final int frameSize;
+    private final ByteBuffer outputBuffer;
+    private final FloatBuffer outputFloats;
+
+    /**
+     * @param model      Memory-mapped TF Lite model
+     * @param batchSize  Requested number of frames per run
+     * @param numThreads Number of interpreter threads
+     */
+    public TfliteBatchModel(MappedByteBuffer model, int batchSize, int numThreads) throws IOException {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(numThreads);
+        tflite = new Interpreter(model, options);
+
+        int[] shape = tflite.getInputTensor(0).shape();
+        if (tflite.getInputTensor(0).dataType() != DataType.FLOAT32
+                || tflite.getOutputTensor(0).dataType() != DataType.FLOAT32) {
+            close();
+            throw new IOException("Batch classification needs a float model");
+        }
+        imageHeight = shape[1];
+        imageWidth = shape[2];
+        frameSize = imageHeight * imageWidth * shape[3];
+
+        if (batchSize > 1 && !resize(new int[]{batchSize, shape[1], shape[2], shape[3]})) {
+            Log.w(TAG, "Model has a fixed batch size, classifying one frame at a time");
+            tflite.close();
+            tflite = new Interpreter(model, options);
+            batchSize = 1;
+        }
+        this.batchSize = batchSize;
+
+        Tensor output = tflite.getOutputTensor(0);
+        outputBuffer = ByteBuffer.allocateDirect(output.numBytes()).order(ByteOrder.nativeOrder());
+        outputFloats = outputBuffer.asFloatBuffer();
+    }
+
+    private boolean resize(int[] shape) {
+        try {
+            tflite.resizeInput(0, shape);
+            tflite.allocateTensors();
+            return true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    @Override
+    public void run(ByteBuffer input, float[] output) {
+        input.rewind();
+        tflite.run(input, outputBuffer.rewind());
+        outputFloats.rewind();
+        outputFloats.get(output, 0, Math.min(output.length, outputFloats.remaining()));
+    }
+
+    @Override
+    public void close() {
+        if (tflite != null) {
+            tflite.close();
+            tflite = null;
+        }
+    }
+}
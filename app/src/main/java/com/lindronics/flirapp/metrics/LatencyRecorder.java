@@ -0,0 +1,145 @@
+package com.lindronics.flirapp.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records latencies in constant memory with O(1) updates.
+ * <p>
+ * Mean and variance are kept with Welford's algorithm. Percentiles come from a
+ * log-bucketed histogram with 32 sub-buckets per power of two, so they are accurate
+ * to within about 3%. The maximum is exact.
+ * Safe to read from one thread while another one records.
+ */
+public class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Largest power of two covered by the histogram, about 18 minutes in nanoseconds.
+     */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] histogram = new long[BUCKETS];
+
+    private long count = 0;
+    private double mean = 0;
+    private double squaredDistances = 0;
+    private long max = 0;
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos Latency in nanoseconds, as measured with {@link System#nanoTime()}
+     */
+    public synchronized void recordNanos(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        count++;
+        double delta = nanos - mean;
+        mean += delta / count;
+        squaredDistances += delta * (nanos - mean);
+        max = Math.max(max, nanos);
+        histogram[bucketOf(nanos)]++;
+    }
+
+    /**
+     * @return Number of recorded latencies
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Summary of everything recorded so far
+     */
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(count, mean, count > 0 ? Math.sqrt(squaredDistances / count) : 0,
+                percentile(50), percentile(90), percentile(99), max);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public synchronized void reset() {
+        Arrays.fill(histogram, 0);
+        count = 0;
+        mean = 0;
+        squaredDistances = 0;
+        max = 0;
+    }
+
+    /**
+     * @param percent Percentile between 0 and 100
+     * @return Latency in nanoseconds below which the given share of recordings fall
+     */
+    public synchronized long percentile(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percent / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= target) {
+                return Math.min(max, bucketMidpoint(bucket));
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int bucket = (shift + 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    static long bucketMidpoint(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    /**
+     * Immutable summary of recorded latencies, in milliseconds.
+     */
+    public static class Snapshot {
+        public final long count;
+        public final double meanMillis;
+        public final double stdMillis;
+        public final double p50Millis;
+        public final double p90Millis;
+        public final double p99Millis;
+        public final double maxMillis;
+
+        Snapshot(long count, double meanNanos, double stdNanos, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.meanMillis = meanNanos / 1e6;
+            this.stdMillis = stdNanos / 1e6;
+            this.p50Millis = p50 / 1e6;
+            this.p90Millis = p90 / 1e6;
+            this.p99Millis = p99 / 1e6;
+            this.maxMillis = max / 1e6;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return String.format(Locale.UK,
+                    "mean %.2f ms, std %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms, n %d",
+                    meanMillis, stdMillis, p50Millis, p90Millis, p99Millis, maxMillis, count);
+        }
+    }
+}
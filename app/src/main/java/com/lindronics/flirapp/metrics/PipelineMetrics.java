@@ -0,0 +1,147 @@
+package com.lindronics.flirapp.metrics;
+
+import android.os.Trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Named timing spans along the frame pipeline, from the camera callback to the UI.
+ * <p>
+ * Every span also opens a systrace section, and its durations are kept in a
+ * {@link LatencyRecorder}. The results can be shown as text or written as a
+ * JSON or CSV session report.
+ */
+public class PipelineMetrics {
+
+    /**
+     * Stages of the pipeline, in the order a frame passes through them,
+     * followed by the recording stages
+     */
+    public enum Span {
+        CAMERA_CALLBACK("camera callback"),
+        BITMAP_EXTRACTION("bitmap extraction"),
+        QUEUE_WAIT("queue wait"),
+        WARP("warp"),
+        PIXEL_READ("pixel read"),
+        TENSOR_PACK("scale + align + pack"),
+        INVOKE("invoke"),
+        POSTPROCESS("postprocess"),
+        UI_PUBLISH("UI publish"),
+        ENCODE("recording encode"),
+        COMMIT("recording commit");
+
+        private final String label;
+
+        Span(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final PipelineMetrics instance = new PipelineMetrics();
+
+    private final LatencyRecorder[] recorders = new LatencyRecorder[Span.values().length];
+
+    private PipelineMetrics() {
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new LatencyRecorder();
+        }
+    }
+
+    public static PipelineMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts a span on the current thread.
+     *
+     * @return Start time, to pass to {@link #end(Span, long)}
+     */
+    public long begin(Span span) {
+        Trace.beginSection(span.name());
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends a span started on the current thread and records its duration.
+     *
+     * @param startNanos Value returned by {@link #begin(Span)}
+     */
+    public void end(Span span, long startNanos) {
+        recorders[span.ordinal()].recordNanos(System.nanoTime() - startNanos);
+        Trace.endSection();
+    }
+
+    /**
+     * Records a duration measured elsewhere, such as the time a frame spent queued.
+     */
+    public void record(Span span, long nanos) {
+        recorders[span.ordinal()].recordNanos(nanos);
+    }
+
+    public LatencyRecorder get(Span span) {
+        return recorders[span.ordinal()];
+    }
+
+    /**
+     * Forgets all recorded durations, to start a new session.
+     */
+    public void reset() {
+        for (LatencyRecorder recorder : recorders) {
+            recorder.reset();
+        }
+    }
+
+    /**
+     * @return One line per span with samples, for the on-screen overlay
+     */
+    public String formatOverlay() {
+        StringBuilder builder = new StringBuilder();
+        for (Span span : Span.values()) {
+            LatencyRecorder.Snapshot snapshot = get(span).snapshot();
+            if (snapshot.count == 0) {
+                continue;
+            }
+            builder.append(String.format(Locale.UK, "%-20s p50 %6.2f  p99 %6.2f  max %6.2f ms\n",
+                    span.getLabel(), snapshot.p50Millis, snapshot.p99Millis, snapshot.maxMillis));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes all spans as CSV, one row per span.
+     */
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("span,count,mean_ms,std_ms,p50_ms,p90_ms,p99_ms,max_ms\n");
+        for (Span span : Span.values()) {
+            LatencyRecorder.Snapshot s = get(span).snapshot();
+            writer.write(String.format(Locale.ROOT, "%s,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f\n",
+                    span.name().toLowerCase(Locale.ROOT), s.count, s.meanMillis, s.stdMillis,
+                    s.p50Millis, s.p90Millis, s.p99Millis, s.maxMillis));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes all spans as a JSON object.
+     */
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\n  \"spans\": [\n");
+        Span[] spans = Span.values();
+        for (int i = 0; i < spans.length; i++) {
+            LatencyRecorder.Snapshot s = get(spans[i]).snapshot();
+            writer.write(String.format(Locale.ROOT,
+                    "    {\"span\": \"%s\", \"count\": %d, \"mean_ms\": %.4f, \"std_ms\": %.4f, "
+                            + "\"p50_ms\": %.4f, \"p90_ms\": %.4f, \"p99_ms\": %.4f, \"max_ms\": %.4f}%s\n",
+                    spans[i].name().toLowerCase(Locale.ROOT), s.count, s.meanMillis, s.stdMillis,
+                    s.p50Millis, s.p90Millis, s.p99Millis, s.maxMillis, i < spans.length - 1 ? "," : ""));
+        }
+        writer.write("  ]\n}\n");
+        writer.flush();
+    }
+}
@@ -0,0 +1,117 @@
+package com.lindronics.flirapp.pipeline;
+
+/**
+ * Decides which camera frames are classified, based on measured inference latency
+ * and the camera frame interval.
+ * <p>
+ * At most one frame is in flight at any time, and frames are only skipped while the model
+ * cannot keep up: one in ceil(L / interval) frames is classified for a latency L. A result
+ * computed from a frame admitted every P ms is at most L + P old; the target staleness is only
+ * used to report whether that age stays within it, see {@link #isWithinTarget()}.
+ */
+public class AdmissionController {
+
+    /**
+     * Weight of a new measurement in the moving averages.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final long targetStalenessNanos;
+
+    private double latencyNanos = 0;
+    private double frameIntervalNanos = 0;
+    private long lastFrameNanos = -1;
+
+    private boolean inFlight = false;
+    private int framesSinceAdmission = 0;
+    private int skipRate = 1;
+
+    /**
+     * @param targetStalenessMillis Maximum age of a shown result, in milliseconds
+     */
+    public AdmissionController(long targetStalenessMillis) {
+        this.targetStalenessNanos = targetStalenessMillis * 1_000_000;
+    }
+
+    /**
+     * Called for every camera frame.
+     *
+     * @param nowNanos Arrival time of the frame, from {@link System#nanoTime()}
+     * @return Whether the frame should be classified
+     */
+    public synchronized boolean admit(long nowNanos) {
+        if (lastFrameNanos >= 0) {
+            frameIntervalNanos = average(frameIntervalNanos, nowNanos - lastFrameNanos);
+        }
+        lastFrameNanos = nowNanos;
+        framesSinceAdmission++;
+
+        if (inFlight || framesSinceAdmission < skipRate) {
+            return false;
+        }
+        inFlight = true;
+        framesSinceAdmission = 0;
+        return true;
+    }
+
+    /**
+     * Called when the classification of an admitted frame has finished.
+     *
+     * @param latencyNanos Time taken by the classification
+     */
+    public synchronized void complete(long latencyNanos) {
+        inFlight = false;
+        this.latencyNanos = average(this.latencyNanos, latencyNanos);
+        updateSkipRate();
+    }
+
+    /**
+     * Called if an admitted frame was not classified after all.
+     */
+    public synchronized void cancel() {
+        inFlight = false;
+    }
+
+    /**
+     * Starts a new session, e.g. after the pipeline was stopped and its queued frames dropped.
+     * Any frame still admitted is forgotten; the latency and interval estimates are kept.
+     */
+    public synchronized void reset() {
+        inFlight = false;
+        framesSinceAdmission = 0;
+        lastFrameNanos = -1;
+    }
+
+    /**
+     * @return One in how many frames is currently classified
+     */
+    public synchronized int getSkipRate() {
+        return skipRate;
+    }
+
+    /**
+     * @return Maximum age of a shown result at the current latency and skip rate, in milliseconds
+     */
+    public synchronized long getStalenessMillis() {
+        return Math.round((latencyNanos + skipRate * frameIntervalNanos) / 1_000_000);
+    }
+
+    /**
+     * @return Whether shown results are at most the target staleness old
+     */
+    public synchronized boolean isWithinTarget() {
+        return latencyNanos + skipRate * frameIntervalNanos <= targetStalenessNanos;
+    }
+
+    private void updateSkipRate() {
+        if (frameIntervalNanos <= 0) {
+            return;
+        }
+        int keepUp = (int) Math.ceil(latencyNanos / frameIntervalNanos);
+        skipRate = Math.max(1, keepUp);
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+}
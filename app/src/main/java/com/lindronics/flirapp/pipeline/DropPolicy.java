@@ -0,0 +1,21 @@
+package com.lindronics.flirapp.pipeline;
+
+/**
+ * What a lane does with a new frame when its queue is full
+ */
+public enum DropPolicy {
+    /**
+     * Discard the oldest queued frame to make room, keeping results fresh
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new frame, keeping the queued ones
+     */
+    DROP_NEWEST,
+
+    /**
+     * Wait until there is room, slowing down the producer
+     */
+    BLOCK
+}
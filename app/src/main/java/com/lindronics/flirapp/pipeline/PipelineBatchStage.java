@@ -0,0 +1,19 @@
+package com.lindronics.flirapp.pipeline;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import java.util.List;
+
+/**
+ * Work done on several frames at once by one lane of the pipeline
+ */
+public interface PipelineBatchStage {
+
+    /**
+     * Processes a batch of frames on the lane's thread.
+     * The frames are released by the lane afterwards, the list is reused.
+     *
+     * @param frames Frames to process, oldest first
+     */
+    void process(List<FrameDataHolder> frames);
+}
@@ -0,0 +1,364 @@
+package com.lindronics.flirapp.pipeline;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.metrics.LatencyRecorder;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One stage of the pipeline, with its own thread and a bounded queue of frames.
+ * Queued frames are retained by the lane and released after processing or dropping.
+ * <p>
+ * Batching lanes hand their stage up to a maximum number of frames at once. Once a frame
+ * is queued, they wait at most a maximum time for the batch to fill up.
+ */
+public class PipelineLane {
+
+    private static final String TAG = "PipelineLane";
+
+    private final String name;
+    private final int capacity;
+    private final DropPolicy policy;
+    private final PipelineStage stage;
+    private final PipelineBatchStage batchStage;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    /**
+     * Frames of the current batch, reused
+     */
+    private final List<FrameDataHolder> batch;
+
+    /**
+     * Ring buffer of queued frames and the times they were queued at.
+     */
+    private final FrameDataHolder[] frames;
+    private final long[] queuedAt;
+    private int head = 0;
+    private int count = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private Thread thread = null;
+    private boolean running = false;
+
+    // Statistics, guarded by the lock
+    private long submitted = 0;
+    private long processed = 0;
+    private long dropped = 0;
+    private int maxDepth = 0;
+    private long batches = 0;
+
+    /**
+     * Time frames spent queued before processing
+     */
+    private final LatencyRecorder waitTimes = new LatencyRecorder();
+
+    PipelineLane(String name, int capacity, DropPolicy policy, PipelineStage stage) {
+        this(name, capacity, policy, stage, null, 1, 0);
+    }
+
+    PipelineLane(String name, int capacity, DropPolicy policy, PipelineBatchStage stage,
+                 int maxBatchSize, long maxWaitNanos) {
+        this(name, capacity, policy, null, stage, maxBatchSize, maxWaitNanos);
+    }
+
+    private PipelineLane(String name, int capacity, DropPolicy policy, PipelineStage stage,
+                         PipelineBatchStage batchStage, int maxBatchSize, long maxWaitNanos) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Lane capacity must be positive, got " + capacity);
+        }
+        if (maxBatchSize < 1 || maxBatchSize > capacity) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + capacity + ", got " + maxBatchSize);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.stage = stage;
+        this.batchStage = batchStage;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+        this.batch = new ArrayList<>(maxBatchSize);
+        this.frames = new FrameDataHolder[capacity];
+        this.queuedAt = new long[capacity];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Queues a frame for this lane, applying the drop policy if the queue is full.
+     *
+     * @param frame Frame to process, retained by the lane if it is queued
+     * @return Whether the frame was queued
+     */
+    public boolean submit(FrameDataHolder frame) {
+        FrameDataHolder evicted = null;
+        lock.lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            submitted++;
+            if (count == capacity) {
+                switch (policy) {
+                    case DROP_NEWEST:
+                        dropped++;
+                        return false;
+                    case DROP_OLDEST:
+                        evicted = removeFirst();
+                        dropped++;
+                        break;
+                    case BLOCK:
+                        while (count == capacity && running) {
+                            notFull.awaitUninterruptibly();
+                        }
+                        if (!running) {
+                            dropped++;
+                            return false;
+                        }
+                        break;
+                }
+            }
+            int tail = (head + count) % capacity;
+            frames[tail] = frame.retain();
+            queuedAt[tail] = System.nanoTime();
+            count++;
+            maxDepth = Math.max(maxDepth, count);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+            if (evicted != null) {
+                evicted.release();
+            }
+        }
+    }
+
+    private FrameDataHolder removeFirst() {
+        FrameDataHolder frame = frames[head];
+        frames[head] = null;
+        head = (head + 1) % capacity;
+        count--;
+        return frame;
+    }
+
+    /**
+     * Starts the lane's thread.
+     */
+    void start() {
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            running = true;
+        } finally {
+            lock.unlock();
+        }
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    /**
+     * Stops the lane's thread after the current frame and drops all queued frames.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+
+        lock.lock();
+        try {
+            while (count > 0) {
+                removeFirst().release();
+                dropped++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        if (batchStage != null) {
+            runBatches();
+            return;
+        }
+        while (true) {
+            FrameDataHolder frame;
+            lock.lock();
+            try {
+                while (count == 0 && running) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+                long wait = System.nanoTime() - queuedAt[head];
+                waitTimes.recordNanos(wait);
+                PipelineMetrics.getInstance().record(PipelineMetrics.Span.QUEUE_WAIT, wait);
+                frame = removeFirst();
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                stage.process(frame);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Stage " + name + " failed", e);
+            } finally {
+                frame.release();
+            }
+
+            lock.lock();
+            try {
+                processed++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Thread loop of a batching lane
+     */
+    private void runBatches() {
+        while (true) {
+            lock.lock();
+            try {
+                while (count == 0 && running) {
+                    notEmpty.awaitUninterruptibly();
+                }
+
+                // Give the batch until the oldest frame's deadline to fill up
+                long deadline = queuedAt[head] + maxWaitNanos;
+                long remaining = deadline - System.nanoTime();
+                while (count < maxBatchSize && remaining > 0 && running) {
+                    try {
+                        remaining = notEmpty.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (count == 0) {
+                        // Only possible if the lane stopped
+                        break;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+
+                long now = System.nanoTime();
+                while (count > 0 && batch.size() < maxBatchSize) {
+                    long wait = now - queuedAt[head];
+                    waitTimes.recordNanos(wait);
+                    PipelineMetrics.getInstance().record(PipelineMetrics.Span.QUEUE_WAIT, wait);
+                    batch.add(removeFirst());
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                batchStage.process(batch);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Stage " + name + " failed", e);
+            } finally {
+                for (FrameDataHolder frame : batch) {
+                    frame.release();
+                }
+            }
+
+            lock.lock();
+            try {
+                processed += batch.size();
+                batches++;
+            } finally {
+                lock.unlock();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return Number of frames currently queued
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getProcessed() {
+        lock.lock();
+        try {
+            return processed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Time frames spent queued before processing
+     */
+    public LatencyRecorder getWaitTimes() {
+        return waitTimes;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        lock.lock();
+        try {
+            String summary = String.format(Locale.UK,
+                    "%s: depth %d (max %d/%d), submitted %d, processed %d, dropped %d, wait %s",
+                    name, count, maxDepth, capacity, submitted, processed, dropped, waitTimes.snapshot());
+            if (batchStage != null) {
+                summary += String.format(Locale.UK, ", mean batch %.2f/%d",
+                        batches > 0 ? (double) processed / batches : 0, maxBatchSize);
+            }
+            return summary;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.lindronics.flirapp.pipeline;
+
+import android.util.Log;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the stages of the frame pipeline, such as inference and recording, on separate lanes.
+ * Each lane has its own thread and a bounded queue with a drop policy, so a slow stage
+ * cannot build up an unbounded backlog or hold up the other stages.
+ */
+public class PipelineScheduler {
+
+    private static final String TAG = "PipelineScheduler";
+
+    private final List<PipelineLane> lanes = new ArrayList<>();
+
+    private boolean running = false;
+
+    /**
+     * Registers a stage on a new lane. The lane starts with the scheduler.
+     *
+     * @param name     Name of the lane and its thread
+     * @param capacity Maximum number of queued frames
+     * @param policy   What to do when the queue is full
+     * @param stage    Work to do on each frame
+     * @return The lane, to submit frames to
+     */
+    public synchronized PipelineLane registerStage(String name, int capacity, DropPolicy policy, PipelineStage stage) {
+        PipelineLane lane = new PipelineLane(name, capacity, policy, stage);
+        lanes.add(lane);
+        if (running) {
+            lane.start();
+        }
+        return lane;
+    }
+
+    /**
+     * Registers a batching stage on a new lane. The lane starts with the scheduler.
+     *
+     * @param name          Name of the lane and its thread
+     * @param capacity      Maximum number of queued frames, at least the batch size
+     * @param policy        What to do when the queue is full
+     * @param maxBatchSize  Maximum number of frames handed to the stage at once
+     * @param maxWaitMillis Maximum time the oldest queued frame waits for the batch to fill up
+     * @param stage         Work to do on each batch
+     * @return The lane, to submit frames to
+     */
+    public synchronized PipelineLane registerBatchStage(String name, int capacity, DropPolicy policy,
+                                                        int maxBatchSize, long maxWaitMillis,
+                                                        PipelineBatchStage stage) {
+        PipelineLane lane = new PipelineLane(name, capacity, policy, stage, maxBatchSize, maxWaitMillis * 1_000_000);
+        lanes.add(lane);
+        if (running) {
+            lane.start();
+        }
+        return lane;
+    }
+
+    /**
+     * Queues a frame on a lane
+     *
+     * @return Whether the frame was queued
+     */
+    public boolean submit(PipelineLane lane, FrameDataHolder frame) {
+        return lane.submit(frame);
+    }
+
+    /**
+     * Starts all lanes
+     */
+    public synchronized void start() {
+        running = true;
+        for (PipelineLane lane : lanes) {
+            lane.start();
+        }
+    }
+
+    /**
+     * Stops all lanes, dropping the frames still queued
+     */
+    public synchronized void stop() {
+        running = false;
+        for (PipelineLane lane : lanes) {
+            lane.stop();
+            Log.i(TAG, lane.toString());
+        }
+    }
+
+    /**
+     * @return All registered lanes
+     */
+    public synchronized List<PipelineLane> getLanes() {
+        return new ArrayList<>(lanes);
+    }
+}
@@ -0,0 +1,17 @@
+package com.lindronics.flirapp.pipeline;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+/**
+ * Work done on a frame by one lane of the pipeline
+ */
+public interface PipelineStage {
+
+    /**
+     * Processes a frame on the lane's thread.
+     * The frame is released by the lane afterwards.
+     *
+     * @param frame Frame to process
+     */
+    void process(FrameDataHolder frame);
+}
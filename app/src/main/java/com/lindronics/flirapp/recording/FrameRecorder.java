@@ -0,0 +1,314 @@
+package com.lindronics.flirapp.recording;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind recorder for camera frames.
+ * <p>
+ * Submitted frames are retained in a bounded ring and encoded by a pool of encoder threads.
+ * A single committer thread writes the encoded frames in capture order. At most
+ * {@code capacity} frames are in flight between submission and commit; frames submitted
+ * beyond that are dropped and counted, so the camera thread never waits for storage.
+ * The sink is closed once the recorder is finished and the last frame is committed.
+ *
+ * @param <T> Encoded form of a frame
+ */
+public class FrameRecorder<T> {
+
+    private static final String TAG = "FrameRecorder";
+
+    private final FrameSink<T> sink;
+    private final int capacity;
+
+    /**
+     * Ring buffer of frames waiting for an encoder, with their sequence numbers and capture times
+     */
+    private final FrameDataHolder[] frames;
+    private final long[] sequences;
+    private final long[] timestamps;
+    private int head = 0;
+    private int count = 0;
+
+    /**
+     * Encoded frames waiting to be committed, at index sequence % capacity.
+     * Failed encodings are marked so the committer can skip them.
+     */
+    private final Object[] encoded;
+    private final boolean[] failed;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameQueued = lock.newCondition();
+    private final Condition frameEncoded = lock.newCondition();
+
+    private final Thread[] encoders;
+    private final Thread committer;
+
+    private boolean accepting = true;
+
+    // Sequencing and statistics, guarded by the lock
+    private long nextSequence = 0;
+    private long nextCommit = 0;
+    private int inFlight = 0;
+    private long submitted = 0;
+    private long dropped = 0;
+    private long committed = 0;
+    private long errors = 0;
+
+    /**
+     * Creates the recorder and starts its threads.
+     *
+     * @param sink           Destination of the frames
+     * @param capacity       Maximum number of frames between submission and commit
+     * @param encoderThreads Number of threads encoding frames in parallel
+     */
+    public FrameRecorder(FrameSink<T> sink, int capacity, int encoderThreads) {
+        if (capacity < 1 || encoderThreads < 1) {
+            throw new IllegalArgumentException("Need a positive capacity and thread count, got "
+                    + capacity + " and " + encoderThreads);
+        }
+        this.sink = sink;
+        this.capacity = capacity;
+        frames = new FrameDataHolder[capacity];
+        sequences = new long[capacity];
+        timestamps = new long[capacity];
+        encoded = new Object[capacity];
+        failed = new boolean[capacity];
+
+        encoders = new Thread[encoderThreads];
+        for (int i = 0; i < encoderThreads; i++) {
+            encoders[i] = new Thread(this::encodeLoop, "recorder-encode-" + i);
+            encoders[i].start();
+        }
+        committer = new Thread(this::commitLoop, "recorder-commit");
+        committer.start();
+    }
+
+    /**
+     * Queues a frame for recording, or drops it if the recorder is full.
+     *
+     * @param frame Frame to record, retained until it is encoded
+     * @return Whether the frame was queued
+     */
+    public boolean submit(FrameDataHolder frame) {
+        long timestamp = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (!accepting) {
+                return false;
+            }
+            submitted++;
+            if (inFlight == capacity) {
+                dropped++;
+                return false;
+            }
+            int tail = (head + count) % capacity;
+            frames[tail] = frame.retain();
+            sequences[tail] = nextSequence++;
+            timestamps[tail] = timestamp;
+            count++;
+            inFlight++;
+            frameQueued.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting frames. Frames already submitted are still encoded and committed,
+     * after which the threads exit.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            accepting = false;
+            frameQueued.signalAll();
+            frameEncoded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all submitted frames are committed, after {@link #finish()}.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (Thread encoder : encoders) {
+            encoder.join();
+        }
+        committer.join();
+    }
+
+    private void encodeLoop() {
+        while (true) {
+            FrameDataHolder frame;
+            long sequence;
+            long timestamp;
+            lock.lock();
+            try {
+                while (count == 0 && accepting) {
+                    frameQueued.awaitUninterruptibly();
+                }
+                if (count == 0) {
+                    return;
+                }
+                frame = frames[head];
+                sequence = sequences[head];
+                timestamp = timestamps[head];
+                frames[head] = null;
+                head = (head + 1) % capacity;
+                count--;
+            } finally {
+                lock.unlock();
+            }
+
+            T result = null;
+            try {
+                result = sink.encode(frame, timestamp);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not encode frame " + sequence, e);
+            } finally {
+                frame.release();
+            }
+
+            lock.lock();
+            try {
+                int slot = (int) (sequence % capacity);
+                encoded[slot] = result;
+                failed[slot] = result == null;
+                if (sequence == nextCommit) {
+                    frameEncoded.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            T result;
+            boolean skip;
+            long sequence;
+            lock.lock();
+            try {
+                int slot = (int) (nextCommit % capacity);
+                while (encoded[slot] == null && !failed[slot] && (accepting || inFlight > 0)) {
+                    frameEncoded.awaitUninterruptibly();
+                }
+                if (!accepting && inFlight == 0) {
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                T next = (T) encoded[slot];
+                result = next;
+                skip = failed[slot];
+                encoded[slot] = null;
+                failed[slot] = false;
+                sequence = nextCommit;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean success = false;
+            if (!skip) {
+                try {
+                    sink.commit(result);
+                    success = true;
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not commit frame " + sequence, e);
+                }
+            }
+
+            lock.lock();
+            try {
+                nextCommit++;
+                inFlight--;
+                if (success) {
+                    committed++;
+                } else {
+                    errors++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        try {
+            sink.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close recording", e);
+        }
+    }
+
+    /**
+     * @return Number of frames submitted but not committed yet
+     */
+    public int getBacklog() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getCommitted() {
+        lock.lock();
+        try {
+            return committed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of frames dropped because the recorder was full
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of frames that failed to encode or commit
+     */
+    public long getErrors() {
+        lock.lock();
+        try {
+            return errors;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format(Locale.UK,
+                    "recorder: backlog %d/%d, submitted %d, committed %d, dropped %d, errors %d",
+                    inFlight, capacity, submitted, committed, dropped, errors);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
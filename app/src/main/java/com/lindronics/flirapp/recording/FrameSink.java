@@ -0,0 +1,33 @@
+package com.lindronics.flirapp.recording;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import java.io.IOException;
+
+/**
+ * Destination of recorded frames, split into a parallel encoding step and an ordered commit.
+ *
+ * @param <T> Encoded form of a frame
+ */
+public interface FrameSink<T> {
+
+    /**
+     * Encodes a frame. Called concurrently from several encoder threads.
+     *
+     * @param frame     Frame to encode, only valid until this method returns unless retained
+     * @param timestamp Capture time in milliseconds since the epoch
+     * @return Encoded frame, independent of the frame's bitmaps unless it retained the frame
+     */
+    T encode(FrameDataHolder frame, long timestamp) throws IOException;
+
+    /**
+     * Writes an encoded frame to storage. Called from a single thread, in capture order.
+     */
+    void commit(T encoded) throws IOException;
+
+    /**
+     * Called once after the last frame was committed.
+     */
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,70 @@
+package com.lindronics.flirapp.recording;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.metrics.PipelineMetrics;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records frames into a raw capture session: radiometric temperatures and the visual frame,
+ * uncompressed, appended to a memory-mapped session file.
+ * <p>
+ * There is nothing to encode, so frames are retained until commit and copied straight
+ * from their bitmaps into the session file.
+ */
+public class RawFrameSink implements FrameSink<RawFrameSink.PendingFrame> {
+
+    private final RawSessionWriter writer;
+
+    /**
+     * Frame retained until it is written
+     */
+    static class PendingFrame {
+        private final FrameDataHolder frame;
+        private final long timestamp;
+
+        PendingFrame(FrameDataHolder frame, long timestamp) {
+            this.frame = frame;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Creates a session named after its start time.
+     *
+     * @param directory Directory to create the session files in
+     * @param name      Session name, without extension
+     */
+    public RawFrameSink(File directory, String name) throws IOException {
+        writer = new RawSessionWriter(new File(directory, name + ".raw"), new File(directory, name + ".idx"));
+    }
+
+    @Override
+    public PendingFrame encode(FrameDataHolder frame, long timestamp) throws IOException {
+        if (frame.thermal == null) {
+            throw new IOException("Frame has no radiometric data");
+        }
+        return new PendingFrame(frame.retain(), timestamp);
+    }
+
+    @Override
+    public void commit(PendingFrame pending) throws IOException {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        long start = metrics.begin(PipelineMetrics.Span.COMMIT);
+        try {
+            FrameDataHolder frame = pending.frame;
+            int width = frame.rgbBitmap.getWidth();
+            int height = frame.rgbBitmap.getHeight();
+            frame.rgbBitmap.copyPixelsToBuffer(writer.appendFrame(pending.timestamp, frame.thermal, width, height));
+        } finally {
+            pending.frame.release();
+            metrics.end(PipelineMetrics.Span.COMMIT, start);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
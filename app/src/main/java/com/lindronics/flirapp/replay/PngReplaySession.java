@@ -0,0 +1,88 @@
+package com.lindronics.flirapp.replay;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.lindronics.flirapp.camera.BitmapPool;
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.recording.FramePairScanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Replays a directory of RGB and FIR PNG pairs written by the PNG recorder.
+ * Images are decoded into bitmaps from a pool.
+ */
+public class PngReplaySession implements ReplaySession<FrameDataHolder> {
+
+    private final List<FramePairScanner.FramePair> pairs;
+    private final BitmapPool pool;
+    private final BitmapFactory.Options bounds = new BitmapFactory.Options();
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+
+    public PngReplaySession(File directory, BitmapPool pool) throws IOException {
+        pairs = FramePairScanner.scan(directory);
+        if (pairs.isEmpty()) {
+            throw new IOException("No rgb_/fir_ image pairs in " + directory);
+        }
+        this.pool = pool;
+        bounds.inJustDecodeBounds = true;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return pairs.size();
+    }
+
+    /**
+     * Falls back to 100 ms spacing for files without a parsable timestamp
+     */
+    @Override
+    public long getTimestamp(int frame) {
+        long timestamp = pairs.get(frame).timestamp;
+        return timestamp >= 0 ? timestamp : frame * 100L;
+    }
+
+    @Override
+    public FrameDataHolder load(int frame) throws IOException {
+        FramePairScanner.FramePair pair = pairs.get(frame);
+        return new FrameDataHolder(decode(pair.rgb), decode(pair.fir), pool);
+    }
+
+    private Bitmap decode(File file) throws IOException {
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Could not read " + file);
+        }
+        Bitmap target = pool.acquire(bounds.outWidth, bounds.outHeight);
+        options.inBitmap = target;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // Image can not be decoded into the pooled bitmap, for example another config
+            pool.release(target);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            if (bitmap == null) {
+                throw new IOException("Could not decode " + file);
+            }
+            return pool.adopt(bitmap);
+        } finally {
+            options.inBitmap = null;
+        }
+        if (bitmap == null) {
+            pool.release(target);
+            throw new IOException("Could not decode " + file);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,86 @@
+package com.lindronics.flirapp.replay;
+
+import android.graphics.Bitmap;
+
+import com.lindronics.flirapp.camera.BitmapPool;
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.camera.ThermalData;
+import com.lindronics.flirapp.recording.RawSessionReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Replays a raw capture session.
+ * <p>
+ * Frames carry the recorded temperatures. The FIR bitmap is rendered from them in grey,
+ * stretched between the coldest and warmest pixel of the frame, so it is not the camera's palette.
+ */
+public class RawReplaySession implements ReplaySession<FrameDataHolder> {
+
+    private final RawSessionReader reader;
+    private final BitmapPool pool;
+    private int[] firPixels = new int[0];
+
+    /**
+     * @param session Data file of the session, the index file is found next to it
+     */
+    public RawReplaySession(File session, BitmapPool pool) throws IOException {
+        String path = session.getPath();
+        File index = new File(path.substring(0, path.length() - ".raw".length()) + ".idx");
+        reader = new RawSessionReader(session, index);
+        this.pool = pool;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return reader.getFrameCount();
+    }
+
+    @Override
+    public long getTimestamp(int frame) {
+        return reader.getTimestamp(frame);
+    }
+
+    @Override
+    public FrameDataHolder load(int frame) throws IOException {
+        RawSessionReader.Frame raw = reader.read(frame);
+
+        Bitmap rgb = pool.acquire(raw.rgbWidth, raw.rgbHeight);
+        rgb.copyPixelsFromBuffer(ByteBuffer.wrap(raw.rgba));
+        Bitmap fir = renderThermal(raw.thermal);
+
+        FrameDataHolder holder = new FrameDataHolder(rgb, fir, pool);
+        holder.thermal = raw.thermal;
+        return holder;
+    }
+
+    private Bitmap renderThermal(ThermalData thermal) {
+        short[] values = thermal.getValues();
+        int min = 0xFFFF;
+        int max = 0;
+        for (short value : values) {
+            min = Math.min(min, value & 0xFFFF);
+            max = Math.max(max, value & 0xFFFF);
+        }
+        int range = Math.max(1, max - min);
+
+        if (firPixels.length != values.length) {
+            firPixels = new int[values.length];
+        }
+        for (int i = 0; i < values.length; i++) {
+            int grey = ((values[i] & 0xFFFF) - min) * 255 / range;
+            firPixels[i] = 0xFF000000 | grey << 16 | grey << 8 | grey;
+        }
+
+        Bitmap fir = pool.acquire(thermal.getWidth(), thermal.getHeight());
+        fir.setPixels(firPixels, 0, thermal.getWidth(), 0, 0, thermal.getWidth(), thermal.getHeight());
+        return fir;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.lindronics.flirapp.replay;
+
+import android.util.Log;
+
+import com.lindronics.flirapp.camera.BitmapPool;
+import com.lindronics.flirapp.camera.CameraHandler;
+import com.lindronics.flirapp.camera.FrameDataHolder;
+import com.lindronics.flirapp.camera.FrameSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Locale;
+
+/**
+ * Feeds a recorded session through the live pipeline, in place of a camera.
+ * <p>
+ * A directory is replayed as PNG pairs, a {@code .raw} file as a raw capture session.
+ * Frames are delivered on a replay thread, like camera frames on the SDK's thread.
+ */
+public class ReplayFrameSource implements FrameSource {
+
+    private static final String TAG = "ReplayFrameSource";
+
+    private final BitmapPool bitmapPool = new BitmapPool(16);
+    private final ReplaySession<FrameDataHolder> session;
+    private final Replayer<FrameDataHolder> replayer;
+
+    private Thread thread = null;
+
+    /**
+     * @param session         Directory of PNG pairs or raw session file
+     * @param mode            Pacing of the replay
+     * @param framesPerSecond Rate for {@link ReplayMode#FIXED_RATE}
+     * @param loops           Number of times to replay the session
+     */
+    public ReplayFrameSource(File session, ReplayMode mode, double framesPerSecond, int loops) throws IOException {
+        if (session.isDirectory()) {
+            this.session = new PngReplaySession(session, bitmapPool);
+        } else {
+            this.session = new RawReplaySession(session, bitmapPool);
+        }
+        replayer = new Replayer<>(this.session, mode, framesPerSecond, loops, ReplayClock.SYSTEM);
+        Log.i(TAG, "Replaying " + this.session.getFrameCount() + " frames from " + session + ", " + mode);
+    }
+
+    @Override
+    public synchronized void start(CameraHandler.StreamDataListener listener) {
+        if (thread != null) {
+            throw new IllegalStateException("Replay can only be started once");
+        }
+        thread = new Thread(() -> replay(listener), "replay");
+        thread.start();
+    }
+
+    private void replay(CameraHandler.StreamDataListener listener) {
+        try {
+            replayer.run(frame -> {
+                listener.receiveImages(frame);
+                frame.release();
+            });
+        } catch (ClosedByInterruptException | InterruptedException e) {
+            // Stopped while reading or waiting
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Replay failed", e);
+        }
+        Log.i(TAG, String.format(Locale.UK, "Replay finished: %d frames, %d late, %.1f fps",
+                replayer.getDelivered(), replayer.getLate(), replayer.getFramesPerSecond()));
+    }
+
+    /**
+     * Stops the replay and closes the session, after which the source can not be restarted
+     */
+    @Override
+    public synchronized void stop() {
+        replayer.stop();
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            session.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close session", e);
+        }
+    }
+
+    @Override
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+}
@@ -0,0 +1,57 @@
+package com.lindronics.flirapp.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void meanAndStd_matchDirectComputation() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        long[] values = {3_000_000, 5_000_000, 7_000_000, 9_000_000};
+        for (long value : values) {
+            recorder.recordNanos(value);
+        }
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(4, snapshot.count);
+        assertEquals(6.0, snapshot.meanMillis, 1e-9);
+        assertEquals(Math.sqrt(5), snapshot.stdMillis, 1e-9);
+        assertEquals(9.0, snapshot.maxMillis, 1e-9);
+    }
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        Random random = new Random(42);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000_000 + (long) (random.nextDouble() * 99_000_000);
+            recorder.recordNanos(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values[4_999], recorder.percentile(50), values[4_999] * 0.04);
+        assertEquals(values[8_999], recorder.percentile(90), values[8_999] * 0.04);
+        assertEquals(values[9_899], recorder.percentile(99), values[9_899] * 0.04);
+    }
+
+    @Test
+    public void buckets_containTheirValues() {
+        for (long value = 1; value < 1L << 40; value = value * 3 + 1) {
+            long midpoint = LatencyRecorder.bucketMidpoint(LatencyRecorder.bucketOf(value));
+            assertEquals(value, midpoint, value / 32.0 + 1);
+        }
+    }
+
+    @Test
+    public void reset_forgetsEverything() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.recordNanos(1_000);
+        recorder.reset();
+        assertEquals(0, recorder.getCount());
+        assertEquals(0, recorder.percentile(99));
+    }
+}
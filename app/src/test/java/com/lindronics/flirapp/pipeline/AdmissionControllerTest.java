@@ -0,0 +1,92 @@
+package com.lindronics.flirapp.pipeline;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void admit_afterStopAndReset_admitsAgain() throws Exception {
+        AdmissionController controller = new AdmissionController(500);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        PipelineLane lane = new PipelineLane("inference", 1, DropPolicy.DROP_OLDEST, frame -> {
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        lane.start();
+
+        // Occupy the stage, so the admitted frame stays queued
+        FrameDataHolder busy = new FrameDataHolder(null, null);
+        assertTrue(lane.submit(busy));
+        busy.release();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(controller.admit(0));
+        FrameDataHolder admitted = new FrameDataHolder(null, null);
+        assertTrue(lane.submit(admitted));
+        admitted.release();
+
+        // Pausing drops the queued frame without classifying or cancelling it
+        Thread stopper = new Thread(lane::stop);
+        stopper.start();
+        while (stopper.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        proceed.countDown();
+        stopper.join(5000);
+        assertEquals(1, lane.getDropped());
+        assertFalse(controller.admit(FRAME_NANOS));
+
+        // Resuming starts a new session
+        controller.reset();
+        lane.start();
+        assertTrue(controller.admit(2 * FRAME_NANOS));
+        lane.stop();
+    }
+
+    @Test
+    public void admit_whileInFlight_skipsFrames() {
+        AdmissionController controller = new AdmissionController(500);
+        assertTrue(controller.admit(0));
+        assertFalse(controller.admit(FRAME_NANOS));
+        controller.cancel();
+        assertTrue(controller.admit(2 * FRAME_NANOS));
+    }
+
+    @Test
+    public void fastModel_classifiesEveryFrame() {
+        AdmissionController controller = new AdmissionController(500);
+        assertTrue(controller.admit(0));
+        assertFalse(controller.admit(FRAME_NANOS));
+        controller.complete(FRAME_NANOS / 2);
+
+        assertEquals(1, controller.getSkipRate());
+        assertTrue(controller.isWithinTarget());
+        assertTrue(controller.admit(2 * FRAME_NANOS));
+    }
+
+    @Test
+    public void slowModel_skipsToKeepUpAndReportsStaleness() {
+        AdmissionController controller = new AdmissionController(500);
+        assertTrue(controller.admit(0));
+        assertFalse(controller.admit(FRAME_NANOS));
+        controller.complete(FRAME_NANOS * 5 / 2);
+
+        assertEquals(3, controller.getSkipRate());
+        assertEquals(550, controller.getStalenessMillis());
+        assertFalse(controller.isWithinTarget());
+    }
+}
@@ -0,0 +1,197 @@
+package com.lindronics.flirapp.pipeline;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PipelineLaneTest {
+
+    @Test
+    public void dropOldest_releasesEvictedFrame() throws Exception {
+        BlockedStage stage = new BlockedStage();
+        PipelineLane lane = new PipelineLane("oldest", 2, DropPolicy.DROP_OLDEST, stage);
+        FrameDataHolder[] frames = fill(lane, stage);
+
+        FrameDataHolder newest = new FrameDataHolder(null, null);
+        assertTrue(lane.submit(newest));
+        newest.release();
+
+        assertTrue(isReleased(frames[1]));
+        assertFalse(isReleased(frames[2]));
+        assertEquals(1, lane.getDropped());
+        assertEquals(2, lane.getDepth());
+
+        stage.proceed.countDown();
+        lane.stop();
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedFrames() throws Exception {
+        BlockedStage stage = new BlockedStage();
+        PipelineLane lane = new PipelineLane("newest", 2, DropPolicy.DROP_NEWEST, stage);
+        FrameDataHolder[] frames = fill(lane, stage);
+
+        FrameDataHolder newest = new FrameDataHolder(null, null);
+        assertFalse(lane.submit(newest));
+        newest.release();
+
+        assertTrue(isReleased(newest));
+        assertFalse(isReleased(frames[1]));
+        assertFalse(isReleased(frames[2]));
+        assertEquals(1, lane.getDropped());
+        assertEquals(2, lane.getDepth());
+
+        stage.proceed.countDown();
+        lane.stop();
+    }
+
+    @Test
+    public void block_waitsForRoom() throws Exception {
+        BlockedStage stage = new BlockedStage();
+        PipelineLane lane = new PipelineLane("block", 2, DropPolicy.BLOCK, stage);
+        fill(lane, stage);
+
+        FrameDataHolder newest = new FrameDataHolder(null, null);
+        boolean[] queued = new boolean[1];
+        Thread producer = new Thread(() -> queued[0] = lane.submit(newest));
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        stage.proceed.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertTrue(queued[0]);
+        assertEquals(0, lane.getDropped());
+        newest.release();
+        lane.stop();
+    }
+
+    @Test
+    public void stop_releasesQueuedFrames() throws Exception {
+        BlockedStage stage = new BlockedStage();
+        PipelineLane lane = new PipelineLane("stop", 2, DropPolicy.DROP_OLDEST, stage);
+        FrameDataHolder[] frames = fill(lane, stage);
+
+        Thread stopper = new Thread(lane::stop);
+        stopper.start();
+
+        // Let the stage finish only once the lane is no longer running
+        while (stopper.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        stage.proceed.countDown();
+        stopper.join(5000);
+
+        assertEquals(1, lane.getProcessed());
+        assertEquals(2, lane.getDropped());
+        assertEquals(0, lane.getDepth());
+        for (FrameDataHolder frame : frames) {
+            assertTrue(isReleased(frame));
+        }
+
+        FrameDataHolder late = new FrameDataHolder(null, null);
+        assertFalse(lane.submit(late));
+    }
+
+    @Test
+    public void batchLane_collectsUpToMaxBatchSize() throws Exception {
+        LinkedBlockingQueue<List<FrameDataHolder>> batches = new LinkedBlockingQueue<>();
+        PipelineLane lane = new PipelineLane("batch", 4, DropPolicy.DROP_OLDEST,
+                frames -> batches.add(new ArrayList<>(frames)), 3, TimeUnit.SECONDS.toNanos(10));
+        lane.start();
+
+        List<FrameDataHolder> frames = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            FrameDataHolder frame = new FrameDataHolder(null, null);
+            frames.add(frame);
+            assertTrue(lane.submit(frame));
+            frame.release();
+        }
+
+        List<FrameDataHolder> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertEquals(frames, batch);
+        lane.stop();
+        assertEquals(3, lane.getProcessed());
+
+        // Released by the lane after the batch
+        try {
+            frames.get(0).retain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void batchLane_flushesPartialBatchAfterMaxWait() throws Exception {
+        LinkedBlockingQueue<Integer> sizes = new LinkedBlockingQueue<>();
+        PipelineLane lane = new PipelineLane("batch", 8, DropPolicy.DROP_OLDEST,
+                frames -> sizes.add(frames.size()), 8, TimeUnit.MILLISECONDS.toNanos(20));
+        lane.start();
+
+        FrameDataHolder frame = new FrameDataHolder(null, null);
+        long start = System.nanoTime();
+        assertTrue(lane.submit(frame));
+        frame.release();
+
+        assertEquals(Integer.valueOf(1), sizes.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        lane.stop();
+    }
+
+    /**
+     * Stage holding up the first frame until released, so frames pile up in the queue
+     */
+    private static class BlockedStage implements PipelineStage {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        @Override
+        public void process(FrameDataHolder frame) {
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Starts the lane with one frame in the stage and a full queue of two frames behind it
+     *
+     * @return The frame in the stage and the queued frames, only referenced by the lane
+     */
+    private static FrameDataHolder[] fill(PipelineLane lane, BlockedStage stage) throws InterruptedException {
+        lane.start();
+        FrameDataHolder[] frames = new FrameDataHolder[3];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new FrameDataHolder(null, null);
+            assertTrue(lane.submit(frames[i]));
+            frames[i].release();
+            if (i == 0) {
+                assertTrue(stage.started.await(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(2, lane.getDepth());
+        assertEquals(0, lane.getDropped());
+        return frames;
+    }
+
+    private static boolean isReleased(FrameDataHolder frame) {
+        try {
+            frame.retain().release();
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.lindronics.flirapp.recording;
+
+import com.lindronics.flirapp.camera.FrameDataHolder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class FrameRecorderTest {
+
+    @Test
+    public void commits_inSubmissionOrder() throws InterruptedException {
+        Random random = new Random(42);
+        List<Long> committed = Collections.synchronizedList(new ArrayList<>());
+        FrameSink<Long> sink = new FrameSink<Long>() {
+            @Override
+            public Long encode(FrameDataHolder frame, long timestamp) {
+                sleep(random.nextInt(3));
+                return (long) frame.hashCode();
+            }
+
+            @Override
+            public void commit(Long encoded) {
+                committed.add(encoded);
+            }
+        };
+
+        FrameRecorder<Long> recorder = new FrameRecorder<>(sink, 4, 3);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            FrameDataHolder frame = new FrameDataHolder(null, null);
+            // Wait for space, so no frame is dropped
+            while (recorder.getBacklog() == recorder.getCapacity()) {
+                sleep(1);
+            }
+            assertTrue(recorder.submit(frame));
+            expected.add((long) frame.hashCode());
+            frame.release();
+        }
+        recorder.finish();
+        recorder.awaitTermination();
+
+        assertEquals(expected, committed);
+        assertEquals(50, recorder.getCommitted());
+        assertEquals(0, recorder.getDropped());
+        assertEquals(0, recorder.getBacklog());
+    }
+
+    @Test
+    public void full_dropsAndCountsNewFrames() throws InterruptedException {
+        CountDownLatch unblock = new CountDownLatch(1);
+        FrameSink<Integer> sink = new FrameSink<Integer>() {
+            @Override
+            public Integer encode(FrameDataHolder frame, long timestamp) {
+                return 1;
+            }
+
+            @Override
+            public void commit(Integer encoded) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        FrameRecorder<Integer> recorder = new FrameRecorder<>(sink, 2, 1);
+        FrameDataHolder frame = new FrameDataHolder(null, null);
+        int accepted = 0;
+        for (int i = 0; i < 5; i++) {
+            if (recorder.submit(frame)) {
+                accepted++;
+            }
+        }
+        assertEquals(2, accepted);
+        assertEquals(3, recorder.getDropped());
+
+        unblock.countDown();
+        recorder.finish();
+        recorder.awaitTermination();
+        assertEquals(2, recorder.getCommitted());
+        assertFalse(recorder.submit(frame));
+    }
+
+    @Test
+    public void failedEncoding_isSkippedAndCounted() throws InterruptedException {
+        List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+        int[] counter = {0};
+        FrameSink<Integer> sink = new FrameSink<Integer>() {
+            @Override
+            public synchronized Integer encode(FrameDataHolder frame, long timestamp) {
+                int index = counter[0]++;
+                if (index == 1) {
+                    throw new IllegalStateException("Encoding failed");
+                }
+                return index;
+            }
+
+            @Override
+            public void commit(Integer encoded) {
+                committed.add(encoded);
+            }
+        };
+
+        FrameRecorder<Integer> recorder = new FrameRecorder<>(sink, 8, 1);
+        FrameDataHolder frame = new FrameDataHolder(null, null);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(recorder.submit(frame));
+        }
+        recorder.finish();
+        recorder.awaitTermination();
+
+        assertEquals(java.util.Arrays.asList(0, 2), committed);
+        assertEquals(1, recorder.getErrors());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
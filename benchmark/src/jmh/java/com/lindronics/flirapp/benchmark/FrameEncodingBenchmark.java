@@ -0,0 +1,78 @@
+package com.lindronics.flirapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Encoding one 640x480 camera frame for recording.
+ * <p>
+ * The app writes PNGs with Bitmap.compress, which is not available on the JVM.
+ * ImageIO's PNG writer stands in for it, next to plain zlib at the fastest and default
+ * levels on the raw ARGB bytes, to show how much of the cost is compression.
+ */
+@State(Scope.Thread)
+public class FrameEncodingBenchmark {
+
+    private BufferedImage image;
+    private byte[] raw;
+    private byte[] compressed;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] pixels = Frames.syntheticImage(Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT, 3);
+        image = new BufferedImage(Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT, pixels, 0, Frames.CAMERA_WIDTH);
+
+        raw = new byte[pixels.length * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            raw[i * 4] = (byte) (pixels[i] >> 16);
+            raw[i * 4 + 1] = (byte) (pixels[i] >> 8);
+            raw[i * 4 + 2] = (byte) pixels[i];
+            raw[i * 4 + 3] = (byte) (pixels[i] >> 24);
+        }
+        compressed = new byte[raw.length + 1024];
+    }
+
+    @Benchmark
+    public int png() throws IOException {
+        out.reset();
+        ImageIO.write(image, "png", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int deflateFastest() {
+        return deflate(Deflater.BEST_SPEED);
+    }
+
+    @Benchmark
+    public int deflateDefault() {
+        return deflate(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private int deflate(int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                size += deflater.deflate(compressed, 0, compressed.length);
+            }
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+}
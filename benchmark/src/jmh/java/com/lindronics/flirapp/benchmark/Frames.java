@@ -0,0 +1,86 @@
+package com.lindronics.flirapp.benchmark;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+import com.lindronics.flirapp.classification.FusedPreprocessor;
+
+/**
+ * Synthetic frames and constants matching what the app sees at runtime.
+ */
+final class Frames {
+
+    /**
+     * Size of the RGB and FIR bitmaps delivered by the camera
+     */
+    static final int CAMERA_WIDTH = 640;
+    static final int CAMERA_HEIGHT = 480;
+
+    /**
+     * Matrix from transformation.txt
+     */
+    static final AffineMatrix ALIGNMENT = new AffineMatrix(640, 460,
+            1.26197198, -0.01742265, -55.42825743,
+            0.01858547, 1.19122363, -73.72868349);
+
+    private Frames() {
+    }
+
+    /**
+     * Smooth ARGB test pattern with some noise, so it neither compresses trivially nor
+     * looks like random data.
+     */
+    static int[] syntheticImage(int width, int height, int seed) {
+        int[] pixels = new int[width * height];
+        int noise = seed * 0x9E3779B1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                noise = noise * 1664525 + 1013904223;
+                double u = (double) x / width;
+                double v = (double) y / height;
+                int r = (int) (127.5 + 120 * Math.sin(2 * Math.PI * (u + 0.1 * seed))) + ((noise >>> 28) & 7);
+                int g = (int) (248 * v) + ((noise >>> 24) & 7);
+                int b = (int) (127.5 + 120 * Math.cos(2 * Math.PI * (u * v + 0.2 * seed))) + ((noise >>> 20) & 7);
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Thermal-looking grey image: a cool background with a warm blob.
+     */
+    static int[] syntheticThermal(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double dx = (x - width * 0.6) / width;
+                double dy = (y - height * 0.4) / height;
+                int grey = (int) (60 + 180 * Math.exp(-(dx * dx + dy * dy) * 20));
+                pixels[y * width + x] = 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Copies pixels into the padded layout read by {@link FusedPreprocessor}.
+     */
+    static int[] pad(int[] pixels, int width, int height) {
+        int[] padded = new int[FusedPreprocessor.paddedLength(width, height)];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, y * width, padded,
+                    FusedPreprocessor.paddedOffset(width) + y * FusedPreprocessor.paddedStride(width), width);
+        }
+        return padded;
+    }
+
+    /**
+     * @param size Size as "WIDTHxHEIGHT"
+     */
+    static int width(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int height(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+}
@@ -0,0 +1,123 @@
+package com.lindronics.flirapp.benchmark;
+
+import com.lindronics.flirapp.classification.FusedPreprocessor;
+import com.lindronics.flirapp.classification.Quantization;
+import com.lindronics.flirapp.classification.ReferencePreprocessor;
+import com.lindronics.flirapp.classification.StripedPackingPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Turning a 640x480 RGB and FIR frame pair into the model's input tensor.
+ * <p>
+ * {@code staged} mirrors the original loadImage: rescale both images, warp the RGB image
+ * and pack the channels, with intermediate 8 bit images. The others run the fused kernel
+ * used by ModelHandler, on one thread or in row stripes. {@code fusedQuantized} packs
+ * the 8 bit input of a quantized model.
+ */
+@State(Scope.Thread)
+public class PackingBenchmark {
+
+    /**
+     * Model input size
+     */
+    @Param({"224x224", "128x128"})
+    public String inputSize;
+
+    private int width;
+    private int height;
+
+    private int[] rgb;
+    private int[] fir;
+    private int[] rgbPadded;
+    private int[] firPadded;
+
+    private float[] stagedOutput;
+    private FloatBuffer tensor;
+    private ByteBuffer quantizedTensor;
+    private Quantization quantization;
+    private FusedPreprocessor preprocessor;
+    private StripedPackingPool twoStripes;
+    private StripedPackingPool fourStripes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        width = Frames.width(inputSize);
+        height = Frames.height(inputSize);
+
+        rgb = Frames.syntheticImage(Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT, 1);
+        fir = Frames.syntheticThermal(Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT);
+        rgbPadded = Frames.pad(rgb, Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT);
+        firPadded = Frames.pad(fir, Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT);
+
+        stagedOutput = new float[width * height * FusedPreprocessor.CHANNELS];
+        tensor = ByteBuffer.allocateDirect(width * height * FusedPreprocessor.CHANNELS * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        quantizedTensor = ByteBuffer.allocateDirect(width * height * FusedPreprocessor.CHANNELS);
+        quantization = new Quantization(1 / 255f, 0, false);
+
+        preprocessor = new FusedPreprocessor(width, height, Frames.ALIGNMENT);
+        preprocessor.configure(Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT, Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT);
+        twoStripes = new StripedPackingPool(2);
+        fourStripes = new StripedPackingPool(4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        twoStripes.close();
+        fourStripes.close();
+    }
+
+    @Benchmark
+    public float[] staged() {
+        ReferencePreprocessor.process(rgb, Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT,
+                fir, Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT,
+                Frames.ALIGNMENT, width, height, stagedOutput);
+        return stagedOutput;
+    }
+
+    @Benchmark
+    public FloatBuffer fused() {
+        preprocessor.process(rgbPadded, firPadded, tensor);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer fusedTwoStripes() {
+        twoStripes.process(preprocessor, rgbPadded, firPadded, tensor);
+        return tensor;
+    }
+
+    @Benchmark
+    public FloatBuffer fusedFourStripes() {
+        fourStripes.process(preprocessor, rgbPadded, firPadded, tensor);
+        return tensor;
+    }
+
+    @Benchmark
+    public ByteBuffer fusedQuantized() {
+        preprocessor.process(rgbPadded, firPadded, quantizedTensor, quantization);
+        return quantizedTensor;
+    }
+
+    /**
+     * Rebuilding the lookup tables, paid whenever the camera frame size changes
+     */
+    @Benchmark
+    public FusedPreprocessor configure() {
+        FusedPreprocessor fresh = new FusedPreprocessor(width, height, Frames.ALIGNMENT);
+        fresh.configure(Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT, Frames.CAMERA_WIDTH, Frames.CAMERA_HEIGHT);
+        return fresh;
+    }
+}
@@ -0,0 +1,75 @@
+package com.lindronics.flirapp.benchmark;
+
+import com.lindronics.flirapp.classification.TopKSelector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Picking the best results from the output probabilities.
+ * <p>
+ * {@code labelMapQueue} mirrors ModelHandler: a label to probability map, as built by
+ * TensorLabel, pushed through a priority queue of boxed entries. {@code primitiveSelection}
+ * is the {@link TopKSelector} used by ModelHandler, keeping the best k indices in small arrays
+ * without allocating.
+ */
+@State(Scope.Thread)
+public class TopKBenchmark {
+
+    private static final int K = 3;
+
+    @Param({"3", "10", "1000"})
+    public int numClasses;
+
+    private float[] probabilities;
+    private List<String> labels;
+
+    private final TopKSelector selector = new TopKSelector(K);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        probabilities = new float[numClasses];
+        labels = new ArrayList<>();
+        for (int i = 0; i < numClasses; i++) {
+            probabilities[i] = random.nextFloat();
+            labels.add("class_" + i);
+        }
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Float>> labelMapQueue() {
+        Map<String, Float> labeledProbability = new LinkedHashMap<>();
+        for (int i = 0; i < numClasses; i++) {
+            labeledProbability.put(labels.get(i), probabilities[i]);
+        }
+
+        PriorityQueue<Map.Entry<String, Float>> queue = new PriorityQueue<>(
+                K, (lhs, rhs) -> Float.compare(rhs.getValue(), lhs.getValue()));
+        queue.addAll(labeledProbability.entrySet());
+
+        List<Map.Entry<String, Float>> result = new ArrayList<>();
+        int size = Math.min(queue.size(), K);
+        for (int i = 0; i < size; i++) {
+            result.add(queue.poll());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int primitiveSelection() {
+        selector.select(probabilities, 0, numClasses);
+        return selector.getIndex(0);
+    }
+}
@@ -0,0 +1,64 @@
+package com.lindronics.flirapp.benchmark;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+import com.lindronics.flirapp.camera.WarpMap;
+import com.lindronics.flirapp.classification.ReferencePreprocessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Aligning the RGB image to the FIR image.
+ * <p>
+ * Compares evaluating the inverse matrix per pixel with a map precomputed once per size,
+ * which is what AffineTransformer hands to OpenCV's remap on the device.
+ */
+@State(Scope.Thread)
+public class WarpBenchmark {
+
+    /**
+     * Size of the warped image: the camera frame, or a model input
+     */
+    @Param({"640x480", "224x224", "128x128"})
+    public String size;
+
+    private int width;
+    private int height;
+    private int[] source;
+    private int[] target;
+    private AffineMatrix scaledAlignment;
+    private WarpMap map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        width = Frames.width(size);
+        height = Frames.height(size);
+        source = Frames.syntheticImage(width, height, 2);
+        target = new int[width * height];
+        scaledAlignment = Frames.ALIGNMENT.scaledTo(width, height);
+        map = new WarpMap(Frames.ALIGNMENT, width, height, width, height);
+    }
+
+    @Benchmark
+    public int[] perPixelMatrix() {
+        return ReferencePreprocessor.warp(source, width, height, scaledAlignment);
+    }
+
+    @Benchmark
+    public int[] precomputedMap() {
+        map.remap(source, target);
+        return target;
+    }
+
+    /**
+     * Building the map, paid once per size pair
+     */
+    @Benchmark
+    public WarpMap buildMap() {
+        return new WarpMap(Frames.ALIGNMENT, width, height, width, height);
+    }
+}
@@ -0,0 +1,145 @@
+package com.lindronics.flirapp.camera;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Plain 2x3 affine matrix, as stored in transformation.txt.
+ * Free of Android and OpenCV types so it can be used by the pure Java kernels.
+ */
+public class AffineMatrix {
+
+    private final double m00, m01, m02;
+    private final double m10, m11, m12;
+
+    /**
+     * Image dimensions assumed by the matrix.
+     */
+    private final int width;
+    private final int height;
+
+    public AffineMatrix(int width, int height,
+                        double m00, double m01, double m02,
+                        double m10, double m11, double m12) {
+        this.width = width;
+        this.height = height;
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+    }
+
+    /**
+     * Identity transformation for images of the given size
+     */
+    public static AffineMatrix identity(int width, int height) {
+        return new AffineMatrix(width, height, 1, 0, 0, 0, 1, 0);
+    }
+
+    /**
+     * Reads a matrix in the transformation.txt format.
+     * The first row holds the image dimensions, the next two rows the matrix values.
+     *
+     * @param source Reader for the config file
+     * @return The parsed matrix
+     */
+    public static AffineMatrix read(Reader source) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+
+        // Image dimensions assumed by transformation
+        String row = reader.readLine();
+        if (row == null) {
+            throw new IOException("Transformation config is empty");
+        }
+        String[] dimensions = row.split(",");
+        int width = Integer.parseInt(dimensions[0].trim());
+        int height = Integer.parseInt(dimensions[1].trim());
+
+        // Read matrix values
+        double[] values = new double[6];
+        for (int i = 0; i < 2; i++) {
+            row = reader.readLine();
+            if (row == null) {
+                throw new IOException("Transformation config has fewer than 2 matrix rows");
+            }
+            String[] data = row.split(",");
+            for (int j = 0; j < 3; j++) {
+                values[i * 3 + j] = Double.parseDouble(data[j].trim());
+            }
+        }
+        return new AffineMatrix(width, height,
+                values[0], values[1], values[2],
+                values[3], values[4], values[5]);
+    }
+
+    /**
+     * Expresses the same transformation in the coordinates of an image of a different size.
+     *
+     * @param newWidth  Target image width
+     * @param newHeight Target image height
+     * @return Rescaled matrix
+     */
+    public AffineMatrix scaledTo(int newWidth, int newHeight) {
+        double sx = (double) newWidth / width;
+        double sy = (double) newHeight / height;
+        return new AffineMatrix(newWidth, newHeight,
+                m00, m01 * sx / sy, m02 * sx,
+                m10 * sy / sx, m11, m12 * sy);
+    }
+
+    /**
+     * @return The inverse transformation
+     */
+    public AffineMatrix inverse() {
+        double det = m00 * m11 - m01 * m10;
+        if (det == 0) {
+            throw new IllegalStateException("Affine matrix is not invertible");
+        }
+        return new AffineMatrix(width, height,
+                m11 / det, -m01 / det, (m01 * m12 - m11 * m02) / det,
+                -m10 / det, m00 / det, (m10 * m02 - m00 * m12) / det);
+    }
+
+    public double mapX(double x, double y) {
+        return m00 * x + m01 * y + m02;
+    }
+
+    public double mapY(double x, double y) {
+        return m10 * x + m11 * y + m12;
+    }
+
+    /**
+     * @param row Row index, 0 or 1
+     * @param col Column index, 0 to 2
+     * @return Matrix value
+     */
+    public double get(int row, int col) {
+        switch (row * 3 + col) {
+            case 0:
+                return m00;
+            case 1:
+                return m01;
+            case 2:
+                return m02;
+            case 3:
+                return m10;
+            case 4:
+                return m11;
+            case 5:
+                return m12;
+            default:
+                throw new IndexOutOfBoundsException("No matrix element at " + row + "," + col);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
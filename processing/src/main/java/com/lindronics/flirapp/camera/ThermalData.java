@@ -0,0 +1,88 @@
+package com.lindronics.flirapp.camera;
+
+/**
+ * Radiometric temperatures of one thermal frame, at the sensor's resolution.
+ * <p>
+ * Temperatures are stored as unsigned 16 bit values in steps of {@link #SCALE} Kelvin
+ * above {@link #OFFSET}, which covers 200 K to 855 K in 0.01 K steps.
+ */
+public class ThermalData {
+
+    /**
+     * Kelvin per step of a stored value
+     */
+    public static final float SCALE = 0.01f;
+
+    /**
+     * Temperature of a stored 0, in Kelvin
+     */
+    public static final float OFFSET = 200f;
+
+    private final int width;
+    private final int height;
+    private final short[] values;
+
+    /**
+     * @param values Stored values, row-major
+     */
+    public ThermalData(int width, int height, short[] values) {
+        if (values.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " values, got " + values.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.values = values;
+    }
+
+    /**
+     * Converts temperatures to the stored representation, clamping to the covered range.
+     *
+     * @param kelvin Temperatures in Kelvin, row-major
+     */
+    public static ThermalData fromKelvin(int width, int height, double[] kelvin) {
+        return fromKelvin(width, height, kelvin, new short[width * height]);
+    }
+
+    /**
+     * Converts temperatures to the stored representation, clamping to the covered range.
+     *
+     * @param kelvin Temperatures in Kelvin, row-major
+     * @param values Array to reuse if it has the right size
+     */
+    public static ThermalData fromKelvin(int width, int height, double[] kelvin, short[] values) {
+        if (values.length != width * height) {
+            values = new short[width * height];
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = encode(kelvin[i]);
+        }
+        return new ThermalData(width, height, values);
+    }
+
+    static short encode(double kelvin) {
+        long value = Math.round((kelvin - OFFSET) / SCALE);
+        return (short) Math.max(0, Math.min(0xFFFF, value));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Stored values, row-major, to be read as unsigned
+     */
+    public short[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return Temperature of a pixel in Kelvin
+     */
+    public float getKelvin(int x, int y) {
+        return OFFSET + (values[y * width + x] & 0xFFFF) * SCALE;
+    }
+}
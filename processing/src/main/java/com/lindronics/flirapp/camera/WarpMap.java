@@ -0,0 +1,110 @@
+package com.lindronics.flirapp.camera;
+
+/**
+ * Inverse mapping of an affine alignment, precomputed for one
+ * (source size, target size) pair.
+ * <p>
+ * For every target pixel the map holds the source coordinate it samples from,
+ * which is what {@code Imgproc.remap} expects. {@link #remap(int[], int[])} is a plain
+ * Java bilinear remap over ARGB pixels with a zero border, used where OpenCV is not available.
+ */
+public class WarpMap {
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int targetWidth;
+    private final int targetHeight;
+
+    private final float[] mapX;
+    private final float[] mapY;
+
+    /**
+     * @param matrix Alignment, in coordinates of its own reference size
+     */
+    public WarpMap(AffineMatrix matrix, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+
+        // Inverse mapping, expressed in target coordinates, then rescaled to the source
+        AffineMatrix inverse = matrix.scaledTo(targetWidth, targetHeight).inverse();
+        double scaleX = (double) sourceWidth / targetWidth;
+        double scaleY = (double) sourceHeight / targetHeight;
+
+        mapX = new float[targetWidth * targetHeight];
+        mapY = new float[targetWidth * targetHeight];
+        int i = 0;
+        for (int y = 0; y < targetHeight; y++) {
+            for (int x = 0; x < targetWidth; x++) {
+                mapX[i] = (float) ((inverse.mapX(x, y) + 0.5) * scaleX - 0.5);
+                mapY[i] = (float) ((inverse.mapY(x, y) + 0.5) * scaleY - 0.5);
+                i++;
+            }
+        }
+    }
+
+    public boolean matches(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        return this.sourceWidth == sourceWidth && this.sourceHeight == sourceHeight
+                && this.targetWidth == targetWidth && this.targetHeight == targetHeight;
+    }
+
+    /**
+     * @return Source x coordinate per target pixel, row-major
+     */
+    public float[] getMapX() {
+        return mapX;
+    }
+
+    /**
+     * @return Source y coordinate per target pixel, row-major
+     */
+    public float[] getMapY() {
+        return mapY;
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * Bilinear remap of ARGB pixels, treating pixels outside the source as zero.
+     *
+     * @param source Source pixels, sourceWidth * sourceHeight
+     * @param target Target pixels, targetWidth * targetHeight
+     */
+    public void remap(int[] source, int[] target) {
+        for (int i = 0; i < target.length; i++) {
+            float x = mapX[i];
+            float y = mapY[i];
+            int x0 = (int) Math.floor(x);
+            int y0 = (int) Math.floor(y);
+            int wx = (int) ((x - x0) * 256);
+            int wy = (int) ((y - y0) * 256);
+
+            int p00 = pixel(source, x0, y0);
+            int p01 = pixel(source, x0 + 1, y0);
+            int p10 = pixel(source, x0, y0 + 1);
+            int p11 = pixel(source, x0 + 1, y0 + 1);
+
+            int result = 0;
+            for (int shift = 0; shift <= 24; shift += 8) {
+                int top = ((p00 >>> shift) & 0xFF) * (256 - wx) + ((p01 >>> shift) & 0xFF) * wx;
+                int bottom = ((p10 >>> shift) & 0xFF) * (256 - wx) + ((p11 >>> shift) & 0xFF) * wx;
+                result |= ((top * (256 - wy) + bottom * wy + (1 << 15)) >>> 16) << shift;
+            }
+            target[i] = result;
+        }
+    }
+
+    private int pixel(int[] source, int x, int y) {
+        if (x < 0 || y < 0 || x >= sourceWidth || y >= sourceHeight) {
+            return 0;
+        }
+        return source[y * sourceWidth + x];
+    }
+}
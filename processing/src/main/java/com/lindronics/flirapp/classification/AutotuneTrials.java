@@ -0,0 +1,124 @@
+package com.lindronics.flirapp.classification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects benchmark trials of inference configurations and picks the fastest one
+ * whose outputs match the reference configuration.
+ * <p>
+ * The first trial is the reference, usually the plain single threaded CPU interpreter.
+ * A trial is stable if all its outputs are finite and within the tolerance of the reference.
+ *
+ * @param <T> Type describing a configuration
+ */
+public class AutotuneTrials<T> {
+
+    private final float tolerance;
+    private final List<Trial<T>> trials = new ArrayList<>();
+    private float[] reference = null;
+
+    /**
+     * Measured configuration
+     */
+    public static class Trial<T> {
+        public final T configuration;
+        public final long nanos;
+        public final boolean stable;
+
+        Trial(T configuration, long nanos, boolean stable) {
+            this.configuration = configuration;
+            this.nanos = nanos;
+            this.stable = stable;
+        }
+    }
+
+    /**
+     * @param tolerance Maximum absolute difference of any output to the reference
+     */
+    public AutotuneTrials(float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Adds a measured configuration
+     *
+     * @param nanos  Typical time of one inference
+     * @param output Outputs on the benchmark input
+     * @return Whether the configuration is stable
+     */
+    public boolean add(T configuration, long nanos, float[] output) {
+        boolean stable;
+        if (reference == null) {
+            reference = output.clone();
+            stable = isFinite(output);
+        } else {
+            stable = matchesReference(output);
+        }
+        trials.add(new Trial<>(configuration, nanos, stable));
+        return stable;
+    }
+
+    /**
+     * @return The fastest stable configuration, or null if there is none
+     */
+    public T getBest() {
+        Trial<T> best = null;
+        for (Trial<T> trial : trials) {
+            if (trial.stable && (best == null || trial.nanos < best.nanos)) {
+                best = trial;
+            }
+        }
+        return best == null ? null : best.configuration;
+    }
+
+    public List<Trial<T>> getTrials() {
+        return trials;
+    }
+
+    /**
+     * @return Median of the measured times, sorts the array
+     */
+    public static long median(long[] nanos) {
+        Arrays.sort(nanos);
+        int middle = nanos.length / 2;
+        return nanos.length % 2 == 1 ? nanos[middle] : (nanos[middle - 1] + nanos[middle]) / 2;
+    }
+
+    private boolean matchesReference(float[] output) {
+        if (output.length != reference.length) {
+            return false;
+        }
+        for (int i = 0; i < output.length; i++) {
+            // Also false for NaN
+            if (!(Math.abs(output[i] - reference[i]) <= tolerance)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFinite(float[] output) {
+        for (float value : output) {
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Trial<T> trial : trials) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format(Locale.ROOT, "%s %.2f ms%s", trial.configuration, trial.nanos / 1e6,
+                    trial.stable ? "" : " (unstable)"));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,241 @@
+package com.lindronics.flirapp.classification;
+
+import com.lindronics.flirapp.recording.FramePairScanner.FramePair;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classifies recorded frame pairs offline, in batches along the model's batch dimension.
+ * <p>
+ * Frames are decoded and packed by a pool of workers, each writing its own slot of a batch
+ * buffer. There are two batch buffers, so the next batch is prepared while the model runs
+ * on the current one. Results are written in capture order as soon as a batch is done.
+ */
+public class BatchClassifier implements Closeable {
+
+    /**
+     * Number of batch buffers, one being classified while the next one is packed
+     */
+    private static final int BUFFERS = 2;
+
+    /**
+     * Model running a whole batch at once
+     */
+    public interface Model {
+
+        /**
+         * @return Number of frames per run
+         */
+        int getBatchSize();
+
+        /**
+         * @return Number of input floats per frame
+         */
+        int getFrameSize();
+
+        /**
+         * Runs the model on a full batch. Slots of frames that failed to load hold stale data,
+         * their outputs are ignored.
+         *
+         * @param input  Batch of getBatchSize() * getFrameSize() floats in native order
+         * @param output Outputs of all frames, in slot order
+         */
+        void run(ByteBuffer input, float[] output);
+    }
+
+    /**
+     * Decodes a frame pair into the model input. Called concurrently from all workers.
+     */
+    public interface Loader {
+        void load(FramePair pair, FloatBuffer slot) throws IOException;
+    }
+
+    /**
+     * Progress callbacks, called on the thread running {@link #run}
+     */
+    public interface Listener {
+        void onBatch(int processed, int total, double imagesPerSecond);
+
+        void onFailure(FramePair pair, IOException e);
+    }
+
+    /**
+     * Outcome of a run
+     */
+    public static class Summary {
+        public final int frames;
+        public final int failed;
+        public final long elapsedNanos;
+
+        Summary(int frames, int failed, long elapsedNanos) {
+            this.frames = frames;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getImagesPerSecond() {
+            return elapsedNanos > 0 ? frames * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d frames, %d failed, %.1f s, %.1f images/s",
+                    frames, failed, elapsedNanos / 1e9, getImagesPerSecond());
+        }
+    }
+
+    private final Model model;
+    private final Loader loader;
+    private final int batchSize;
+    private final int frameSize;
+    private final ExecutorService workers;
+    private final ByteBuffer[] buffers = new ByteBuffer[BUFFERS];
+
+    /**
+     * @param loaderThreads Number of workers decoding and packing frames
+     */
+    public BatchClassifier(Model model, Loader loader, int loaderThreads) {
+        if (loaderThreads < 1) {
+            throw new IllegalArgumentException("Need at least one loader thread, got " + loaderThreads);
+        }
+        this.model = model;
+        this.loader = loader;
+        batchSize = model.getBatchSize();
+        frameSize = model.getFrameSize();
+        for (int i = 0; i < BUFFERS; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(batchSize * frameSize * 4).order(ByteOrder.nativeOrder());
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(loaderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-loader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Classifies all pairs and writes one row per pair, in the order of the list.
+     *
+     * @param listener Optional progress listener
+     */
+    public Summary run(List<FramePair> pairs, ClassificationCsvWriter writer, Listener listener)
+            throws IOException, InterruptedException {
+        int outputSize = writer.getOutputSize();
+        float[] output = new float[batchSize * outputSize];
+        int batches = (pairs.size() + batchSize - 1) / batchSize;
+        int failed = 0;
+        long start = System.nanoTime();
+
+        @SuppressWarnings("unchecked")
+        Future<IOException>[][] loading = new Future[BUFFERS][];
+        try {
+            for (int batch = 0; batch < Math.min(BUFFERS, batches); batch++) {
+                loading[batch] = submit(pairs, batch, buffers[batch]);
+            }
+            for (int batch = 0; batch < batches; batch++) {
+                int buffer = batch % BUFFERS;
+                IOException[] errors = await(loading[buffer]);
+                model.run(buffers[buffer], output);
+
+                // The buffer is free again, start packing the batch after next into it
+                if (batch + BUFFERS < batches) {
+                    loading[buffer] = submit(pairs, batch + BUFFERS, buffers[buffer]);
+                }
+
+                int first = batch * batchSize;
+                for (int slot = 0; slot < errors.length; slot++) {
+                    FramePair pair = pairs.get(first + slot);
+                    if (errors[slot] == null) {
+                        writer.write(pair.name, pair.timestamp, output, slot * outputSize);
+                    } else {
+                        failed++;
+                        writer.writeFailure(pair.name, pair.timestamp);
+                        if (listener != null) {
+                            listener.onFailure(pair, errors[slot]);
+                        }
+                    }
+                }
+                writer.flush();
+
+                if (listener != null) {
+                    int processed = first + errors.length;
+                    listener.onBatch(processed, pairs.size(), processed * 1e9 / (System.nanoTime() - start));
+                }
+            }
+        } finally {
+            for (Future<IOException>[] futures : loading) {
+                if (futures != null) {
+                    for (Future<IOException> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        }
+        return new Summary(pairs.size(), failed, System.nanoTime() - start);
+    }
+
+    /**
+     * Starts loading one batch, one task per frame
+     */
+    private Future<IOException>[] submit(List<FramePair> pairs, int batch, ByteBuffer buffer) {
+        int first = batch * batchSize;
+        int count = Math.min(batchSize, pairs.size() - first);
+        @SuppressWarnings("unchecked")
+        Future<IOException>[] futures = new Future[count];
+        for (int slot = 0; slot < count; slot++) {
+            FramePair pair = pairs.get(first + slot);
+            int offset = slot * frameSize;
+            futures[slot] = workers.submit(() -> {
+                FloatBuffer floats = buffer.asFloatBuffer();
+                floats.position(offset);
+                try {
+                    loader.load(pair, floats.slice());
+                    return null;
+                } catch (IOException e) {
+                    return e;
+                }
+            });
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for a batch to be loaded
+     *
+     * @return Load error per slot, null for frames that loaded
+     */
+    private static IOException[] await(Future<IOException>[] futures) throws InterruptedException {
+        IOException[] errors = new IOException[futures.length];
+        for (int slot = 0; slot < futures.length; slot++) {
+            try {
+                errors[slot] = futures[slot].get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Loading a frame failed", e.getCause());
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.lindronics.flirapp.classification;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Streams classification results as CSV, one row per frame:
+ * {@code name,timestamp,prediction,confidence} followed by the probability of every label.
+ * <p>
+ * For binary classifiers the model outputs the probability of the second label only,
+ * the first label is written as its complement. Frames that could not be classified
+ * get a row with empty prediction and probabilities.
+ */
+public class ClassificationCsvWriter implements Closeable {
+
+    private final Writer out;
+    private final List<String> labels;
+    private final boolean isBinaryClassifier;
+    private final StringBuilder row = new StringBuilder();
+
+    /**
+     * @param out                Destination, buffered by the caller
+     * @param labels             Labels of the model output
+     * @param isBinaryClassifier Whether the model outputs a single probability for two labels
+     */
+    public ClassificationCsvWriter(Writer out, List<String> labels, boolean isBinaryClassifier) throws IOException {
+        if (isBinaryClassifier && labels.size() != 2) {
+            throw new IllegalArgumentException("Binary classifier needs 2 labels, got " + labels.size());
+        }
+        this.out = out;
+        this.labels = labels;
+        this.isBinaryClassifier = isBinaryClassifier;
+
+        row.append("name,timestamp,prediction,confidence");
+        for (String label : labels) {
+            row.append(',');
+            appendField(label);
+        }
+        writeRow();
+    }
+
+    /**
+     * @return Number of model outputs per frame
+     */
+    public int getOutputSize() {
+        return isBinaryClassifier ? 1 : labels.size();
+    }
+
+    /**
+     * Writes the result of one frame.
+     *
+     * @param output Model outputs, {@link #getOutputSize()} values per frame
+     * @param offset Index of the first output of this frame
+     */
+    public void write(String name, long timestamp, float[] output, int offset) throws IOException {
+        appendFrame(name, timestamp);
+        if (isBinaryClassifier) {
+            float positive = output[offset];
+            int best = positive >= 0.5f ? 1 : 0;
+            appendField(labels.get(best));
+            row.append(',').append(best == 1 ? positive : 1 - positive);
+            row.append(',').append(1 - positive).append(',').append(positive);
+        } else {
+            int best = offset;
+            for (int i = offset + 1; i < offset + labels.size(); i++) {
+                if (output[i] > output[best]) {
+                    best = i;
+                }
+            }
+            appendField(labels.get(best - offset));
+            row.append(',').append(output[best]);
+            for (int i = offset; i < offset + labels.size(); i++) {
+                row.append(',').append(output[i]);
+            }
+        }
+        writeRow();
+    }
+
+    /**
+     * Writes a row for a frame that could not be classified
+     */
+    public void writeFailure(String name, long timestamp) throws IOException {
+        appendFrame(name, timestamp);
+        row.append(',');
+        for (int i = 0; i < labels.size(); i++) {
+            row.append(',');
+        }
+        writeRow();
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void appendFrame(String name, long timestamp) {
+        appendField(name);
+        row.append(',');
+        if (timestamp >= 0) {
+            row.append(timestamp);
+        }
+        row.append(',');
+    }
+
+    /**
+     * Appends a text field, quoted if it contains separators or quotes
+     */
+    private void appendField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            row.append(value);
+            return;
+        }
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        row.append('"');
+    }
+
+    private void writeRow() throws IOException {
+        row.append('\n');
+        out.append(row);
+        row.setLength(0);
+    }
+}
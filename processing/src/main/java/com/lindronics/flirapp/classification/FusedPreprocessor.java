@@ -0,0 +1,398 @@
+package com.lindronics.flirapp.classification;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Fused rescale, alignment and channel merge for the model input.
+ * <p>
+ * Every output pixel is mapped straight back to RGB and FIR source coordinates,
+ * folding the resize and the alignment matrix into one transformation, and both
+ * sources are sampled bilinearly in a single pass. The mapping is precomputed as a
+ * lookup table whenever the source dimensions change.
+ * <p>
+ * Source images are ARGB pixel arrays with a one pixel zero border,
+ * see {@link #paddedLength(int, int)} and {@link #paddedOffset(int)}.
+ * Quantized models get 8 bit values looked up from the blended fixed point values.
+ * <p>
+ * Optionally only a crop of the frame is mapped to the output, see {@link #setCrop}.
+ * The FIR source can also be raw thermal levels instead of rendered pixels, see {@link #setThermalLevels}.
+ */
+public class FusedPreprocessor {
+
+    /**
+     * Number of channels in the output tensor (RGB and thermal).
+     */
+    public static final int CHANNELS = 4;
+
+    /**
+     * Maximum thermal level, the grey sum of a white FIR pixel.
+     */
+    public static final int THERMAL_LEVELS = 3 * 255;
+
+    /**
+     * Fixed point precision of the interpolation weights.
+     */
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    /**
+     * Scales blended fixed point values to [0, 1].
+     */
+    private static final float RGB_SCALE = 1f / (255 << (2 * WEIGHT_BITS));
+    private static final float FIR_SCALE = RGB_SCALE / 3;
+
+    /**
+     * Rounds blended fixed point values to 8 bit colour values and grey sums.
+     */
+    private static final int ROUND_SHIFT = 2 * WEIGHT_BITS;
+    private static final int ROUND_HALF = 1 << (ROUND_SHIFT - 1);
+
+    /**
+     * Output dimensions.
+     */
+    private final int width;
+    private final int height;
+
+    /**
+     * Maps output pixels to pixels of the RGB image rescaled to the output size.
+     */
+    private final AffineMatrix inverseAlignment;
+
+    /**
+     * Source dimensions the lookup tables were built for.
+     */
+    private int rgbWidth = -1;
+    private int rgbHeight = -1;
+    private int firWidth = -1;
+    private int firHeight = -1;
+
+    /**
+     * Crop of the aligned frame mapped to the output, relative to the frame.
+     */
+    private float cropLeft = 0;
+    private float cropTop = 0;
+    private float cropRight = 1;
+    private float cropBottom = 1;
+    private boolean cropChanged = false;
+
+    /**
+     * Whether the FIR array holds thermal levels instead of ARGB pixels.
+     */
+    private boolean thermalLevels = false;
+
+    /**
+     * Per output pixel: index of the top left source neighbour in the padded array,
+     * and the horizontal and vertical weights packed into one int.
+     */
+    private final int[] rgbIndices;
+    private final int[] rgbWeights;
+    private final int[] firIndices;
+    private final int[] firWeights;
+
+    /**
+     * @param width     Output width
+     * @param height    Output height
+     * @param alignment Matrix aligning the RGB image to the FIR image, or null for none
+     */
+    public FusedPreprocessor(int width, int height, AffineMatrix alignment) {
+        this.width = width;
+        this.height = height;
+        this.inverseAlignment = alignment == null
+                ? AffineMatrix.identity(width, height)
+                : alignment.scaledTo(width, height).inverse();
+
+        rgbIndices = new int[width * height];
+        rgbWeights = new int[width * height];
+        firIndices = new int[width * height];
+        firWeights = new int[width * height];
+    }
+
+    /**
+     * @return Length of a padded pixel array for an image of the given size
+     */
+    public static int paddedLength(int width, int height) {
+        return (width + 2) * (height + 2);
+    }
+
+    /**
+     * @return Offset of the first image pixel in a padded pixel array
+     */
+    public static int paddedOffset(int width) {
+        return width + 3;
+    }
+
+    /**
+     * @return Row stride of a padded pixel array
+     */
+    public static int paddedStride(int width) {
+        return width + 2;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Maps only a crop of the aligned frame to the output, stretching it to the output size.
+     * Takes effect at the next {@link #configure}, which rebuilds the lookup tables if the crop changed.
+     *
+     * @param left   Left edge, relative to the frame width
+     * @param top    Top edge, relative to the frame height
+     * @param right  Right edge, relative to the frame width
+     * @param bottom Bottom edge, relative to the frame height
+     */
+    public void setCrop(float left, float top, float right, float bottom) {
+        if (left != cropLeft || top != cropTop || right != cropRight || bottom != cropBottom) {
+            cropLeft = left;
+            cropTop = top;
+            cropRight = right;
+            cropBottom = bottom;
+            cropChanged = true;
+        }
+    }
+
+    /**
+     * @param thermalLevels Whether the FIR pixels passed to {@link #process} are thermal levels
+     *                      from 0 to {@link #THERMAL_LEVELS}, see {@link ThermalRange}, instead of
+     *                      rendered ARGB pixels
+     */
+    public void setThermalLevels(boolean thermalLevels) {
+        this.thermalLevels = thermalLevels;
+    }
+
+    /**
+     * Prepares the lookup tables for the given source dimensions.
+     * Does nothing if they and the crop are unchanged since the last call.
+     */
+    public void configure(int rgbWidth, int rgbHeight, int firWidth, int firHeight) {
+        if (rgbWidth != this.rgbWidth || rgbHeight != this.rgbHeight || cropChanged) {
+            this.rgbWidth = rgbWidth;
+            this.rgbHeight = rgbHeight;
+            buildRgbTable();
+        }
+        if (firWidth != this.firWidth || firHeight != this.firHeight || cropChanged) {
+            this.firWidth = firWidth;
+            this.firHeight = firHeight;
+            buildFirTable();
+        }
+        cropChanged = false;
+    }
+
+    /**
+     * @return Position of an output column in an output sized frame, taking the crop into account
+     */
+    private double frameX(int x) {
+        return cropLeft * width + (x + 0.5) * (cropRight - cropLeft) - 0.5;
+    }
+
+    /**
+     * @return Position of an output row in an output sized frame, taking the crop into account
+     */
+    private double frameY(int y) {
+        return cropTop * height + (y + 0.5) * (cropBottom - cropTop) - 0.5;
+    }
+
+    private void buildRgbTable() {
+        double scaleX = (double) rgbWidth / width;
+        double scaleY = (double) rgbHeight / height;
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Position in the rescaled image, then in the source image
+                double u = inverseAlignment.mapX(frameX(x), frameY(y));
+                double v = inverseAlignment.mapY(frameX(x), frameY(y));
+                double sourceX = (u + 0.5) * scaleX - 0.5;
+                double sourceY = (v + 0.5) * scaleY - 0.5;
+
+                // Pixels outside the image blend with the zero border
+                encode(sourceX, sourceY, rgbWidth, rgbHeight, -1, rgbIndices, rgbWeights, i++);
+            }
+        }
+    }
+
+    private void buildFirTable() {
+        double scaleX = (double) firWidth / width;
+        double scaleY = (double) firHeight / height;
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double sourceX = (frameX(x) + 0.5) * scaleX - 0.5;
+                double sourceY = (frameY(y) + 0.5) * scaleY - 0.5;
+
+                // Pixels outside the image repeat the edge
+                encode(sourceX, sourceY, firWidth, firHeight, 0, firIndices, firWeights, i++);
+            }
+        }
+    }
+
+    /**
+     * Stores the top left neighbour index and the interpolation weights of a source position.
+     *
+     * @param lowerBound -1 to blend with the zero border, 0 to clamp to the edge
+     */
+    private static void encode(double sourceX, double sourceY, int sourceWidth, int sourceHeight,
+                               int lowerBound, int[] indices, int[] weights, int i) {
+        int upperX = sourceWidth - 1 - lowerBound;
+        int upperY = sourceHeight - 1 - lowerBound;
+        sourceX = Math.max(lowerBound, Math.min(upperX, sourceX));
+        sourceY = Math.max(lowerBound, Math.min(upperY, sourceY));
+
+        int x0 = (int) Math.floor(sourceX);
+        int y0 = (int) Math.floor(sourceY);
+        int weightX = (int) Math.round((sourceX - x0) * WEIGHT_ONE);
+        int weightY = (int) Math.round((sourceY - y0) * WEIGHT_ONE);
+
+        // Keep the bottom right neighbour inside the padded array
+        if (x0 >= upperX) {
+            x0 = upperX - 1;
+            weightX = WEIGHT_ONE;
+        }
+        if (y0 >= upperY) {
+            y0 = upperY - 1;
+            weightY = WEIGHT_ONE;
+        }
+
+        indices[i] = (y0 + 1) * paddedStride(sourceWidth) + x0 + 1;
+        weights[i] = (weightX << 16) | weightY;
+    }
+
+    /**
+     * Writes all rows of the merged tensor.
+     *
+     * @param rgb Padded RGB pixels
+     * @param fir Padded FIR pixels
+     * @param out Output buffer, height * width * 4 channels
+     */
+    public void process(int[] rgb, int[] fir, FloatBuffer out) {
+        process(rgb, fir, out, 0, height);
+    }
+
+    /**
+     * Writes a range of rows of the merged tensor.
+     * Only touches the part of the output belonging to these rows.
+     *
+     * @param rgb      Padded RGB pixels
+     * @param fir      Padded FIR pixels
+     * @param out      Output buffer, height * width * 4 channels
+     * @param rowStart First row, inclusive
+     * @param rowEnd   Last row, exclusive
+     */
+    public void process(int[] rgb, int[] fir, FloatBuffer out, int rowStart, int rowEnd) {
+        int rgbStride = paddedStride(rgbWidth);
+        int firStride = paddedStride(firWidth);
+        int position = rowStart * width * CHANNELS;
+        int end = rowEnd * width;
+
+        for (int i = rowStart * width; i < end; i++) {
+            int index = rgbIndices[i];
+            int weights = rgbWeights[i];
+            int weightX = weights >>> 16;
+            int weightY = weights & 0xFFFF;
+            int p00 = rgb[index];
+            int p01 = rgb[index + 1];
+            int p10 = rgb[index + rgbStride];
+            int p11 = rgb[index + rgbStride + 1];
+
+            out.put(position++, blend((p00 >> 16) & 0xFF, (p01 >> 16) & 0xFF,
+                    (p10 >> 16) & 0xFF, (p11 >> 16) & 0xFF, weightX, weightY) * RGB_SCALE);
+            out.put(position++, blend((p00 >> 8) & 0xFF, (p01 >> 8) & 0xFF,
+                    (p10 >> 8) & 0xFF, (p11 >> 8) & 0xFF, weightX, weightY) * RGB_SCALE);
+            out.put(position++, blend(p00 & 0xFF, p01 & 0xFF,
+                    p10 & 0xFF, p11 & 0xFF, weightX, weightY) * RGB_SCALE);
+
+            index = firIndices[i];
+            weights = firWeights[i];
+            out.put(position++, blendFir(fir, index, firStride, weights) * FIR_SCALE);
+        }
+    }
+
+    /**
+     * Writes all rows of the merged tensor of a quantized model.
+     *
+     * @param rgb          Padded RGB pixels
+     * @param fir          Padded FIR pixels
+     * @param out          Output buffer, height * width * 4 channels of one byte
+     * @param quantization Quantization of the input tensor
+     */
+    public void process(int[] rgb, int[] fir, ByteBuffer out, Quantization quantization) {
+        process(rgb, fir, out, quantization, 0, height);
+    }
+
+    /**
+     * Writes a range of rows of the merged tensor of a quantized model.
+     * Only touches the part of the output belonging to these rows.
+     *
+     * @param rgb          Padded RGB pixels
+     * @param fir          Padded FIR pixels
+     * @param out          Output buffer, height * width * 4 channels of one byte
+     * @param quantization Quantization of the input tensor
+     * @param rowStart     First row, inclusive
+     * @param rowEnd       Last row, exclusive
+     */
+    public void process(int[] rgb, int[] fir, ByteBuffer out, Quantization quantization, int rowStart, int rowEnd) {
+        byte[] rgbTable = quantization.rgbTable;
+        byte[] firTable = quantization.firTable;
+        int rgbStride = paddedStride(rgbWidth);
+        int firStride = paddedStride(firWidth);
+        int position = rowStart * width * CHANNELS;
+        int end = rowEnd * width;
+
+        for (int i = rowStart * width; i < end; i++) {
+            int index = rgbIndices[i];
+            int weights = rgbWeights[i];
+            int weightX = weights >>> 16;
+            int weightY = weights & 0xFFFF;
+            int p00 = rgb[index];
+            int p01 = rgb[index + 1];
+            int p10 = rgb[index + rgbStride];
+            int p11 = rgb[index + rgbStride + 1];
+
+            out.put(position++, rgbTable[(blend((p00 >> 16) & 0xFF, (p01 >> 16) & 0xFF,
+                    (p10 >> 16) & 0xFF, (p11 >> 16) & 0xFF, weightX, weightY) + ROUND_HALF) >>> ROUND_SHIFT]);
+            out.put(position++, rgbTable[(blend((p00 >> 8) & 0xFF, (p01 >> 8) & 0xFF,
+                    (p10 >> 8) & 0xFF, (p11 >> 8) & 0xFF, weightX, weightY) + ROUND_HALF) >>> ROUND_SHIFT]);
+            out.put(position++, rgbTable[(blend(p00 & 0xFF, p01 & 0xFF,
+                    p10 & 0xFF, p11 & 0xFF, weightX, weightY) + ROUND_HALF) >>> ROUND_SHIFT]);
+
+            index = firIndices[i];
+            weights = firWeights[i];
+            out.put(position++, firTable[(blendFir(fir, index, firStride, weights) + ROUND_HALF) >>> ROUND_SHIFT]);
+        }
+    }
+
+    /**
+     * Bilinear blend of four neighbours in fixed point.
+     */
+    private static int blend(int c00, int c01, int c10, int c11, int weightX, int weightY) {
+        int top = c00 * (WEIGHT_ONE - weightX) + c01 * weightX;
+        int bottom = c10 * (WEIGHT_ONE - weightX) + c11 * weightX;
+        return top * (WEIGHT_ONE - weightY) + bottom * weightY;
+    }
+
+    /**
+     * Bilinear blend of the grey sums or thermal levels of four FIR neighbours in fixed point.
+     */
+    private int blendFir(int[] fir, int index, int firStride, int weights) {
+        if (thermalLevels) {
+            return blend(fir[index], fir[index + 1], fir[index + firStride], fir[index + firStride + 1],
+                    weights >>> 16, weights & 0xFFFF);
+        }
+        return blend(grey(fir[index]), grey(fir[index + 1]),
+                grey(fir[index + firStride]), grey(fir[index + firStride + 1]),
+                weights >>> 16, weights & 0xFFFF);
+    }
+
+    /**
+     * Sum of the colour channels of a pixel.
+     */
+    private static int grey(int pixel) {
+        return ((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF);
+    }
+}
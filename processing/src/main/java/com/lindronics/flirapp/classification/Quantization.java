@@ -0,0 +1,97 @@
+package com.lindronics.flirapp.classification;
+
+import java.util.Locale;
+
+/**
+ * Affine quantization of an 8 bit tensor: real value = scale * (raw value - zero point).
+ * <p>
+ * Holds lookup tables from 8 bit colour values and thermal grey sums straight to raw input
+ * values, so quantized inputs are packed without going through floats.
+ */
+public class Quantization {
+
+    /**
+     * Maximum grey sum of a FIR pixel, the sum of its three colour channels.
+     */
+    static final int MAX_GREY = 3 * 255;
+
+    private final float scale;
+    private final int zeroPoint;
+    private final boolean signed;
+
+    /**
+     * Raw input value of every colour value, and of every FIR grey sum.
+     */
+    final byte[] rgbTable = new byte[256];
+    final byte[] firTable = new byte[MAX_GREY + 1];
+
+    /**
+     * @param scale     Real value of one quantization step
+     * @param zeroPoint Raw value representing zero
+     * @param signed    Whether raw values are int8 rather than uint8
+     */
+    public Quantization(float scale, int zeroPoint, boolean signed) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Quantization scale must be positive, got " + scale);
+        }
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+        this.signed = signed;
+
+        // Inputs are in [0, 1], like the float inputs
+        for (int value = 0; value < rgbTable.length; value++) {
+            rgbTable[value] = quantize(value / 255f);
+        }
+        for (int grey = 0; grey < firTable.length; grey++) {
+            firTable[grey] = quantize(grey / (float) MAX_GREY);
+        }
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public int getZeroPoint() {
+        return zeroPoint;
+    }
+
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * @return The raw value closest to a real value, saturated to the 8 bit range
+     */
+    public byte quantize(float value) {
+        int raw = Math.round(value / scale) + zeroPoint;
+        int min = signed ? Byte.MIN_VALUE : 0;
+        int max = signed ? Byte.MAX_VALUE : 255;
+        return (byte) Math.max(min, Math.min(max, raw));
+    }
+
+    /**
+     * @return Raw value of a stored byte, 0 to 255 for uint8 or -128 to 127 for int8
+     */
+    public int toRaw(byte stored) {
+        return signed ? stored : stored & 0xFF;
+    }
+
+    /**
+     * @return Real value of a raw value
+     */
+    public float dequantize(int raw) {
+        return scale * (raw - zeroPoint);
+    }
+
+    /**
+     * @return Real value of a stored byte
+     */
+    public float dequantize(byte stored) {
+        return dequantize(toRaw(stored));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.UK, "%s scale %g zero point %d", signed ? "int8" : "uint8", scale, zeroPoint);
+    }
+}
@@ -0,0 +1,106 @@
+package com.lindronics.flirapp.classification;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+
+/**
+ * Pure Java reference of the staged preprocessing pipeline:
+ * rescale both images, warp the RGB image, then merge the channels.
+ * Mirrors createScaledBitmap, warpAffine and the packing loop, including the
+ * rounding to 8 bit between stages. Used to check {@link FusedPreprocessor}.
+ */
+public class ReferencePreprocessor {
+
+    private ReferencePreprocessor() {
+    }
+
+    /**
+     * Runs the staged pipeline.
+     *
+     * @param rgb       RGB pixels, without padding
+     * @param fir       FIR pixels, without padding
+     * @param alignment Matrix aligning the RGB image to the FIR image, or null for none
+     * @param out       Output array, height * width * 4 channels
+     */
+    public static void process(int[] rgb, int rgbWidth, int rgbHeight,
+                               int[] fir, int firWidth, int firHeight,
+                               AffineMatrix alignment, int width, int height, float[] out) {
+        int[] rgbRescaled = rescale(rgb, rgbWidth, rgbHeight, width, height);
+        int[] firRescaled = rescale(fir, firWidth, firHeight, width, height);
+        if (alignment != null) {
+            rgbRescaled = warp(rgbRescaled, width, height, alignment.scaledTo(width, height));
+        }
+
+        final float scale = 1 / 255f;
+        int position = 0;
+        for (int i = 0; i < width * height; i++) {
+            int rgbPixel = rgbRescaled[i];
+            int firPixel = firRescaled[i];
+            out[position++] = ((rgbPixel >> 16) & 0xFF) * scale;
+            out[position++] = ((rgbPixel >> 8) & 0xFF) * scale;
+            out[position++] = (rgbPixel & 0xFF) * scale;
+            out[position++] = (((firPixel >> 16) & 0xFF) + ((firPixel >> 8) & 0xFF) + (firPixel & 0xFF)) * scale / 3;
+        }
+    }
+
+    /**
+     * Bilinear rescale sampling at pixel centres, repeating the edge.
+     */
+    public static int[] rescale(int[] source, int sourceWidth, int sourceHeight, int width, int height) {
+        int[] result = new int[width * height];
+        double scaleX = (double) sourceWidth / width;
+        double scaleY = (double) sourceHeight / height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double sourceX = Math.max(0, Math.min(sourceWidth - 1, (x + 0.5) * scaleX - 0.5));
+                double sourceY = Math.max(0, Math.min(sourceHeight - 1, (y + 0.5) * scaleY - 0.5));
+                result[y * width + x] = sample(source, sourceWidth, sourceHeight, sourceX, sourceY);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Affine warp with bilinear sampling and a zero border, like warpAffine.
+     */
+    public static int[] warp(int[] source, int width, int height, AffineMatrix matrix) {
+        AffineMatrix inverse = matrix.inverse();
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                result[y * width + x] = sample(source, width, height, inverse.mapX(x, y), inverse.mapY(x, y));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bilinear sample of all channels, treating pixels outside the image as zero.
+     */
+    private static int sample(int[] source, int width, int height, double x, double y) {
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        double fx = x - x0;
+        double fy = y - y0;
+
+        int p00 = pixel(source, width, height, x0, y0);
+        int p01 = pixel(source, width, height, x0 + 1, y0);
+        int p10 = pixel(source, width, height, x0, y0 + 1);
+        int p11 = pixel(source, width, height, x0 + 1, y0 + 1);
+
+        int result = 0;
+        for (int shift = 0; shift <= 24; shift += 8) {
+            double top = ((p00 >> shift) & 0xFF) * (1 - fx) + ((p01 >> shift) & 0xFF) * fx;
+            double bottom = ((p10 >> shift) & 0xFF) * (1 - fx) + ((p11 >> shift) & 0xFF) * fx;
+            int value = (int) Math.round(top * (1 - fy) + bottom * fy);
+            result |= value << shift;
+        }
+        return result;
+    }
+
+    private static int pixel(int[] source, int width, int height, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        }
+        return source[y * width + x];
+    }
+}
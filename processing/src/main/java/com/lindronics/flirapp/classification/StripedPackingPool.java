@@ -0,0 +1,178 @@
+package com.lindronics.flirapp.classification;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Small fixed pool of workers running the preprocessing kernel in row stripes.
+ * <p>
+ * Rows are split into contiguous stripes of (almost) equal size, always in the same way
+ * for the same input shape, and each stripe only writes its own slice of the output buffer.
+ * The calling thread processes the first stripe itself, so n stripes use n - 1 workers.
+ * Dispatching a frame does not allocate.
+ */
+public class StripedPackingPool {
+
+    private final int numStripes;
+    private final Worker[] workers;
+
+    /**
+     * Released once by every worker that finished its stripe.
+     */
+    private final Semaphore done = new Semaphore(0);
+
+    /**
+     * Current job, published to the workers by releasing their semaphores.
+     */
+    private FusedPreprocessor preprocessor;
+    private int[] rgbPixels;
+    private int[] firPixels;
+    private FloatBuffer output;
+    private ByteBuffer quantizedOutput;
+    private Quantization quantization;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param numStripes Number of row stripes, including the one run on the calling thread
+     */
+    public StripedPackingPool(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("Need at least one stripe, got " + numStripes);
+        }
+        this.numStripes = numStripes;
+        workers = new Worker[numStripes - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i + 1);
+            workers[i].start();
+        }
+    }
+
+    public int getNumStripes() {
+        return numStripes;
+    }
+
+    /**
+     * @return First row of a stripe, inclusive. The last row is the start of the next stripe.
+     */
+    static int stripeStart(int stripe, int numStripes, int rows) {
+        return (int) ((long) rows * stripe / numStripes);
+    }
+
+    /**
+     * Writes the merged tensor using all stripes and waits until every stripe is done.
+     *
+     * @param preprocessor Configured preprocessing kernel
+     * @param rgb          Padded RGB pixels
+     * @param fir          Padded FIR pixels
+     * @param out          Output buffer
+     */
+    public synchronized void process(FusedPreprocessor preprocessor, int[] rgb, int[] fir, FloatBuffer out) {
+        this.output = out;
+        this.quantizedOutput = null;
+        this.quantization = null;
+        run(preprocessor, rgb, fir);
+    }
+
+    /**
+     * Writes the merged tensor of a quantized model using all stripes and waits until every stripe is done.
+     *
+     * @param preprocessor Configured preprocessing kernel
+     * @param rgb          Padded RGB pixels
+     * @param fir          Padded FIR pixels
+     * @param out          Output buffer
+     * @param quantization Quantization of the input tensor
+     */
+    public synchronized void process(FusedPreprocessor preprocessor, int[] rgb, int[] fir, ByteBuffer out,
+                                     Quantization quantization) {
+        this.output = null;
+        this.quantizedOutput = out;
+        this.quantization = quantization;
+        run(preprocessor, rgb, fir);
+    }
+
+    private void run(FusedPreprocessor preprocessor, int[] rgb, int[] fir) {
+        if (closed) {
+            throw new IllegalStateException("Packing pool is closed");
+        }
+        this.preprocessor = preprocessor;
+        this.rgbPixels = rgb;
+        this.firPixels = fir;
+
+        for (Worker worker : workers) {
+            worker.start.release();
+        }
+
+        RuntimeException error = null;
+        try {
+            runStripe(0);
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        done.acquireUninterruptibly(workers.length);
+
+        for (Worker worker : workers) {
+            if (error == null && worker.error != null) {
+                error = worker.error;
+            }
+            worker.error = null;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void runStripe(int stripe) {
+        int rows = preprocessor.getHeight();
+        int rowStart = stripeStart(stripe, numStripes, rows);
+        int rowEnd = stripeStart(stripe + 1, numStripes, rows);
+        if (quantization != null) {
+            preprocessor.process(rgbPixels, firPixels, quantizedOutput, quantization, rowStart, rowEnd);
+        } else {
+            preprocessor.process(rgbPixels, firPixels, output, rowStart, rowEnd);
+        }
+    }
+
+    /**
+     * Stops all workers, after waiting for a frame being processed.
+     * Every worker has then taken its start permit, so none is interrupted with a stripe pending.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private class Worker extends Thread {
+
+        private final int stripe;
+        private final Semaphore start = new Semaphore(0);
+        private RuntimeException error;
+
+        Worker(int stripe) {
+            super("packing-" + stripe);
+            this.stripe = stripe;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    start.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    runStripe(stripe);
+                } catch (RuntimeException e) {
+                    error = e;
+                } finally {
+                    done.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.lindronics.flirapp.classification;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Decides which frames need an inference and smooths the class probabilities over time.
+ * <p>
+ * The FIR image is averaged over a coarse grid. If the mean difference of the grid to the
+ * one of the last classified frame stays below the change threshold, the scene is considered
+ * static and the frame is skipped, at most a given number of times in a row.
+ * Probabilities of classified frames are exponentially smoothed, so single noisy frames do
+ * not flip the result.
+ */
+public class TemporalFilter {
+
+    private static final int MAX_GREY = 3 * 255;
+
+    private final int gridWidth;
+    private final int gridHeight;
+    private final float changeThreshold;
+    private final float smoothing;
+    private final int maxSkippedFrames;
+
+    /**
+     * Mean grey sums of the grid cells of the current frame and of the last classified frame.
+     */
+    private int[] grid;
+    private int[] reference;
+    private boolean hasReference = false;
+
+    private float[] smoothed = null;
+
+    /**
+     * Whether the FIR pixels are thermal levels instead of ARGB pixels.
+     */
+    private boolean thermalLevels = false;
+
+    private float changeScore = 0;
+    private int skippedInRow = 0;
+    private long inferred = 0;
+    private long skipped = 0;
+
+    /**
+     * @param gridWidth        Number of grid cells along x
+     * @param gridHeight       Number of grid cells along y
+     * @param changeThreshold  Mean grid difference, as a fraction of the grey range, below which
+     *                         a frame is skipped. 0 classifies every frame.
+     * @param smoothing        Weight of the newest probabilities, in (0, 1]. 1 turns smoothing off.
+     * @param maxSkippedFrames Number of frames after which a static scene is classified again
+     */
+    public TemporalFilter(int gridWidth, int gridHeight, float changeThreshold, float smoothing,
+                          int maxSkippedFrames) {
+        if (gridWidth < 1 || gridHeight < 1) {
+            throw new IllegalArgumentException("Grid needs at least one cell, got " + gridWidth + "x" + gridHeight);
+        }
+        if (!(smoothing > 0 && smoothing <= 1)) {
+            throw new IllegalArgumentException("Smoothing must be in (0, 1], got " + smoothing);
+        }
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.changeThreshold = changeThreshold;
+        this.smoothing = smoothing;
+        this.maxSkippedFrames = maxSkippedFrames;
+        grid = new int[gridWidth * gridHeight];
+        reference = new int[gridWidth * gridHeight];
+    }
+
+    /**
+     * @param thermalLevels Whether the FIR pixels are thermal levels from 0 to
+     *                      {@link FusedPreprocessor#THERMAL_LEVELS}, see {@link ThermalRange},
+     *                      instead of rendered ARGB pixels.
+     *                      Call {@link #reset()} when switching, as the reference frame is no longer comparable.
+     */
+    public void setThermalLevels(boolean thermalLevels) {
+        this.thermalLevels = thermalLevels;
+    }
+
+    /**
+     * Measures how much the scene changed since the last classified frame.
+     * If it returns true, pass the probabilities of the frame to {@link #update(float[])}.
+     *
+     * @param fir    FIR pixels, ARGB or thermal levels, see {@link #setThermalLevels(boolean)}
+     * @param width  Image width, the row stride of the pixels
+     * @param height Image height
+     * @return Whether the frame needs to be classified
+     */
+    public boolean needsInference(int[] fir, int width, int height) {
+        sample(fir, width, height);
+        if (!hasReference) {
+            changeScore = 1;
+            return true;
+        }
+
+        long difference = 0;
+        for (int i = 0; i < grid.length; i++) {
+            difference += Math.abs(grid[i] - reference[i]);
+        }
+        changeScore = (float) difference / (grid.length * MAX_GREY);
+
+        if (changeScore < changeThreshold && skippedInRow < maxSkippedFrames) {
+            skippedInRow++;
+            skipped++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Averages the grey sums or thermal levels of the pixels in every grid cell
+     */
+    private void sample(int[] fir, int width, int height) {
+        for (int cellY = 0; cellY < gridHeight; cellY++) {
+            int yStart = cellY * height / gridHeight;
+            int yEnd = Math.max(yStart + 1, (cellY + 1) * height / gridHeight);
+            for (int cellX = 0; cellX < gridWidth; cellX++) {
+                int xStart = cellX * width / gridWidth;
+                int xEnd = Math.max(xStart + 1, (cellX + 1) * width / gridWidth);
+                long sum = 0;
+                for (int y = yStart; y < yEnd; y++) {
+                    for (int x = xStart; x < xEnd; x++) {
+                        int pixel = fir[y * width + x];
+                        sum += thermalLevels ? pixel : ((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF);
+                    }
+                }
+                grid[cellY * gridWidth + cellX] = (int) (sum / ((long) (yEnd - yStart) * (xEnd - xStart)));
+            }
+        }
+    }
+
+    /**
+     * Smooths the probabilities of a classified frame, which becomes the reference for
+     * detecting changes.
+     *
+     * @param probabilities Probabilities of the frame
+     * @return Smoothed probabilities, reused by later calls
+     */
+    public float[] update(float[] probabilities) {
+        int[] previous = reference;
+        reference = grid;
+        grid = previous;
+        hasReference = true;
+        skippedInRow = 0;
+        inferred++;
+
+        if (smoothed == null || smoothed.length != probabilities.length) {
+            smoothed = probabilities.clone();
+            return smoothed;
+        }
+        for (int i = 0; i < smoothed.length; i++) {
+            smoothed[i] += smoothing * (probabilities[i] - smoothed[i]);
+        }
+        return smoothed;
+    }
+
+    /**
+     * @return Smoothed probabilities of the classified frames, or null before the first one
+     */
+    public float[] getSmoothed() {
+        return smoothed;
+    }
+
+    /**
+     * @return Change of the last frame, as a fraction of the grey range
+     */
+    public float getChangeScore() {
+        return changeScore;
+    }
+
+    public long getInferred() {
+        return inferred;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Forgets the reference frame and the smoothed probabilities, e.g. after the camera changed
+     */
+    public void reset() {
+        hasReference = false;
+        smoothed = null;
+        skippedInRow = 0;
+        Arrays.fill(reference, 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.UK, "classified %d, skipped %d, last change %.4f", inferred, skipped, changeScore);
+    }
+}
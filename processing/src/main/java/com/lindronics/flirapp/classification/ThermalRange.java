@@ -0,0 +1,107 @@
+package com.lindronics.flirapp.classification;
+
+import com.lindronics.flirapp.camera.ThermalData;
+
+import java.util.Locale;
+
+/**
+ * Temperature range mapped to the thermal channel of the model input.
+ * <p>
+ * Radiometric temperatures are clamped to the range and scaled to integer levels from 0 to
+ * {@link FusedPreprocessor#THERMAL_LEVELS}, the range of the grey sums of rendered FIR pixels,
+ * so the preprocessing kernels treat both alike. This skips rendering and colourising the
+ * FIR image, and keeps the temperatures' precision instead of the palette's.
+ */
+public class ThermalRange {
+
+    private final float minKelvin;
+    private final float maxKelvin;
+
+    /**
+     * Range in stored {@link ThermalData} values
+     */
+    private final int minStored;
+    private final int span;
+
+    /**
+     * @param minKelvin Temperature mapped to 0, colder pixels are clamped
+     * @param maxKelvin Temperature mapped to 1, warmer pixels are clamped
+     */
+    public ThermalRange(float minKelvin, float maxKelvin) {
+        if (!(maxKelvin > minKelvin)) {
+            throw new IllegalArgumentException("Empty temperature range " + minKelvin + " to " + maxKelvin);
+        }
+        this.minKelvin = minKelvin;
+        this.maxKelvin = maxKelvin;
+        minStored = Math.round((minKelvin - ThermalData.OFFSET) / ThermalData.SCALE);
+        span = Math.max(1, Math.round((maxKelvin - ThermalData.OFFSET) / ThermalData.SCALE) - minStored);
+    }
+
+    public float getMinKelvin() {
+        return minKelvin;
+    }
+
+    public float getMaxKelvin() {
+        return maxKelvin;
+    }
+
+    /**
+     * @param stored Stored temperature, see {@link ThermalData#getValues()}
+     * @return Level from 0 to {@link FusedPreprocessor#THERMAL_LEVELS}
+     */
+    public int toLevel(short stored) {
+        int value = (stored & 0xFFFF) - minStored;
+        if (value <= 0) {
+            return 0;
+        }
+        if (value >= span) {
+            return FusedPreprocessor.THERMAL_LEVELS;
+        }
+        return (value * FusedPreprocessor.THERMAL_LEVELS + span / 2) / span;
+    }
+
+    /**
+     * Converts a thermal frame into a padded array of levels, as read by {@link FusedPreprocessor}
+     * after {@link FusedPreprocessor#setThermalLevels(boolean)}.
+     *
+     * @param levels Array to reuse if it has the right size
+     * @return Array of levels, see {@link FusedPreprocessor#paddedLength(int, int)}
+     */
+    public int[] toPaddedLevels(ThermalData thermal, int[] levels) {
+        int width = thermal.getWidth();
+        int height = thermal.getHeight();
+        if (levels.length != FusedPreprocessor.paddedLength(width, height)) {
+            levels = new int[FusedPreprocessor.paddedLength(width, height)];
+        }
+        short[] values = thermal.getValues();
+        int stride = FusedPreprocessor.paddedStride(width);
+        for (int y = 0; y < height; y++) {
+            int row = FusedPreprocessor.paddedOffset(width) + y * stride;
+            for (int x = 0; x < width; x++) {
+                levels[row + x] = toLevel(values[y * width + x]);
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Converts a thermal frame into an unpadded array of levels
+     *
+     * @param levels Array to reuse if it has the right size
+     */
+    public int[] toLevels(ThermalData thermal, int[] levels) {
+        short[] values = thermal.getValues();
+        if (levels.length != values.length) {
+            levels = new int[values.length];
+        }
+        for (int i = 0; i < values.length; i++) {
+            levels[i] = toLevel(values[i]);
+        }
+        return levels;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.UK, "%.1f K to %.1f K", minKelvin, maxKelvin);
+    }
+}
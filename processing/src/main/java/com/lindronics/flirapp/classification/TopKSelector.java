@@ -0,0 +1,116 @@
+package com.lindronics.flirapp.classification;
+
+/**
+ * Picks the k highest scores from a model output without allocating.
+ * <p>
+ * A single pass keeps the best indices and scores in preallocated arrays, sorted by
+ * descending score, so the cost grows with the number of classes times k instead of
+ * boxing and sorting every class. The selector holds the result of the last selection
+ * and is reused for every frame; it is not thread safe.
+ * <p>
+ * Quantized outputs are ranked by their raw values, which are in the same order as the
+ * real values, so only the selected results need to be dequantized.
+ */
+public class TopKSelector {
+
+    private final int[] indices;
+    private final float[] scores;
+    private int count = 0;
+
+    /**
+     * @param k Maximum number of results
+     */
+    public TopKSelector(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Need at least one result, got " + k);
+        }
+        indices = new int[k];
+        scores = new float[k];
+    }
+
+    /**
+     * Selects the highest scores. Equal scores keep their order, NaN scores are ignored.
+     *
+     * @param output Model output
+     * @param offset Index of the first score in the output
+     * @param length Number of scores
+     * @return Number of selected results, k unless there are fewer scores
+     */
+    public int select(float[] output, int offset, int length) {
+        count = 0;
+        for (int i = 0; i < length; i++) {
+            float score = output[offset + i];
+            if (score == score) {
+                offer(i, score);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Selects the highest raw values of a quantized output. The scores are the raw values,
+     * see {@link Quantization#dequantize(int)}.
+     *
+     * @param output Model output
+     * @param offset Index of the first value in the output
+     * @param length Number of values
+     * @param signed Whether the values are int8 rather than uint8
+     * @return Number of selected results, k unless there are fewer values
+     */
+    public int select(byte[] output, int offset, int length, boolean signed) {
+        count = 0;
+        for (int i = 0; i < length; i++) {
+            byte stored = output[offset + i];
+            offer(i, signed ? stored : stored & 0xFF);
+        }
+        return count;
+    }
+
+    /**
+     * Inserts a score into the short sorted list, dropping the lowest if it is full
+     */
+    private void offer(int index, float score) {
+        int k = indices.length;
+        if (count == k && score <= scores[k - 1]) {
+            return;
+        }
+        int position = count < k ? count++ : k - 1;
+        while (position > 0 && scores[position - 1] < score) {
+            scores[position] = scores[position - 1];
+            indices[position] = indices[position - 1];
+            position--;
+        }
+        scores[position] = score;
+        indices[position] = index;
+    }
+
+    /**
+     * @return Number of results of the last selection
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param rank 0 for the highest score
+     * @return Class index, relative to the offset of the last selection
+     */
+    public int getIndex(int rank) {
+        checkRank(rank);
+        return indices[rank];
+    }
+
+    /**
+     * @param rank 0 for the highest score
+     */
+    public float getScore(int rank) {
+        checkRank(rank);
+        return scores[rank];
+    }
+
+    private void checkRank(int rank) {
+        if (rank < 0 || rank >= count) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " of " + count + " results");
+        }
+    }
+}
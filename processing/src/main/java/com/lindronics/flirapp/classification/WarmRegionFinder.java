@@ -0,0 +1,267 @@
+package com.lindronics.flirapp.classification;
+
+import java.util.Locale;
+
+/**
+ * Finds warm regions in a FIR image, to classify them at a higher resolution than the whole frame.
+ * <p>
+ * The image is averaged over a coarse grid. Cells warmer than the frame mean by more than the
+ * threshold are grouped into 4-connected components, which are ranked by their heat above the
+ * cutoff. The best components become crop rectangles, padded for context and widened to the
+ * aspect ratio of the model input. All buffers are preallocated and the regions are reused,
+ * so finding regions does not allocate.
+ */
+public class WarmRegionFinder {
+
+    private static final int MAX_GREY = 3 * 255;
+
+    /**
+     * Context added around a component on every side, as a fraction of its size
+     */
+    private static final float PADDING = 0.25f;
+
+    /**
+     * Minimum size of a region, as a fraction of the frame, so tiny blobs are not blown up
+     */
+    private static final float MIN_SIZE = 0.2f;
+
+    /**
+     * Crop rectangle in coordinates relative to the frame, from 0 to 1
+     */
+    public static class Region {
+        public float left;
+        public float top;
+        public float right;
+        public float bottom;
+
+        /**
+         * Sum of the heat above the cutoff over all cells of the component
+         */
+        public float score;
+
+        /**
+         * Number of grid cells of the component
+         */
+        public int cells;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.UK, "[%.2f, %.2f, %.2f, %.2f] score %.1f, %d cells",
+                    left, top, right, bottom, score, cells);
+        }
+    }
+
+    private final int gridWidth;
+    private final int gridHeight;
+    private final float threshold;
+    private final int minCells;
+
+    private final int[] grid;
+    private final int[] labels;
+    private final int[] stack;
+    private final Region[] regions;
+    private int count = 0;
+
+    /**
+     * Whether the FIR pixels are thermal levels instead of ARGB pixels.
+     */
+    private boolean thermalLevels = false;
+
+    /**
+     * @param gridWidth  Number of grid cells along x
+     * @param gridHeight Number of grid cells along y
+     * @param threshold  Heat above the frame mean, as a fraction of the grey range, for a cell to be warm
+     * @param minCells   Minimum number of cells of a region
+     * @param maxRegions Maximum number of regions returned
+     */
+    public WarmRegionFinder(int gridWidth, int gridHeight, float threshold, int minCells, int maxRegions) {
+        if (gridWidth < 1 || gridHeight < 1) {
+            throw new IllegalArgumentException("Grid needs at least one cell, got " + gridWidth + "x" + gridHeight);
+        }
+        if (maxRegions < 1) {
+            throw new IllegalArgumentException("Need at least one region, got " + maxRegions);
+        }
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.threshold = threshold;
+        this.minCells = Math.max(1, minCells);
+        grid = new int[gridWidth * gridHeight];
+        labels = new int[gridWidth * gridHeight];
+        stack = new int[gridWidth * gridHeight];
+        regions = new Region[maxRegions];
+        for (int i = 0; i < maxRegions; i++) {
+            regions[i] = new Region();
+        }
+    }
+
+    /**
+     * @param thermalLevels Whether the FIR pixels are thermal levels from 0 to
+     *                      {@link FusedPreprocessor#THERMAL_LEVELS}, see {@link ThermalRange},
+     *                      instead of rendered ARGB pixels.
+     */
+    public void setThermalLevels(boolean thermalLevels) {
+        this.thermalLevels = thermalLevels;
+    }
+
+    /**
+     * Finds the warmest regions of a frame.
+     *
+     * @param fir    FIR pixels, ARGB or thermal levels, see {@link #setThermalLevels(boolean)}
+     * @param width  Image width, the row stride of the pixels
+     * @param height Image height
+     * @param aspect Width to height ratio of the crops, in pixels, usually that of the model input
+     * @return Number of regions found, best first, see {@link #getRegion(int)}
+     */
+    public int find(int[] fir, int width, int height, float aspect) {
+        long total = sample(fir, width, height);
+        int cutoff = (int) (total / grid.length + threshold * MAX_GREY);
+
+        count = 0;
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = grid[i] > cutoff ? -1 : 0;
+        }
+        int label = 0;
+        for (int seed = 0; seed < labels.length; seed++) {
+            if (labels[seed] == -1) {
+                fill(seed, ++label, cutoff, width, height, aspect);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param rank 0 for the warmest region
+     */
+    public Region getRegion(int rank) {
+        if (rank < 0 || rank >= count) {
+            throw new IndexOutOfBoundsException("Region " + rank + " of " + count);
+        }
+        return regions[rank];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Averages the grey sums or thermal levels of the pixels in every grid cell
+     *
+     * @return Sum of all cell averages
+     */
+    private long sample(int[] fir, int width, int height) {
+        long total = 0;
+        for (int cellY = 0; cellY < gridHeight; cellY++) {
+            int yStart = cellY * height / gridHeight;
+            int yEnd = Math.max(yStart + 1, (cellY + 1) * height / gridHeight);
+            for (int cellX = 0; cellX < gridWidth; cellX++) {
+                int xStart = cellX * width / gridWidth;
+                int xEnd = Math.max(xStart + 1, (cellX + 1) * width / gridWidth);
+                long sum = 0;
+                for (int y = yStart; y < yEnd; y++) {
+                    for (int x = xStart; x < xEnd; x++) {
+                        int pixel = fir[y * width + x];
+                        sum += thermalLevels ? pixel : ((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF);
+                    }
+                }
+                int mean = (int) (sum / ((long) (yEnd - yStart) * (xEnd - xStart)));
+                grid[cellY * gridWidth + cellX] = mean;
+                total += mean;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Labels the component containing a warm cell and keeps it if it ranks among the best
+     */
+    private void fill(int seed, int label, int cutoff, int width, int height, float aspect) {
+        int minX = gridWidth;
+        int minY = gridHeight;
+        int maxX = -1;
+        int maxY = -1;
+        int cells = 0;
+        long heat = 0;
+
+        int top = 0;
+        stack[top++] = seed;
+        labels[seed] = label;
+        while (top > 0) {
+            int cell = stack[--top];
+            int x = cell % gridWidth;
+            int y = cell / gridWidth;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            cells++;
+            heat += grid[cell] - cutoff;
+
+            // Every cell is pushed once, as it is labelled when pushed
+            if (x > 0 && labels[cell - 1] == -1) {
+                labels[cell - 1] = label;
+                stack[top++] = cell - 1;
+            }
+            if (x < gridWidth - 1 && labels[cell + 1] == -1) {
+                labels[cell + 1] = label;
+                stack[top++] = cell + 1;
+            }
+            if (y > 0 && labels[cell - gridWidth] == -1) {
+                labels[cell - gridWidth] = label;
+                stack[top++] = cell - gridWidth;
+            }
+            if (y < gridHeight - 1 && labels[cell + gridWidth] == -1) {
+                labels[cell + gridWidth] = label;
+                stack[top++] = cell + gridWidth;
+            }
+        }
+
+        if (cells < minCells) {
+            return;
+        }
+        float score = heat;
+        if (count == regions.length && score <= regions[count - 1].score) {
+            return;
+        }
+
+        // Insert into the sorted regions, recycling the one that drops out
+        int position = count < regions.length ? count++ : regions.length - 1;
+        Region region = regions[position];
+        while (position > 0 && regions[position - 1].score < score) {
+            regions[position] = regions[position - 1];
+            position--;
+        }
+        regions[position] = region;
+
+        region.score = score;
+        region.cells = cells;
+        setBounds(region, (float) minX / gridWidth, (float) minY / gridHeight,
+                (float) (maxX + 1) / gridWidth, (float) (maxY + 1) / gridHeight, width, height, aspect);
+    }
+
+    /**
+     * Pads the bounding box of a component and widens it to the aspect ratio, keeping it in the frame
+     */
+    private static void setBounds(Region region, float left, float top, float right, float bottom,
+                                  int width, int height, float aspect) {
+        float centerX = (left + right) / 2;
+        float centerY = (top + bottom) / 2;
+        float sizeX = Math.max(MIN_SIZE, (right - left) * (1 + 2 * PADDING));
+        float sizeY = Math.max(MIN_SIZE, (bottom - top) * (1 + 2 * PADDING));
+
+        // Widen the narrower side, in pixels, to the aspect ratio
+        float pixelAspect = sizeX * width / (sizeY * height);
+        if (pixelAspect < aspect) {
+            sizeX = sizeY * height * aspect / width;
+        } else {
+            sizeY = sizeX * width / (aspect * height);
+        }
+        sizeX = Math.min(1, sizeX);
+        sizeY = Math.min(1, sizeY);
+
+        // Shift back into the frame
+        region.left = Math.max(0, Math.min(1 - sizeX, centerX - sizeX / 2));
+        region.top = Math.max(0, Math.min(1 - sizeY, centerY - sizeY / 2));
+        region.right = region.left + sizeX;
+        region.bottom = region.top + sizeY;
+    }
+}
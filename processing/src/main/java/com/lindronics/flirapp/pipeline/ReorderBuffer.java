@@ -0,0 +1,111 @@
+package com.lindronics.flirapp.pipeline;
+
+/**
+ * Puts results that complete out of order back into sequence order.
+ * <p>
+ * Every sequence number, starting at 0, must be either completed or skipped exactly once.
+ * A result is delivered as soon as all earlier sequence numbers are done, on the thread
+ * that completed the last missing one. At most {@code capacity} sequence numbers may be
+ * outstanding at once; the buffer is a fixed ring and does not allocate.
+ *
+ * @param <T> Type of the results
+ */
+public class ReorderBuffer<T> {
+
+    /**
+     * Receives the results in order
+     */
+    public interface Sink<T> {
+        void deliver(long sequence, T result);
+    }
+
+    private final Sink<T> sink;
+    private final Object[] results;
+    private final boolean[] done;
+    private final boolean[] skipped;
+
+    /**
+     * Next sequence number to deliver
+     */
+    private long next = 0;
+
+    public ReorderBuffer(int capacity, Sink<T> sink) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        this.sink = sink;
+        results = new Object[capacity];
+        done = new boolean[capacity];
+        skipped = new boolean[capacity];
+    }
+
+    /**
+     * Adds the result of a sequence number, delivering it and any results waiting for it
+     */
+    public synchronized void complete(long sequence, T result) {
+        int slot = claim(sequence);
+        results[slot] = result;
+        drain();
+    }
+
+    /**
+     * Marks a sequence number that will not produce a result, such as a dropped frame
+     */
+    public synchronized void skip(long sequence) {
+        int slot = claim(sequence);
+        skipped[slot] = true;
+        drain();
+    }
+
+    /**
+     * @return Next sequence number to be delivered
+     */
+    public synchronized long getNext() {
+        return next;
+    }
+
+    /**
+     * @return Number of results waiting for an earlier one
+     */
+    public synchronized int getWaiting() {
+        int waiting = 0;
+        for (boolean slotDone : done) {
+            if (slotDone) {
+                waiting++;
+            }
+        }
+        return waiting;
+    }
+
+    private int claim(long sequence) {
+        if (sequence < next || sequence >= next + results.length) {
+            throw new IllegalArgumentException("Sequence " + sequence + " outside of window ["
+                    + next + ", " + (next + results.length) + ")");
+        }
+        int slot = (int) (sequence % results.length);
+        if (done[slot]) {
+            throw new IllegalStateException("Sequence " + sequence + " already done");
+        }
+        done[slot] = true;
+        return slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        while (true) {
+            int slot = (int) (next % results.length);
+            if (!done[slot]) {
+                return;
+            }
+            T result = (T) results[slot];
+            boolean wasSkipped = skipped[slot];
+            results[slot] = null;
+            done[slot] = false;
+            skipped[slot] = false;
+            long sequence = next++;
+            if (!wasSkipped) {
+                sink.deliver(sequence, result);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.lindronics.flirapp.recording;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the RGB and FIR image pairs written by the PNG recorder,
+ * named {@code rgb_<timestamp>.png} and {@code fir_<timestamp>.png}.
+ */
+public class FramePairScanner {
+
+    private static final String RGB_PREFIX = "rgb_";
+    private static final String FIR_PREFIX = "fir_";
+    private static final String EXTENSION = ".png";
+
+    /**
+     * Timestamp format of the file names
+     */
+    private static final String TIMESTAMP_FORMAT = "yyy_MM_dd_HH_mm_ss_SSS";
+
+    private FramePairScanner() {
+    }
+
+    /**
+     * RGB and FIR image of one recorded frame
+     */
+    public static class FramePair {
+        public final File rgb;
+        public final File fir;
+
+        /**
+         * Timestamp part of the file names
+         */
+        public final String name;
+
+        /**
+         * Capture time in milliseconds since the epoch, or -1 if the name is not a timestamp
+         */
+        public final long timestamp;
+
+        FramePair(File rgb, File fir, String name, long timestamp) {
+            this.rgb = rgb;
+            this.fir = fir;
+            this.name = name;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Lists all complete pairs in a directory, ordered by name, which is capture order.
+     * Images without a partner are ignored.
+     */
+    public static List<FramePair> scan(File directory) {
+        File[] files = directory.listFiles();
+        List<FramePair> pairs = new ArrayList<>();
+        if (files == null) {
+            return pairs;
+        }
+        Arrays.sort(files);
+
+        Map<String, File> firImages = new HashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(FIR_PREFIX) && name.endsWith(EXTENSION)) {
+                firImages.put(name.substring(FIR_PREFIX.length(), name.length() - EXTENSION.length()), file);
+            }
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.ROOT);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(RGB_PREFIX) || !name.endsWith(EXTENSION)) {
+                continue;
+            }
+            String key = name.substring(RGB_PREFIX.length(), name.length() - EXTENSION.length());
+            File fir = firImages.get(key);
+            if (fir != null) {
+                pairs.add(new FramePair(file, fir, key, parseTimestamp(format, key)));
+            }
+        }
+        return pairs;
+    }
+
+    private static long parseTimestamp(SimpleDateFormat format, String name) {
+        try {
+            return format.parse(name).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.lindronics.flirapp.recording;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of raw capture sessions.
+ * <p>
+ * A session is a data file and an index file, both little endian.
+ * <p>
+ * The data file starts with {@code MAGIC, VERSION, temperature scale, temperature offset}
+ * and is followed by one record per frame: {@code FRAME_MAGIC, frame index, timestamp,
+ * thermal width, thermal height, RGB width, RGB height}, the thermal values as unsigned
+ * 16 bit integers and the visual frame as RGBA bytes, both row-major.
+ * <p>
+ * The index file starts with {@code INDEX_MAGIC, VERSION} and has one entry per frame:
+ * {@code data file offset, timestamp}. It can be rebuilt from the data file if it is lost.
+ */
+final class RawSessionFormat {
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    static final long MAGIC = 0x3157415252494C46L; // "FLIRRAW1"
+    static final long INDEX_MAGIC = 0x3158444952494C46L; // "FLIRIDX1"
+    static final int VERSION = 1;
+    static final int FRAME_MAGIC = 0x4D415246; // "FRAM"
+
+    static final int FILE_HEADER_SIZE = 8 + 4 + 4 + 4;
+    static final int INDEX_HEADER_SIZE = 8 + 4;
+    static final int FRAME_HEADER_SIZE = 4 + 4 + 8 + 2 * 4;
+    static final int INDEX_ENTRY_SIZE = 8 + 8;
+
+    private RawSessionFormat() {
+    }
+
+    static long frameSize(int thermalWidth, int thermalHeight, int rgbWidth, int rgbHeight) {
+        return FRAME_HEADER_SIZE + 2L * thermalWidth * thermalHeight + 4L * rgbWidth * rgbHeight;
+    }
+}
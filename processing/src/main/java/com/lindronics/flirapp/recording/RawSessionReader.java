@@ -0,0 +1,237 @@
+package com.lindronics.flirapp.recording;
+
+import com.lindronics.flirapp.camera.ThermalData;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads frames of a raw capture session written by {@link RawSessionWriter}.
+ * <p>
+ * Frames are located through the index file. If it is missing or shorter than the data
+ * file, for example after a crash, the index is rebuilt by scanning the frame headers.
+ */
+public class RawSessionReader implements Closeable {
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel dataChannel;
+
+    private long[] offsets = new long[64];
+    private long[] timestamps = new long[64];
+    private int frameCount = 0;
+
+    /**
+     * One frame of a session
+     */
+    public static class Frame {
+        public final int index;
+        public final long timestamp;
+        public final ThermalData thermal;
+        public final int rgbWidth;
+        public final int rgbHeight;
+
+        /**
+         * Visual frame as RGBA bytes, row-major
+         */
+        public final byte[] rgba;
+
+        Frame(int index, long timestamp, ThermalData thermal, int rgbWidth, int rgbHeight, byte[] rgba) {
+            this.index = index;
+            this.timestamp = timestamp;
+            this.thermal = thermal;
+            this.rgbWidth = rgbWidth;
+            this.rgbHeight = rgbHeight;
+            this.rgba = rgba;
+        }
+
+        /**
+         * @return Visual frame as ARGB pixels, row-major
+         */
+        public int[] getArgb() {
+            int[] pixels = new int[rgbWidth * rgbHeight];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (rgba[i * 4 + 3] & 0xFF) << 24 | (rgba[i * 4] & 0xFF) << 16
+                        | (rgba[i * 4 + 1] & 0xFF) << 8 | (rgba[i * 4 + 2] & 0xFF);
+            }
+            return pixels;
+        }
+    }
+
+    /**
+     * @param data  Data file
+     * @param index Index file, may be missing
+     */
+    public RawSessionReader(File data, File index) throws IOException {
+        dataFile = new RandomAccessFile(data, "r");
+        dataChannel = dataFile.getChannel();
+
+        ByteBuffer header = read(0, RawSessionFormat.FILE_HEADER_SIZE);
+        if (header.getLong() != RawSessionFormat.MAGIC) {
+            close();
+            throw new IOException(data + " is not a raw capture session");
+        }
+        int version = header.getInt();
+        float scale = header.getFloat();
+        float offset = header.getFloat();
+        if (version != RawSessionFormat.VERSION || scale != ThermalData.SCALE || offset != ThermalData.OFFSET) {
+            close();
+            throw new IOException("Unsupported session version " + version + " in " + data);
+        }
+
+        long scanFrom = RawSessionFormat.FILE_HEADER_SIZE;
+        if (index != null && index.exists()) {
+            scanFrom = readIndex(index);
+        }
+        scan(scanFrom);
+    }
+
+    /**
+     * Reads the index entries of frames that are complete in the data file.
+     *
+     * @return Offset after the last indexed frame
+     */
+    private long readIndex(File index) throws IOException {
+        long end = RawSessionFormat.FILE_HEADER_SIZE;
+        try (RandomAccessFile indexFile = new RandomAccessFile(index, "r")) {
+            FileChannel channel = indexFile.getChannel();
+            long entries = (channel.size() - RawSessionFormat.INDEX_HEADER_SIZE) / RawSessionFormat.INDEX_ENTRY_SIZE;
+            if (entries <= 0) {
+                return end;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) (entries * RawSessionFormat.INDEX_ENTRY_SIZE))
+                    .order(RawSessionFormat.ORDER);
+            ByteBuffer header = ByteBuffer.allocate(RawSessionFormat.INDEX_HEADER_SIZE).order(RawSessionFormat.ORDER);
+            readFully(channel, header, 0);
+            if (header.getLong(0) != RawSessionFormat.INDEX_MAGIC) {
+                return end;
+            }
+            readFully(channel, buffer, RawSessionFormat.INDEX_HEADER_SIZE);
+            buffer.flip();
+            for (int i = 0; i < entries; i++) {
+                long offset = buffer.getLong();
+                long timestamp = buffer.getLong();
+                long next = frameEnd(offset);
+                if (next < 0) {
+                    break;
+                }
+                add(offset, timestamp);
+                end = next;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Adds all complete frames from an offset to the end of the data file.
+     */
+    private void scan(long offset) throws IOException {
+        long next;
+        while ((next = frameEnd(offset)) >= 0) {
+            add(offset, read(offset + 8, 8).getLong());
+            offset = next;
+        }
+    }
+
+    /**
+     * @return End of the frame at an offset, or -1 if there is no complete frame
+     */
+    private long frameEnd(long offset) throws IOException {
+        if (offset + RawSessionFormat.FRAME_HEADER_SIZE > dataChannel.size()) {
+            return -1;
+        }
+        ByteBuffer header = read(offset, RawSessionFormat.FRAME_HEADER_SIZE);
+        if (header.getInt() != RawSessionFormat.FRAME_MAGIC) {
+            return -1;
+        }
+        header.position(16);
+        long end = offset + RawSessionFormat.frameSize(
+                header.getShort() & 0xFFFF, header.getShort() & 0xFFFF,
+                header.getShort() & 0xFFFF, header.getShort() & 0xFFFF);
+        return end <= dataChannel.size() ? end : -1;
+    }
+
+    private void add(long offset, long timestamp) {
+        if (frameCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, frameCount * 2);
+            timestamps = Arrays.copyOf(timestamps, frameCount * 2);
+        }
+        offsets[frameCount] = offset;
+        timestamps[frameCount] = timestamp;
+        frameCount++;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return Capture time of a frame in milliseconds since the epoch
+     */
+    public long getTimestamp(int frame) {
+        checkIndex(frame);
+        return timestamps[frame];
+    }
+
+    /**
+     * Reads a frame.
+     *
+     * @param frame Index of the frame, from 0 to {@link #getFrameCount()} - 1
+     */
+    public Frame read(int frame) throws IOException {
+        checkIndex(frame);
+        long offset = offsets[frame];
+        ByteBuffer header = read(offset, RawSessionFormat.FRAME_HEADER_SIZE);
+        header.position(4);
+        int index = header.getInt();
+        long timestamp = header.getLong();
+        int thermalWidth = header.getShort() & 0xFFFF;
+        int thermalHeight = header.getShort() & 0xFFFF;
+        int rgbWidth = header.getShort() & 0xFFFF;
+        int rgbHeight = header.getShort() & 0xFFFF;
+
+        offset += RawSessionFormat.FRAME_HEADER_SIZE;
+        short[] values = new short[thermalWidth * thermalHeight];
+        read(offset, 2 * values.length).asShortBuffer().get(values);
+
+        offset += 2L * values.length;
+        byte[] rgba = new byte[4 * rgbWidth * rgbHeight];
+        readFully(dataChannel, ByteBuffer.wrap(rgba), offset);
+
+        return new Frame(index, timestamp, new ThermalData(thermalWidth, thermalHeight, values),
+                rgbWidth, rgbHeight, rgba);
+    }
+
+    private void checkIndex(int frame) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+        }
+    }
+
+    private ByteBuffer read(long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(RawSessionFormat.ORDER);
+        readFully(dataChannel, buffer, offset);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of session file");
+            }
+            offset += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataFile.close();
+    }
+}
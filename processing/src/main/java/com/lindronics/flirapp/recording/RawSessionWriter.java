@@ -0,0 +1,169 @@
+package com.lindronics.flirapp.recording;
+
+import com.lindronics.flirapp.camera.ThermalData;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends frames to a raw capture session, see {@link RawSessionFormat}.
+ * <p>
+ * The data file is written through memory-mapped chunks, so appending a frame is a
+ * sequential memory copy. The file is truncated to its actual length when the session is closed.
+ * Not thread safe, frames must be appended from one thread in capture order.
+ */
+public class RawSessionWriter implements Closeable {
+
+    /**
+     * Size of the memory-mapped chunks of the data file
+     */
+    private static final long CHUNK_SIZE = 32L << 20;
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(RawSessionFormat.INDEX_ENTRY_SIZE)
+            .order(RawSessionFormat.ORDER);
+
+    /**
+     * Currently mapped chunk and the file offset it starts at
+     */
+    private MappedByteBuffer chunk;
+    private long chunkStart;
+
+    /**
+     * Offset the next frame is written to
+     */
+    private long position;
+    private int frameCount = 0;
+
+    /**
+     * Creates a new session, overwriting existing files.
+     *
+     * @param data  Data file
+     * @param index Index file
+     */
+    public RawSessionWriter(File data, File index) throws IOException {
+        dataFile = new RandomAccessFile(data, "rw");
+        dataFile.setLength(0);
+        dataChannel = dataFile.getChannel();
+
+        RandomAccessFile indexFile = new RandomAccessFile(index, "rw");
+        indexFile.setLength(0);
+        indexChannel = indexFile.getChannel();
+
+        ByteBuffer indexHeader = ByteBuffer.allocate(RawSessionFormat.INDEX_HEADER_SIZE).order(RawSessionFormat.ORDER);
+        indexHeader.putLong(RawSessionFormat.INDEX_MAGIC).putInt(RawSessionFormat.VERSION).flip();
+        writeFully(indexChannel, indexHeader);
+
+        map(0, RawSessionFormat.FILE_HEADER_SIZE);
+        chunk.putLong(RawSessionFormat.MAGIC)
+                .putInt(RawSessionFormat.VERSION)
+                .putFloat(ThermalData.SCALE)
+                .putFloat(ThermalData.OFFSET);
+        position = RawSessionFormat.FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Appends the header and thermal values of a frame, and returns the buffer to write the
+     * visual frame to. The caller must fill exactly {@code rgbWidth * rgbHeight * 4} RGBA bytes,
+     * for example with {@code Bitmap.copyPixelsToBuffer}, before appending the next frame.
+     *
+     * @param timestamp Capture time in milliseconds since the epoch
+     * @param thermal   Thermal values of the frame
+     * @return Buffer positioned at the start of the visual frame, limited to its size
+     */
+    public ByteBuffer appendFrame(long timestamp, ThermalData thermal, int rgbWidth, int rgbHeight) throws IOException {
+        long size = RawSessionFormat.frameSize(thermal.getWidth(), thermal.getHeight(), rgbWidth, rgbHeight);
+        if (position + size > chunkStart + chunk.capacity()) {
+            map(position, size);
+        }
+
+        int offset = (int) (position - chunkStart);
+        chunk.position(offset);
+        chunk.putInt(RawSessionFormat.FRAME_MAGIC)
+                .putInt(frameCount)
+                .putLong(timestamp)
+                .putShort((short) thermal.getWidth())
+                .putShort((short) thermal.getHeight())
+                .putShort((short) rgbWidth)
+                .putShort((short) rgbHeight);
+
+        ShortBuffer values = chunk.asShortBuffer();
+        values.put(thermal.getValues());
+        chunk.position(chunk.position() + 2 * thermal.getValues().length);
+
+        ByteBuffer rgb = chunk.slice();
+        rgb.limit(4 * rgbWidth * rgbHeight);
+
+        indexEntry.clear();
+        indexEntry.putLong(position).putLong(timestamp).flip();
+        writeFully(indexChannel, indexEntry);
+
+        position += size;
+        frameCount++;
+        return rgb;
+    }
+
+    /**
+     * Appends a frame with the visual frame given as ARGB pixels.
+     */
+    public void appendFrame(long timestamp, ThermalData thermal, int rgbWidth, int rgbHeight, int[] argb)
+            throws IOException {
+        ByteBuffer rgb = appendFrame(timestamp, thermal, rgbWidth, rgbHeight);
+        for (int pixel : argb) {
+            rgb.put((byte) (pixel >> 16)).put((byte) (pixel >> 8)).put((byte) pixel).put((byte) (pixel >> 24));
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return Bytes written to the data file so far
+     */
+    public long getLength() {
+        return position;
+    }
+
+    /**
+     * Maps the next chunk of the data file, starting at the given offset.
+     */
+    private void map(long start, long minimumSize) throws IOException {
+        if (chunk != null) {
+            chunk.force();
+        }
+        chunkStart = start;
+        chunk = dataChannel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(CHUNK_SIZE, minimumSize));
+        chunk.order(RawSessionFormat.ORDER);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Flushes the session and truncates the data file to the frames written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            chunk.force();
+            chunk = null;
+            dataChannel.truncate(position);
+            indexChannel.force(false);
+        } finally {
+            dataFile.close();
+            indexChannel.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.lindronics.flirapp.replay;
+
+/**
+ * Time source of a {@link Replayer}, replaceable in tests.
+ */
+public interface ReplayClock {
+
+    long nanoTime();
+
+    /**
+     * Blocks until {@link #nanoTime()} reaches the deadline.
+     */
+    void sleepUntil(long deadlineNanos) throws InterruptedException;
+
+    ReplayClock SYSTEM = new ReplayClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepUntil(long deadlineNanos) throws InterruptedException {
+            long remaining;
+            while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+                Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+        }
+    };
+}
@@ -0,0 +1,22 @@
+package com.lindronics.flirapp.replay;
+
+/**
+ * Pacing of a replayed session
+ */
+public enum ReplayMode {
+
+    /**
+     * Deliver frames with the intervals they were captured at
+     */
+    ORIGINAL,
+
+    /**
+     * Deliver frames at a fixed rate, ignoring their timestamps
+     */
+    FIXED_RATE,
+
+    /**
+     * Deliver each frame as soon as the previous one has been handled
+     */
+    AS_FAST_AS_POSSIBLE
+}
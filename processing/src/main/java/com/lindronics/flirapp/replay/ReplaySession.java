@@ -0,0 +1,24 @@
+package com.lindronics.flirapp.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Recorded frames that can be replayed in order.
+ *
+ * @param <T> Type of a loaded frame
+ */
+public interface ReplaySession<T> extends Closeable {
+
+    int getFrameCount();
+
+    /**
+     * @return Capture time of a frame in milliseconds
+     */
+    long getTimestamp(int frame);
+
+    /**
+     * Loads a frame. The caller owns the result.
+     */
+    T load(int frame) throws IOException;
+}
@@ -0,0 +1,128 @@
+package com.lindronics.flirapp.replay;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the frames of a session to a consumer, paced by a {@link ReplayMode}.
+ * <p>
+ * Each frame has a due time relative to the start of the replay. A frame that is loaded
+ * after its due time is delivered immediately and counted as late, frames are never skipped,
+ * so every run delivers the same frames in the same order.
+ *
+ * @param <T> Type of a loaded frame
+ */
+public class Replayer<T> {
+
+    private final ReplaySession<T> session;
+    private final ReplayMode mode;
+    private final long periodNanos;
+    private final int loops;
+    private final ReplayClock clock;
+
+    private volatile boolean stopped = false;
+
+    // Statistics of the last run, written by the replay thread
+    private volatile long delivered = 0;
+    private volatile long late = 0;
+    private volatile long elapsedNanos = 0;
+
+    /**
+     * @param session         Frames to replay
+     * @param mode            Pacing
+     * @param framesPerSecond Rate for {@link ReplayMode#FIXED_RATE}, ignored otherwise
+     * @param loops           Number of times to replay the session
+     * @param clock           Time source
+     */
+    public Replayer(ReplaySession<T> session, ReplayMode mode, double framesPerSecond, int loops, ReplayClock clock) {
+        if (mode == ReplayMode.FIXED_RATE && !(framesPerSecond > 0)) {
+            throw new IllegalArgumentException("Fixed rate replay needs a positive rate, got " + framesPerSecond);
+        }
+        if (loops < 1) {
+            throw new IllegalArgumentException("Need at least one loop, got " + loops);
+        }
+        this.session = session;
+        this.mode = mode;
+        this.periodNanos = mode == ReplayMode.FIXED_RATE ? Math.round(1e9 / framesPerSecond) : 0;
+        this.loops = loops;
+        this.clock = clock;
+    }
+
+    /**
+     * Replays the session on the calling thread until all frames are delivered or
+     * {@link #stop()} is called.
+     *
+     * @param consumer Receives every frame, and owns it afterwards
+     */
+    public void run(Consumer<T> consumer) throws IOException, InterruptedException {
+        int frames = session.getFrameCount();
+        if (frames == 0) {
+            return;
+        }
+        long sessionDuration = session.getTimestamp(frames - 1) - session.getTimestamp(0);
+        long meanInterval = frames > 1 ? sessionDuration / (frames - 1) : 0;
+
+        delivered = 0;
+        late = 0;
+        long start = clock.nanoTime();
+        try {
+            for (int loop = 0; loop < loops && !stopped; loop++) {
+                for (int i = 0; i < frames && !stopped; i++) {
+                    T frame = session.load(i);
+                    long due = start + dueNanos(loop, i, frames, sessionDuration + meanInterval);
+                    long now = clock.nanoTime();
+                    if (now < due) {
+                        clock.sleepUntil(due);
+                    } else if (now > due && mode != ReplayMode.AS_FAST_AS_POSSIBLE) {
+                        late++;
+                    }
+                    consumer.accept(frame);
+                    delivered++;
+                }
+            }
+        } finally {
+            elapsedNanos = clock.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @param loopDuration Duration of one loop of the session in milliseconds, for the original pacing
+     * @return Time a frame is due at, relative to the start of the replay
+     */
+    long dueNanos(int loop, int frame, int frames, long loopDuration) {
+        switch (mode) {
+            case ORIGINAL:
+                return (loop * loopDuration + session.getTimestamp(frame) - session.getTimestamp(0)) * 1_000_000;
+            case FIXED_RATE:
+                return ((long) loop * frames + frame) * periodNanos;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Stops the replay after the current frame.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return Number of frames delivered after their due time
+     */
+    public long getLate() {
+        return late;
+    }
+
+    /**
+     * @return Frames delivered per second over the last run
+     */
+    public double getFramesPerSecond() {
+        long elapsed = elapsedNanos;
+        return elapsed > 0 ? delivered * 1e9 / elapsed : 0;
+    }
+}
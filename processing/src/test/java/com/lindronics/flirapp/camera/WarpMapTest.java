@@ -0,0 +1,50 @@
+package com.lindronics.flirapp.camera;
+
+import com.lindronics.flirapp.classification.ReferencePreprocessor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WarpMapTest {
+
+    /**
+     * Matrix from transformation.txt
+     */
+    private static final AffineMatrix ALIGNMENT = new AffineMatrix(640, 460,
+            1.26197198, -0.01742265, -55.42825743,
+            0.01858547, 1.19122363, -73.72868349);
+
+    @Test
+    public void remap_matchesPerPixelWarp() {
+        int width = 160;
+        int height = 120;
+        int[] source = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                source[y * width + x] = 0xFF000000 | (x << 16) | (y << 8) | ((x + y) & 0xFF);
+            }
+        }
+
+        int[] expected = ReferencePreprocessor.warp(source, width, height, ALIGNMENT.scaledTo(width, height));
+        int[] actual = new int[width * height];
+        new WarpMap(ALIGNMENT, width, height, width, height).remap(source, actual);
+
+        // Map weights are quantised to 8 bit, so channels may be off by one or two
+        for (int i = 0; i < actual.length; i++) {
+            for (int shift = 0; shift <= 24; shift += 8) {
+                int difference = ((expected[i] >>> shift) & 0xFF) - ((actual[i] >>> shift) & 0xFF);
+                assertTrue("Pixel " + i + " differs by " + difference, Math.abs(difference) <= 2);
+            }
+        }
+    }
+
+    @Test
+    public void identity_mapsPixelCentresAcrossSizes() {
+        WarpMap map = new WarpMap(AffineMatrix.identity(640, 480), 640, 480, 320, 240);
+        assertTrue(map.matches(640, 480, 320, 240));
+        assertEquals(0.5f, map.getMapX()[0], 1e-6);
+        assertEquals(0.5f, map.getMapY()[0], 1e-6);
+        assertEquals(2.5f, map.getMapX()[1], 1e-6);
+    }
+}
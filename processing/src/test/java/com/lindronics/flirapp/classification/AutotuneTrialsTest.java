@@ -0,0 +1,37 @@
+package com.lindronics.flirapp.classification;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AutotuneTrialsTest {
+
+    @Test
+    public void getBest_picksFastestStableConfiguration() {
+        AutotuneTrials<String> trials = new AutotuneTrials<>(0.01f);
+
+        assertTrue(trials.add("CPU/1", 40_000_000, new float[]{0.2f, 0.8f}));
+        assertTrue(trials.add("CPU/4", 15_000_000, new float[]{0.2f, 0.8f}));
+        assertFalse(trials.add("GPU", 5_000_000, new float[]{0.5f, 0.5f}));
+        assertFalse(trials.add("NNAPI", 4_000_000, new float[]{Float.NaN, 0.8f}));
+        assertTrue(trials.add("XNNPACK", 12_000_000, new float[]{0.205f, 0.795f}));
+
+        assertEquals("XNNPACK", trials.getBest());
+        assertEquals(5, trials.getTrials().size());
+    }
+
+    @Test
+    public void getBest_noneWithUnusableReference() {
+        AutotuneTrials<String> trials = new AutotuneTrials<>(0.01f);
+
+        assertFalse(trials.add("CPU/1", 40_000_000, new float[]{Float.NaN}));
+
+        assertNull(trials.getBest());
+    }
+
+    @Test
+    public void median_ofOddAndEvenCounts() {
+        assertEquals(3, AutotuneTrials.median(new long[]{5, 1, 3}));
+        assertEquals(4, AutotuneTrials.median(new long[]{8, 1, 3, 5}));
+    }
+}
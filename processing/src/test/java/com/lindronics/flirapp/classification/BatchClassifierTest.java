@@ -0,0 +1,124 @@
+package com.lindronics.flirapp.classification;
+
+import com.lindronics.flirapp.recording.FramePairScanner;
+import com.lindronics.flirapp.recording.FramePairScanner.FramePair;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchClassifierTest {
+
+    private static final int FRAME_SIZE = 3;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Fake model with two classes, scoring the second class with the first input of each frame
+     */
+    private static class FakeModel implements BatchClassifier.Model {
+        private final int batchSize;
+        int runs = 0;
+
+        FakeModel(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public int getFrameSize() {
+            return FRAME_SIZE;
+        }
+
+        @Override
+        public void run(ByteBuffer input, float[] output) {
+            runs++;
+            for (int slot = 0; slot < batchSize; slot++) {
+                float score = input.getFloat(slot * FRAME_SIZE * 4);
+                output[slot * 2] = 1 - score;
+                output[slot * 2 + 1] = score;
+            }
+        }
+    }
+
+    @Test
+    public void run_writesResultsInOrderAcrossBatches() throws Exception {
+        List<FramePair> pairs = createPairs(7);
+        FakeModel model = new FakeModel(3);
+        List<String> failures = new ArrayList<>();
+        List<Integer> progress = new ArrayList<>();
+
+        BatchClassifier.Loader loader = (pair, slot) -> {
+            int index = Integer.parseInt(pair.name.substring(pair.name.length() - 3));
+            if (index == 4) {
+                throw new IOException("corrupt");
+            }
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                slot.put(i, index / 10f);
+            }
+        };
+        BatchClassifier.Listener listener = new BatchClassifier.Listener() {
+            @Override
+            public void onBatch(int processed, int total, double imagesPerSecond) {
+                assertEquals(7, total);
+                progress.add(processed);
+            }
+
+            @Override
+            public void onFailure(FramePair pair, IOException e) {
+                failures.add(pair.name);
+            }
+        };
+
+        StringWriter csv = new StringWriter();
+        BatchClassifier.Summary summary;
+        try (BatchClassifier classifier = new BatchClassifier(model, loader, 3)) {
+            summary = classifier.run(pairs, new ClassificationCsvWriter(csv, Arrays.asList("empty", "animal"), false), listener);
+        }
+
+        assertEquals(7, summary.frames);
+        assertEquals(1, summary.failed);
+        assertEquals(3, model.runs);
+        assertEquals(Arrays.asList(3, 6, 7), progress);
+        assertEquals(Arrays.asList(pairs.get(4).name), failures);
+
+        String[] rows = csv.toString().split("\n");
+        assertEquals(8, rows.length);
+        assertEquals("name,timestamp,prediction,confidence,empty,animal", rows[0]);
+        for (int i = 0; i < 7; i++) {
+            String[] fields = rows[i + 1].split(",", -1);
+            assertEquals(pairs.get(i).name, fields[0]);
+            if (i == 4) {
+                assertEquals("", fields[2]);
+            } else {
+                assertEquals(i > 5 ? "animal" : "empty", fields[2]);
+                assertEquals(i / 10f, Float.parseFloat(fields[5]), 1e-6f);
+            }
+        }
+    }
+
+    private List<FramePair> createPairs(int count) throws IOException {
+        File directory = folder.newFolder("recording");
+        for (int i = 0; i < count; i++) {
+            String name = String.format("2020_03_19_16_20_34_%03d.png", i);
+            assertTrue(new File(directory, "rgb_" + name).createNewFile());
+            assertTrue(new File(directory, "fir_" + name).createNewFile());
+        }
+        return FramePairScanner.scan(directory);
+    }
+}
@@ -0,0 +1,39 @@
+package com.lindronics.flirapp.classification;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ClassificationCsvWriterTest {
+
+    @Test
+    public void write_binaryClassifierExpandsToBothLabels() throws Exception {
+        StringWriter out = new StringWriter();
+        ClassificationCsvWriter writer = new ClassificationCsvWriter(out, Arrays.asList("empty", "animal"), true);
+
+        writer.write("a", 1000, new float[]{0.25f, 0.75f}, 1);
+        writer.write("b", -1, new float[]{0.25f}, 0);
+
+        assertEquals(1, writer.getOutputSize());
+        assertEquals("name,timestamp,prediction,confidence,empty,animal\n"
+                + "a,1000,animal,0.75,0.25,0.75\n"
+                + "b,,empty,0.75,0.75,0.25\n", out.toString());
+    }
+
+    @Test
+    public void write_quotesLabelsAndLeavesFailuresEmpty() throws Exception {
+        StringWriter out = new StringWriter();
+        ClassificationCsvWriter writer = new ClassificationCsvWriter(out,
+                Arrays.asList("cat", "dog, \"large\"", "fox"), false);
+
+        writer.write("a", 5, new float[]{0.1f, 0.7f, 0.2f}, 0);
+        writer.writeFailure("b", 6);
+
+        assertEquals("name,timestamp,prediction,confidence,cat,\"dog, \"\"large\"\"\",fox\n"
+                + "a,5,\"dog, \"\"large\"\"\",0.7,0.1,0.7,0.2\n"
+                + "b,6,,,,,\n", out.toString());
+    }
+}
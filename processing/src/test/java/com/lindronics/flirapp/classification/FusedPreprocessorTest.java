@@ -0,0 +1,232 @@
+package com.lindronics.flirapp.classification;
+
+import com.lindronics.flirapp.camera.AffineMatrix;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the fused preprocessing kernel against the staged reference pipeline.
+ */
+public class FusedPreprocessorTest {
+
+    /**
+     * Matrix from transformation.txt
+     */
+    private static final AffineMatrix ALIGNMENT = new AffineMatrix(640, 460,
+            1.26197198, -0.01742265, -55.42825743,
+            0.01858547, 1.19122363, -73.72868349);
+
+    @Test
+    public void matchesStagedPipeline_withAlignment() {
+        assertMatchesReference(640, 480, 160, 120, 224, 224, ALIGNMENT);
+    }
+
+    @Test
+    public void matchesStagedPipeline_withoutAlignment() {
+        assertMatchesReference(640, 480, 640, 480, 96, 128, null);
+    }
+
+    @Test
+    public void identityAtSourceSize_copiesPixels() {
+        int width = 8;
+        int height = 6;
+        int[] rgb = syntheticImage(width, height, 1);
+        int[] fir = syntheticImage(width, height, 2);
+
+        FusedPreprocessor preprocessor = new FusedPreprocessor(width, height, null);
+        preprocessor.configure(width, height, width, height);
+        float[] fused = new float[width * height * FusedPreprocessor.CHANNELS];
+        preprocessor.process(pad(rgb, width, height), pad(fir, width, height), FloatBuffer.wrap(fused));
+
+        for (int i = 0; i < width * height; i++) {
+            assertEquals(((rgb[i] >> 16) & 0xFF) / 255f, fused[i * 4], 1e-6);
+            assertEquals((rgb[i] & 0xFF) / 255f, fused[i * 4 + 2], 1e-6);
+        }
+    }
+
+    @Test
+    public void rowRanges_writeOnlyTheirRows() {
+        int width = 32;
+        int height = 24;
+        int[] rgb = pad(syntheticImage(64, 48, 3), 64, 48);
+        int[] fir = pad(syntheticImage(64, 48, 4), 64, 48);
+
+        FusedPreprocessor preprocessor = new FusedPreprocessor(width, height, ALIGNMENT);
+        preprocessor.configure(64, 48, 64, 48);
+
+        float[] whole = new float[width * height * 4];
+        preprocessor.process(rgb, fir, FloatBuffer.wrap(whole));
+
+        float[] striped = new float[width * height * 4];
+        preprocessor.process(rgb, fir, FloatBuffer.wrap(striped), 0, 10);
+        assertEquals(0f, striped[10 * width * 4], 0);
+        preprocessor.process(rgb, fir, FloatBuffer.wrap(striped), 10, height);
+
+        assertArrayEquals(whole, striped, 0);
+    }
+
+    @Test
+    public void quantized_matchesQuantizedFloatOutput() {
+        int width = 64;
+        int height = 48;
+        int[] rgb = pad(syntheticImage(640, 480, 7), 640, 480);
+        int[] fir = pad(syntheticImage(160, 120, 8), 160, 120);
+
+        FusedPreprocessor preprocessor = new FusedPreprocessor(width, height, ALIGNMENT);
+        preprocessor.configure(640, 480, 160, 120);
+        float[] floats = new float[width * height * 4];
+        preprocessor.process(rgb, fir, FloatBuffer.wrap(floats));
+
+        for (Quantization quantization : new Quantization[]{
+                new Quantization(1 / 255f, 0, false), new Quantization(1 / 255f, -128, true)}) {
+            ByteBuffer bytes = ByteBuffer.allocate(width * height * 4);
+            preprocessor.process(rgb, fir, bytes, quantization, 0, 20);
+            preprocessor.process(rgb, fir, bytes, quantization, 20, height);
+
+            // Rounding to 8 bit before the lookup may move a value by one step
+            for (int i = 0; i < floats.length; i++) {
+                int expected = quantization.toRaw(quantization.quantize(floats[i]));
+                int actual = quantization.toRaw(bytes.get(i));
+                assertEquals("Value " + i, expected, actual, 1);
+            }
+        }
+    }
+
+    @Test
+    public void crop_matchesDownscaledPartOfFrame() {
+        int width = 8;
+        int height = 6;
+        int[] rgb = syntheticImage(2 * width, 2 * height, 9);
+        int[] fir = syntheticImage(2 * width, 2 * height, 10);
+
+        // The bottom right quarter of a frame at twice the output size maps pixels one to one
+        FusedPreprocessor preprocessor = new FusedPreprocessor(width, height, null);
+        preprocessor.setCrop(0.5f, 0.5f, 1f, 1f);
+        preprocessor.configure(2 * width, 2 * height, 2 * width, 2 * height);
+        float[] cropped = new float[width * height * 4];
+        preprocessor.process(pad(rgb, 2 * width, 2 * height), pad(fir, 2 * width, 2 * height), FloatBuffer.wrap(cropped));
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int source = rgb[(y + height) * 2 * width + x + width];
+                assertEquals(((source >> 16) & 0xFF) / 255f, cropped[(y * width + x) * 4], 1e-6);
+                assertEquals((source & 0xFF) / 255f, cropped[(y * width + x) * 4 + 2], 1e-6);
+            }
+        }
+
+        // Resetting the crop gives the whole frame again
+        preprocessor.setCrop(0, 0, 1, 1);
+        preprocessor.configure(2 * width, 2 * height, 2 * width, 2 * height);
+        float[] whole = new float[width * height * 4];
+        preprocessor.process(pad(rgb, 2 * width, 2 * height), pad(fir, 2 * width, 2 * height), FloatBuffer.wrap(whole));
+        FusedPreprocessor fresh = new FusedPreprocessor(width, height, null);
+        fresh.configure(2 * width, 2 * height, 2 * width, 2 * height);
+        float[] expected = new float[width * height * 4];
+        fresh.process(pad(rgb, 2 * width, 2 * height), pad(fir, 2 * width, 2 * height), FloatBuffer.wrap(expected));
+        assertArrayEquals(expected, whole, 0);
+    }
+
+    @Test
+    public void thermalLevels_matchGreySumsOfRenderedPixels() {
+        int width = 48;
+        int height = 36;
+        int[] rgb = pad(syntheticImage(64, 48, 7), 64, 48);
+        int[] fir = syntheticImage(32, 24, 8);
+        int[] levels = new int[fir.length];
+        for (int i = 0; i < fir.length; i++) {
+            levels[i] = ((fir[i] >> 16) & 0xFF) + ((fir[i] >> 8) & 0xFF) + (fir[i] & 0xFF);
+        }
+
+        FusedPreprocessor preprocessor = new FusedPreprocessor(width, height, ALIGNMENT);
+        preprocessor.configure(64, 48, 32, 24);
+        float[] rendered = new float[width * height * 4];
+        preprocessor.process(rgb, pad(fir, 32, 24), FloatBuffer.wrap(rendered));
+        byte[] renderedQuantized = new byte[width * height * 4];
+        Quantization quantization = new Quantization(1 / 255f, 0, false);
+        preprocessor.process(rgb, pad(fir, 32, 24), ByteBuffer.wrap(renderedQuantized), quantization);
+
+        preprocessor.setThermalLevels(true);
+        float[] thermal = new float[width * height * 4];
+        preprocessor.process(rgb, pad(levels, 32, 24), FloatBuffer.wrap(thermal));
+        byte[] thermalQuantized = new byte[width * height * 4];
+        preprocessor.process(rgb, pad(levels, 32, 24), ByteBuffer.wrap(thermalQuantized), quantization);
+
+        assertArrayEquals(rendered, thermal, 0f);
+        assertArrayEquals(renderedQuantized, thermalQuantized);
+    }
+
+    @Test
+    public void scaledMatrix_roundTripsThroughInverse() {
+        AffineMatrix scaled = ALIGNMENT.scaledTo(224, 224);
+        AffineMatrix inverse = scaled.inverse();
+        double x = scaled.mapX(100, 50);
+        double y = scaled.mapY(100, 50);
+        assertEquals(100, inverse.mapX(x, y), 1e-9);
+        assertEquals(50, inverse.mapY(x, y), 1e-9);
+    }
+
+    private static void assertMatchesReference(int rgbWidth, int rgbHeight, int firWidth, int firHeight,
+                                               int width, int height, AffineMatrix alignment) {
+        int[] rgb = syntheticImage(rgbWidth, rgbHeight, 5);
+        int[] fir = syntheticImage(firWidth, firHeight, 6);
+
+        float[] expected = new float[width * height * 4];
+        ReferencePreprocessor.process(rgb, rgbWidth, rgbHeight, fir, firWidth, firHeight,
+                alignment, width, height, expected);
+
+        FusedPreprocessor preprocessor = new FusedPreprocessor(width, height, alignment);
+        preprocessor.configure(rgbWidth, rgbHeight, firWidth, firHeight);
+        float[] fused = new float[width * height * 4];
+        preprocessor.process(pad(rgb, rgbWidth, rgbHeight), pad(fir, firWidth, firHeight), FloatBuffer.wrap(fused));
+
+        // Staged pipeline rounds to 8 bit and interpolates twice, so allow a small error
+        // away from the image border and a tighter mean error overall
+        double totalError = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int c = 0; c < 4; c++) {
+                    int i = (y * width + x) * 4 + c;
+                    double error = Math.abs(expected[i] - fused[i]);
+                    totalError += error;
+                    boolean interior = x > 1 && y > 1 && x < width - 2 && y < height - 2;
+                    if (interior && error > 0.03) {
+                        fail("Pixel " + x + "," + y + " channel " + c + " differs by " + error);
+                    }
+                }
+            }
+        }
+        assertTrue(totalError / expected.length < 0.01);
+    }
+
+    /**
+     * Smooth test pattern with a different phase per channel.
+     */
+    private static int[] syntheticImage(int width, int height, int seed) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double u = (double) x / width;
+                double v = (double) y / height;
+                int r = (int) (127.5 + 127.5 * Math.sin(2 * Math.PI * (u + 0.1 * seed)));
+                int g = (int) (255 * v);
+                int b = (int) (127.5 + 127.5 * Math.cos(2 * Math.PI * (u * v + 0.2 * seed)));
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] pad(int[] pixels, int width, int height) {
+        int[] padded = new int[FusedPreprocessor.paddedLength(width, height)];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, y * width, padded,
+                    FusedPreprocessor.paddedOffset(width) + y * FusedPreprocessor.paddedStride(width), width);
+        }
+        return padded;
+    }
+}
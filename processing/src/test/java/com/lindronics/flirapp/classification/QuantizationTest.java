@@ -0,0 +1,44 @@
+package com.lindronics.flirapp.classification;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QuantizationTest {
+
+    @Test
+    public void quantize_roundsAndSaturates() {
+        Quantization uint8 = new Quantization(1 / 255f, 0, false);
+        assertEquals(0, uint8.toRaw(uint8.quantize(-0.5f)));
+        assertEquals(51, uint8.toRaw(uint8.quantize(0.2f)));
+        assertEquals(255, uint8.toRaw(uint8.quantize(2f)));
+
+        Quantization int8 = new Quantization(1 / 255f, -128, true);
+        assertEquals(-128, int8.toRaw(int8.quantize(0f)));
+        assertEquals(127, int8.toRaw(int8.quantize(1f)));
+    }
+
+    @Test
+    public void dequantize_invertsQuantize() {
+        Quantization quantization = new Quantization(0.00390625f, 0, false);
+        for (int raw = 0; raw < 256; raw++) {
+            float value = quantization.dequantize(raw);
+            assertEquals(raw, quantization.toRaw(quantization.quantize(value)));
+        }
+        assertEquals(0.5f, quantization.dequantize((byte) 128), 0f);
+    }
+
+    @Test
+    public void tables_coverInputRange() {
+        Quantization quantization = new Quantization(1 / 255f, 0, false);
+        assertEquals(0, quantization.toRaw(quantization.rgbTable[0]));
+        assertEquals(255, quantization.toRaw(quantization.rgbTable[255]));
+        assertEquals(255, quantization.toRaw(quantization.firTable[Quantization.MAX_GREY]));
+        assertEquals(85, quantization.toRaw(quantization.firTable[255]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveScale() {
+        new Quantization(0f, 0, false);
+    }
+}
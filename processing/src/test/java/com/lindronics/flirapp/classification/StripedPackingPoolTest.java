@@ -0,0 +1,87 @@
+package com.lindronics.flirapp.classification;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class StripedPackingPoolTest {
+
+    @Test
+    public void stripes_coverAllRowsWithoutOverlap() {
+        int rows = 227;
+        int stripes = 3;
+        assertEquals(0, StripedPackingPool.stripeStart(0, stripes, rows));
+        assertEquals(rows, StripedPackingPool.stripeStart(stripes, stripes, rows));
+        for (int i = 0; i < stripes; i++) {
+            int size = StripedPackingPool.stripeStart(i + 1, stripes, rows) - StripedPackingPool.stripeStart(i, stripes, rows);
+            assertTrue(size == rows / stripes || size == rows / stripes + 1);
+        }
+    }
+
+    @Test
+    public void parallelPacking_matchesSingleThread() {
+        int sourceWidth = 64;
+        int sourceHeight = 48;
+        int[] rgb = new int[FusedPreprocessor.paddedLength(sourceWidth, sourceHeight)];
+        int[] fir = new int[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = i * 0x9E3779B1;
+            fir[i] = i * 7;
+        }
+
+        FusedPreprocessor preprocessor = new FusedPreprocessor(37, 29, null);
+        preprocessor.configure(sourceWidth, sourceHeight, sourceWidth, sourceHeight);
+
+        float[] expected = new float[37 * 29 * 4];
+        preprocessor.process(rgb, fir, FloatBuffer.wrap(expected));
+
+        StripedPackingPool pool = new StripedPackingPool(4);
+        try {
+            for (int run = 0; run < 10; run++) {
+                float[] actual = new float[expected.length];
+                pool.process(preprocessor, rgb, fir, FloatBuffer.wrap(actual));
+                assertArrayEquals(expected, actual, 0);
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void close_duringProcessing_doesNotHang() throws Exception {
+        int[] pixels = new int[FusedPreprocessor.paddedLength(64, 48)];
+        FusedPreprocessor preprocessor = new FusedPreprocessor(64, 48, null);
+        preprocessor.configure(64, 48, 64, 48);
+        float[] output = new float[64 * 48 * 4];
+
+        for (int attempt = 0; attempt < 20; attempt++) {
+            StripedPackingPool pool = new StripedPackingPool(4);
+            Thread packer = new Thread(() -> {
+                try {
+                    while (true) {
+                        pool.process(preprocessor, pixels, pixels, FloatBuffer.wrap(output));
+                    }
+                } catch (IllegalStateException closed) {
+                    // Expected once the pool is closed
+                }
+            });
+            packer.start();
+            Thread.sleep(1);
+            pool.close();
+            packer.join(5000);
+            assertFalse(packer.isAlive());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void process_afterClose_throws() {
+        StripedPackingPool pool = new StripedPackingPool(2);
+        pool.close();
+        FusedPreprocessor preprocessor = new FusedPreprocessor(4, 4, null);
+        preprocessor.configure(4, 4, 4, 4);
+        int[] pixels = new int[FusedPreprocessor.paddedLength(4, 4)];
+        pool.process(preprocessor, pixels, pixels, FloatBuffer.wrap(new float[4 * 4 * 4]));
+    }
+}
@@ -0,0 +1,117 @@
+package com.lindronics.flirapp.classification;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TemporalFilterTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    @Test
+    public void needsInference_skipsStaticScene() {
+        TemporalFilter filter = new TemporalFilter(4, 3, 0.01f, 1f, 10);
+        int[] frame = image(100);
+
+        assertTrue(filter.needsInference(frame, WIDTH, HEIGHT));
+        filter.update(new float[]{0.5f, 0.5f});
+
+        // Sensor noise of one grey level stays below the threshold
+        frame[5] += 0x010101;
+        assertFalse(filter.needsInference(frame, WIDTH, HEIGHT));
+        assertEquals(1, filter.getSkipped());
+
+        // A warm object entering a quarter of the image does not
+        int[] changed = image(100);
+        Arrays.fill(changed, 0, WIDTH * HEIGHT / 4, grey(200));
+        assertTrue(filter.needsInference(changed, WIDTH, HEIGHT));
+        assertTrue(filter.getChangeScore() > 0.01f);
+    }
+
+    @Test
+    public void needsInference_comparesToLastClassifiedFrame() {
+        TemporalFilter filter = new TemporalFilter(1, 1, 0.01f, 1f, 10);
+        filter.needsInference(image(100), WIDTH, HEIGHT);
+        filter.update(new float[]{1});
+
+        // Slow drift adds up until it crosses the threshold
+        assertFalse(filter.needsInference(image(101), WIDTH, HEIGHT));
+        assertFalse(filter.needsInference(image(102), WIDTH, HEIGHT));
+        assertTrue(filter.needsInference(image(104), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void needsInference_refreshesAfterMaxSkippedFrames() {
+        TemporalFilter filter = new TemporalFilter(2, 2, 0.5f, 1f, 2);
+        int[] frame = image(50);
+        filter.needsInference(frame, WIDTH, HEIGHT);
+        filter.update(new float[]{1});
+
+        assertFalse(filter.needsInference(frame, WIDTH, HEIGHT));
+        assertFalse(filter.needsInference(frame, WIDTH, HEIGHT));
+        assertTrue(filter.needsInference(frame, WIDTH, HEIGHT));
+        filter.update(new float[]{1});
+        assertFalse(filter.needsInference(frame, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void zeroThreshold_classifiesEveryFrame() {
+        TemporalFilter filter = new TemporalFilter(2, 2, 0f, 1f, 100);
+        int[] frame = image(50);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(filter.needsInference(frame, WIDTH, HEIGHT));
+            filter.update(new float[]{1});
+        }
+        assertEquals(0, filter.getSkipped());
+    }
+
+    @Test
+    public void update_smoothsExponentially() {
+        TemporalFilter filter = new TemporalFilter(1, 1, 0f, 0.25f, 0);
+        int[] frame = image(0);
+
+        filter.needsInference(frame, WIDTH, HEIGHT);
+        assertArrayEquals(new float[]{1, 0}, filter.update(new float[]{1, 0}), 1e-6f);
+        filter.needsInference(frame, WIDTH, HEIGHT);
+        assertArrayEquals(new float[]{0.75f, 0.25f}, filter.update(new float[]{0, 1}), 1e-6f);
+        assertEquals(2, filter.getInferred());
+
+        filter.reset();
+        filter.needsInference(frame, WIDTH, HEIGHT);
+        assertArrayEquals(new float[]{0, 1}, filter.update(new float[]{0, 1}), 1e-6f);
+    }
+
+    @Test
+    public void thermalLevels_areComparedLikeGreySums() {
+        TemporalFilter filter = new TemporalFilter(4, 3, 0.01f, 1f, 10);
+        filter.setThermalLevels(true);
+        int[] frame = new int[WIDTH * HEIGHT];
+        Arrays.fill(frame, 300);
+
+        assertTrue(filter.needsInference(frame, WIDTH, HEIGHT));
+        filter.update(new float[]{1});
+
+        frame[5] += 3;
+        assertFalse(filter.needsInference(frame, WIDTH, HEIGHT));
+        Arrays.fill(frame, 0, WIDTH * HEIGHT / 4, 600);
+        assertTrue(filter.needsInference(frame, WIDTH, HEIGHT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsZeroSmoothing() {
+        new TemporalFilter(1, 1, 0f, 0f, 0);
+    }
+
+    private static int[] image(int value) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, grey(value));
+        return pixels;
+    }
+
+    private static int grey(int value) {
+        return 0xFF000000 | (value << 16) | (value << 8) | value;
+    }
+}
@@ -0,0 +1,56 @@
+package com.lindronics.flirapp.classification;
+
+import com.lindronics.flirapp.camera.ThermalData;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThermalRangeTest {
+
+    @Test
+    public void toLevels_clampsAndScalesToGreyRange() {
+        ThermalRange range = new ThermalRange(280f, 320f);
+        ThermalData thermal = ThermalData.fromKelvin(5, 1, new double[]{250, 280, 300, 320, 400});
+
+        int[] levels = range.toLevels(thermal, new int[0]);
+
+        assertArrayEquals(new int[]{0, 0, FusedPreprocessor.THERMAL_LEVELS / 2 + 1,
+                FusedPreprocessor.THERMAL_LEVELS, FusedPreprocessor.THERMAL_LEVELS}, levels);
+    }
+
+    @Test
+    public void toLevel_isMonotonic() {
+        ThermalRange range = new ThermalRange(290f, 310f);
+        int previous = 0;
+        for (double kelvin = 289; kelvin < 311; kelvin += 0.01) {
+            int level = range.toLevel(ThermalData.fromKelvin(1, 1, new double[]{kelvin}).getValues()[0]);
+            assertTrue(level >= previous);
+            previous = level;
+        }
+        assertEquals(FusedPreprocessor.THERMAL_LEVELS, previous);
+    }
+
+    @Test
+    public void toPaddedLevels_leavesZeroBorderAndReusesArray() {
+        ThermalRange range = new ThermalRange(200f, 300f);
+        ThermalData thermal = ThermalData.fromKelvin(3, 2, new double[]{300, 300, 300, 300, 300, 300});
+
+        int[] padded = range.toPaddedLevels(thermal, new int[0]);
+        assertEquals(FusedPreprocessor.paddedLength(3, 2), padded.length);
+        int offset = FusedPreprocessor.paddedOffset(3);
+        int stride = FusedPreprocessor.paddedStride(3);
+        for (int y = -1; y <= 2; y++) {
+            for (int x = -1; x <= 3; x++) {
+                boolean inside = x >= 0 && x < 3 && y >= 0 && y < 2;
+                assertEquals(inside ? FusedPreprocessor.THERMAL_LEVELS : 0, padded[offset + y * stride + x]);
+            }
+        }
+        assertSame(padded, range.toPaddedLevels(thermal, padded));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsEmptyRange() {
+        new ThermalRange(300f, 300f);
+    }
+}
@@ -0,0 +1,88 @@
+package com.lindronics.flirapp.classification;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TopKSelectorTest {
+
+    @Test
+    public void select_matchesFullSort() {
+        Random random = new Random(42);
+        float[] output = new float[1000];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = random.nextFloat();
+        }
+        Integer[] order = new Integer[output.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer i) -> output[i]).reversed());
+
+        TopKSelector selector = new TopKSelector(5);
+        assertEquals(5, selector.select(output, 0, output.length));
+        for (int rank = 0; rank < 5; rank++) {
+            assertEquals((int) order[rank], selector.getIndex(rank));
+            assertEquals(output[order[rank]], selector.getScore(rank), 0f);
+        }
+    }
+
+    @Test
+    public void select_fewerScoresThanK() {
+        TopKSelector selector = new TopKSelector(3);
+
+        assertEquals(2, selector.select(new float[]{0.3f, 0.7f}, 0, 2));
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(0, selector.getIndex(1));
+    }
+
+    @Test
+    public void select_usesOffsetAndSkipsNaN() {
+        TopKSelector selector = new TopKSelector(2);
+        float[] batch = {0.9f, 0.1f, 0.2f, Float.NaN, 0.5f, 0.5f};
+
+        assertEquals(2, selector.select(batch, 3, 3));
+
+        // Indices are relative to the offset, ties keep their order
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(2, selector.getIndex(1));
+    }
+
+    @Test
+    public void select_isReusable() {
+        TopKSelector selector = new TopKSelector(2);
+        selector.select(new float[]{0.1f, 0.8f, 0.3f}, 0, 3);
+
+        assertEquals(1, selector.select(new float[]{0.4f}, 0, 1));
+        assertEquals(0, selector.getIndex(0));
+        assertEquals(0.4f, selector.getScore(0), 0f);
+    }
+
+    @Test
+    public void select_ranksRawQuantizedValues() {
+        TopKSelector selector = new TopKSelector(2);
+
+        // uint8 values above 127 are negative as Java bytes
+        assertEquals(2, selector.select(new byte[]{10, (byte) 200, (byte) 130, 90}, 0, 4, false));
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(200f, selector.getScore(0), 0f);
+        assertEquals(2, selector.getIndex(1));
+
+        selector.select(new byte[]{-100, 5, -3}, 0, 3, true);
+        assertEquals(1, selector.getIndex(0));
+        assertEquals(2, selector.getIndex(1));
+        assertEquals(-3f, selector.getScore(1), 0f);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getIndex_beyondCount() {
+        TopKSelector selector = new TopKSelector(3);
+        selector.select(new float[]{0.4f}, 0, 1);
+
+        selector.getIndex(1);
+    }
+}
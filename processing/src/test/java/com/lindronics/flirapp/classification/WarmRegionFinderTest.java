@@ -0,0 +1,87 @@
+package com.lindronics.flirapp.classification;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WarmRegionFinderTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void find_ranksBlobsByHeat() {
+        int[] fir = background();
+        fillRect(fir, 4, 4, 8, 8, 220);
+        fillRect(fir, 40, 24, 16, 16, 200);
+
+        WarmRegionFinder finder = new WarmRegionFinder(16, 12, 0.1f, 1, 3);
+        assertEquals(2, finder.find(fir, WIDTH, HEIGHT, 1f));
+
+        // The large blob holds more heat than the small, hotter one
+        WarmRegionFinder.Region large = finder.getRegion(0);
+        assertTrue(large.left <= 40f / WIDTH && large.right >= 56f / WIDTH);
+        assertTrue(large.top <= 24f / HEIGHT && large.bottom >= 40f / HEIGHT);
+        assertEquals(16, large.cells);
+
+        WarmRegionFinder.Region small = finder.getRegion(1);
+        assertTrue(small.left <= 4f / WIDTH && small.right >= 12f / WIDTH);
+        assertTrue(small.score < large.score);
+    }
+
+    @Test
+    public void find_keepsOnlyBestRegions() {
+        int[] fir = background();
+        fillRect(fir, 0, 0, 4, 4, 200);
+        fillRect(fir, 20, 0, 8, 8, 200);
+        fillRect(fir, 44, 28, 12, 12, 200);
+
+        WarmRegionFinder finder = new WarmRegionFinder(16, 12, 0.1f, 1, 2);
+        assertEquals(2, finder.find(fir, WIDTH, HEIGHT, 1f));
+        assertEquals(9, finder.getRegion(0).cells);
+        assertEquals(4, finder.getRegion(1).cells);
+    }
+
+    @Test
+    public void find_dropsSmallComponentsAndUniformFrames() {
+        int[] fir = background();
+        fillRect(fir, 8, 8, 4, 4, 250);
+
+        WarmRegionFinder finder = new WarmRegionFinder(16, 12, 0.1f, 2, 3);
+        assertEquals(0, finder.find(fir, WIDTH, HEIGHT, 1f));
+        assertEquals(0, finder.find(background(), WIDTH, HEIGHT, 1f));
+    }
+
+    @Test
+    public void find_cropsHaveAspectRatioInsideFrame() {
+        int[] fir = background();
+        fillRect(fir, 60, 0, 4, 24, 230);
+
+        WarmRegionFinder finder = new WarmRegionFinder(16, 12, 0.1f, 1, 1);
+        assertEquals(1, finder.find(fir, WIDTH, HEIGHT, 1f));
+        WarmRegionFinder.Region region = finder.getRegion(0);
+
+        assertEquals(1f, (region.right - region.left) * WIDTH / ((region.bottom - region.top) * HEIGHT), 1e-4f);
+        assertTrue(region.left >= 0 && region.top >= 0);
+        assertEquals(1f, region.right, 1e-6f);
+        assertTrue(region.bottom <= 1);
+    }
+
+    private static int[] background() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, grey(60));
+        return pixels;
+    }
+
+    private static void fillRect(int[] pixels, int x0, int y0, int width, int height, int value) {
+        for (int y = y0; y < y0 + height; y++) {
+            Arrays.fill(pixels, y * WIDTH + x0, y * WIDTH + x0 + width, grey(value));
+        }
+    }
+
+    private static int grey(int value) {
+        return 0xFF000000 | (value << 16) | (value << 8) | value;
+    }
+}
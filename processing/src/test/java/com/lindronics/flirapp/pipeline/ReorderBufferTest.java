@@ -0,0 +1,48 @@
+package com.lindronics.flirapp.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReorderBufferTest {
+
+    @Test
+    public void complete_deliversInSequenceOrder() {
+        List<String> delivered = new ArrayList<>();
+        ReorderBuffer<String> buffer = new ReorderBuffer<>(4, (sequence, result) -> delivered.add(sequence + result));
+
+        buffer.complete(2, "c");
+        buffer.complete(1, "b");
+        assertTrue(delivered.isEmpty());
+        assertEquals(2, buffer.getWaiting());
+
+        buffer.complete(0, "a");
+        assertEquals(Arrays.asList("0a", "1b", "2c"), delivered);
+        assertEquals(3, buffer.getNext());
+        assertEquals(0, buffer.getWaiting());
+    }
+
+    @Test
+    public void skip_releasesLaterResults() {
+        List<Long> delivered = new ArrayList<>();
+        ReorderBuffer<Object> buffer = new ReorderBuffer<>(2, (sequence, result) -> delivered.add(sequence));
+
+        buffer.complete(1, "b");
+        buffer.skip(0);
+        buffer.complete(3, "d");
+        buffer.skip(2);
+
+        assertEquals(Arrays.asList(1L, 3L), delivered);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void complete_rejectsSequenceBeyondCapacity() {
+        ReorderBuffer<Object> buffer = new ReorderBuffer<>(2, (sequence, result) -> {
+        });
+        buffer.complete(2, "c");
+    }
+}
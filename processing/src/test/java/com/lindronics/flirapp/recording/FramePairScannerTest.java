@@ -0,0 +1,43 @@
+package com.lindronics.flirapp.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class FramePairScannerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scan_pairsImagesByTimestamp() throws Exception {
+        File directory = folder.newFolder("recording");
+        touch(directory, "rgb_2020_03_19_16_20_34_100.png");
+        touch(directory, "fir_2020_03_19_16_20_34_100.png");
+        touch(directory, "fir_2020_03_19_16_20_34_000.png");
+        touch(directory, "rgb_2020_03_19_16_20_34_000.png");
+        touch(directory, "rgb_2020_03_19_16_20_34_200.png");
+        touch(directory, "notes.txt");
+
+        List<FramePairScanner.FramePair> pairs = FramePairScanner.scan(directory);
+
+        assertEquals(2, pairs.size());
+        assertEquals("2020_03_19_16_20_34_000", pairs.get(0).name);
+        assertEquals("fir_2020_03_19_16_20_34_000.png", pairs.get(0).fir.getName());
+        assertEquals(100, pairs.get(1).timestamp - pairs.get(0).timestamp);
+        assertEquals(new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS", Locale.ROOT)
+                .parse("2020_03_19_16_20_34_100").getTime(), pairs.get(1).timestamp);
+    }
+
+    private static void touch(File directory, String name) throws IOException {
+        assertTrue(new File(directory, name).createNewFile());
+    }
+}
@@ -0,0 +1,95 @@
+package com.lindronics.flirapp.recording;
+
+import com.lindronics.flirapp.camera.ThermalData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RawSessionTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void frames_roundTrip() throws IOException {
+        File data = folder.newFile("session.raw");
+        File index = folder.newFile("session.idx");
+
+        try (RawSessionWriter writer = new RawSessionWriter(data, index)) {
+            for (int i = 0; i < 5; i++) {
+                writer.appendFrame(1000 + i, thermal(i), 8, 6, argb(8, 6, i));
+            }
+            assertEquals(5, writer.getFrameCount());
+        }
+        assertEquals(data.length(), RawSessionFormat.FILE_HEADER_SIZE + 5 * RawSessionFormat.frameSize(4, 3, 8, 6));
+
+        try (RawSessionReader reader = new RawSessionReader(data, index)) {
+            assertEquals(5, reader.getFrameCount());
+            for (int i = 0; i < 5; i++) {
+                RawSessionReader.Frame frame = reader.read(i);
+                assertEquals(i, frame.index);
+                assertEquals(1000 + i, frame.timestamp);
+                assertEquals(1000 + i, reader.getTimestamp(i));
+                assertArrayEquals(thermal(i).getValues(), frame.thermal.getValues());
+                assertArrayEquals(argb(8, 6, i), frame.getArgb());
+            }
+        }
+    }
+
+    @Test
+    public void missingIndex_isRebuiltFromData() throws IOException {
+        File data = folder.newFile("session.raw");
+        File index = folder.newFile("session.idx");
+        try (RawSessionWriter writer = new RawSessionWriter(data, index)) {
+            for (int i = 0; i < 3; i++) {
+                writer.appendFrame(i, thermal(i), 8, 6, argb(8, 6, i));
+            }
+        }
+        assertTrue(index.delete());
+
+        try (RawSessionReader reader = new RawSessionReader(data, index)) {
+            assertEquals(3, reader.getFrameCount());
+            assertEquals(2, reader.read(2).index);
+        }
+    }
+
+    @Test
+    public void temperatures_areStoredInHundredthsOfAKelvin() {
+        ThermalData thermal = ThermalData.fromKelvin(3, 1, new double[]{295.154, 100, 1000});
+        assertEquals(295.15, thermal.getKelvin(0, 0), 1e-3);
+        assertEquals(ThermalData.OFFSET, thermal.getKelvin(1, 0), 0);
+        assertEquals(ThermalData.OFFSET + 0xFFFF * ThermalData.SCALE, thermal.getKelvin(2, 0), 1e-3);
+    }
+
+    @Test
+    public void temperatures_reuseArrayOfMatchingSize() {
+        short[] values = new short[2];
+        ThermalData thermal = ThermalData.fromKelvin(2, 1, new double[]{300, 310}, values);
+        assertSame(values, thermal.getValues());
+        assertEquals(310, thermal.getKelvin(1, 0), 1e-3);
+
+        assertNotSame(values, ThermalData.fromKelvin(3, 1, new double[]{300, 310, 320}, values).getValues());
+    }
+
+    private static ThermalData thermal(int seed) {
+        double[] kelvin = new double[4 * 3];
+        for (int i = 0; i < kelvin.length; i++) {
+            kelvin[i] = 290 + seed + i * 0.25;
+        }
+        return ThermalData.fromKelvin(4, 3, kelvin);
+    }
+
+    private static int[] argb(int width, int height, int seed) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i * 0x010203 + seed * 0x1F1F1F) & 0xFFFFFF;
+        }
+        return pixels;
+    }
+}
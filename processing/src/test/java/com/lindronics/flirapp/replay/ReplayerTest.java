@@ -0,0 +1,134 @@
+package com.lindronics.flirapp.replay;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplayerTest {
+
+    /**
+     * Clock that only moves when slept on or when work is simulated
+     */
+    private static class FakeClock implements ReplayClock {
+        long now = 1_000_000_000L;
+        int sleeps = 0;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleepUntil(long deadlineNanos) {
+            sleeps++;
+            now = Math.max(now, deadlineNanos);
+        }
+    }
+
+    /**
+     * Session whose frames are their indices
+     */
+    private static class FakeSession implements ReplaySession<Integer> {
+        private final long[] timestamps;
+
+        FakeSession(long... timestamps) {
+            this.timestamps = timestamps;
+        }
+
+        @Override
+        public int getFrameCount() {
+            return timestamps.length;
+        }
+
+        @Override
+        public long getTimestamp(int frame) {
+            return timestamps[frame];
+        }
+
+        @Override
+        public Integer load(int frame) {
+            return frame;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void original_followsCaptureIntervals() throws Exception {
+        FakeClock clock = new FakeClock();
+        long start = clock.now;
+        List<Long> deliveredAt = new ArrayList<>();
+        Replayer<Integer> replayer = new Replayer<>(new FakeSession(5000, 5100, 5350), ReplayMode.ORIGINAL, 0, 1, clock);
+
+        replayer.run(frame -> deliveredAt.add((clock.now - start) / 1_000_000));
+
+        assertEquals(java.util.Arrays.asList(0L, 100L, 350L), deliveredAt);
+        assertEquals(3, replayer.getDelivered());
+        assertEquals(0, replayer.getLate());
+    }
+
+    @Test
+    public void fixedRate_ignoresTimestampsAndLoops() throws Exception {
+        FakeClock clock = new FakeClock();
+        long start = clock.now;
+        List<Long> deliveredAt = new ArrayList<>();
+        List<Integer> frames = new ArrayList<>();
+        Replayer<Integer> replayer = new Replayer<>(new FakeSession(0, 1, 900), ReplayMode.FIXED_RATE, 10, 2, clock);
+
+        replayer.run(frame -> {
+            frames.add(frame);
+            deliveredAt.add((clock.now - start) / 1_000_000);
+        });
+
+        assertEquals(java.util.Arrays.asList(0, 1, 2, 0, 1, 2), frames);
+        assertEquals(java.util.Arrays.asList(0L, 100L, 200L, 300L, 400L, 500L), deliveredAt);
+        assertEquals(12, replayer.getFramesPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void slowConsumer_countsLateFramesWithoutSkipping() throws Exception {
+        FakeClock clock = new FakeClock();
+        List<Integer> frames = new ArrayList<>();
+        Replayer<Integer> replayer = new Replayer<>(new FakeSession(0, 100, 200, 300), ReplayMode.ORIGINAL, 0, 1, clock);
+
+        // Every frame takes 150 ms to handle
+        replayer.run(frame -> {
+            frames.add(frame);
+            clock.now += 150_000_000L;
+        });
+
+        assertEquals(java.util.Arrays.asList(0, 1, 2, 3), frames);
+        assertEquals(3, replayer.getLate());
+    }
+
+    @Test
+    public void asFastAsPossible_neverSleeps() throws Exception {
+        FakeClock clock = new FakeClock();
+        Replayer<Integer> replayer = new Replayer<>(new FakeSession(0, 1000, 2000), ReplayMode.AS_FAST_AS_POSSIBLE, 0, 3, clock);
+
+        replayer.run(frame -> clock.now += 10_000_000L);
+
+        assertEquals(9, replayer.getDelivered());
+        assertEquals(0, clock.sleeps);
+        assertEquals(100, replayer.getFramesPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void stop_endsAfterCurrentFrame() throws Exception {
+        FakeClock clock = new FakeClock();
+        Replayer<Integer> replayer = new Replayer<>(new FakeSession(0, 1, 2, 3), ReplayMode.AS_FAST_AS_POSSIBLE, 0, 1, clock);
+
+        replayer.run(frame -> {
+            if (frame == 1) {
+                replayer.stop();
+            }
+        });
+
+        assertEquals(2, replayer.getDelivered());
+    }
+}